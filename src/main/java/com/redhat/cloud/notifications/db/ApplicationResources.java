@@ -12,21 +12,36 @@ import javax.inject.Inject;
 import javax.validation.constraints.NotNull;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 @ApplicationScoped
+@TimedQueries
 public class ApplicationResources {
 
+    private static final Query.SortFields EVENT_TYPE_SORT_FIELDS = new Query.SortFields("EventType", "e", Map.of(
+            "id", "id",
+            "name", "name",
+            "display_name", "displayName"
+    ));
+
     @Inject
     Mutiny.Session session;
 
+    @Inject
+    ReadReplica readReplica;
+
+    @Inject
+    ReferenceDataCache referenceDataCache;
+
     public Uni<Application> createApplication(Application app) {
         // The returned app will contain an ID and a creation timestamp.
         return Uni.createFrom().item(app)
                 .onItem().transform(this::addBundleReference)
                 .onItem().transformToUni(session::persist)
                 .call(session::flush)
+                .invoke(referenceDataCache::invalidateAll)
                 .replaceWith(app);
     }
 
@@ -37,7 +52,8 @@ public class ApplicationResources {
                 .setParameter("displayName", app.getDisplayName())
                 .setParameter("id", id)
                 .executeUpdate()
-                .call(session::flush);
+                .call(session::flush)
+                .invoke(referenceDataCache::invalidateAll);
     }
 
     public Uni<Boolean> deleteApplication(UUID id) {
@@ -46,6 +62,7 @@ public class ApplicationResources {
                 .setParameter("id", id)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(referenceDataCache::invalidateAll)
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -57,37 +74,42 @@ public class ApplicationResources {
                 })
                 .onItem().transformToUni(session::persist)
                 .call(session::flush)
+                .invoke(referenceDataCache::invalidateAll)
                 .replaceWith(eventType)
                 .onItem().transform(EventType::filterOutApplication);
     }
 
     public Multi<Application> getApplications(String bundleName) {
-        String query = "FROM Application WHERE bundle.name = :bundleName";
-        return session.createQuery(query, Application.class)
+        String query = "FROM Application a JOIN FETCH a.bundle b WHERE b.name = :bundleName";
+        return referenceDataCache.get(() -> session.createQuery(query, Application.class)
                 .setParameter("bundleName", bundleName)
-                .getResultList()
+                .getResultList(), "applications-by-bundle-name", bundleName)
                 .onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 
     public Uni<Application> getApplication(UUID id) {
-        return session.find(Application.class, id);
+        String query = "FROM Application a JOIN FETCH a.bundle WHERE a.id = :id";
+        return referenceDataCache.get(() -> session.createQuery(query, Application.class)
+                .setParameter("id", id)
+                .getSingleResultOrNull(), "application", id);
     }
 
     public Uni<Application> getApplication(String bundleName, String applicationName) {
-        String query = "FROM Application WHERE bundle.name = :bundleName AND name = :applicationName";
-        return session.createQuery(query, Application.class)
+        String query = "FROM Application a JOIN FETCH a.bundle b WHERE b.name = :bundleName AND a.name = :applicationName";
+        return referenceDataCache.get(() -> session.createQuery(query, Application.class)
                 .setParameter("bundleName", bundleName)
                 .setParameter("applicationName", applicationName)
-                .getSingleResultOrNull();
+                .getSingleResultOrNull(), "application-by-name", bundleName, applicationName);
     }
 
     public Uni<EventType> getEventType(String bundleName, String applicationName, String eventTypeName) {
-        final String query = "FROM EventType WHERE name = :eventTypeName AND application.name = :applicationName AND application.bundle.name = :bundleName";
-        return session.createQuery(query, EventType.class)
+        final String query = "SELECT e FROM EventType e JOIN FETCH e.application a JOIN FETCH a.bundle " +
+                "WHERE e.name = :eventTypeName AND a.name = :applicationName AND a.bundle.name = :bundleName";
+        return referenceDataCache.get(() -> session.createQuery(query, EventType.class)
                 .setParameter("bundleName", bundleName)
                 .setParameter("applicationName", applicationName)
                 .setParameter("eventTypeName", eventTypeName)
-                .getSingleResultOrNull();
+                .getSingleResultOrNull(), "event-type-by-name", bundleName, applicationName, eventTypeName);
     }
 
     public Multi<EventType> getEventTypes(UUID appId) {
@@ -105,6 +127,7 @@ public class ApplicationResources {
                 .setParameter("id", id)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(referenceDataCache::invalidateAll)
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -123,24 +146,26 @@ public class ApplicationResources {
         }
 
         if (limiter != null) {
-            query = limiter.getModifiedQuery(query);
+            query = limiter.getModifiedQuery(query, EVENT_TYPE_SORT_FIELDS);
         }
 
-        Mutiny.Query<EventType> mutinyQuery = session.createQuery(query, EventType.class);
-        if (appIds != null && appIds.size() > 0) {
-            mutinyQuery = mutinyQuery.setParameter("appIds", appIds);
-        }
-        if (bundleId != null) {
-            mutinyQuery = mutinyQuery.setParameter("bundleId", bundleId);
-        }
-
-        if (limiter != null && limiter.getLimit() != null && limiter.getLimit().getLimit() > 0) {
-            mutinyQuery = mutinyQuery.setMaxResults(limiter.getLimit().getLimit())
-                    .setFirstResult(limiter.getLimit().getOffset());
-        }
-
-        return mutinyQuery.getResultList()
-                .onItem().transformToMulti(Multi.createFrom()::iterable);
+        String hql = query;
+        return readReplica.withSession(session -> {
+            Mutiny.Query<EventType> mutinyQuery = session.createQuery(hql, EventType.class);
+            if (appIds != null && appIds.size() > 0) {
+                mutinyQuery = mutinyQuery.setParameter("appIds", appIds);
+            }
+            if (bundleId != null) {
+                mutinyQuery = mutinyQuery.setParameter("bundleId", bundleId);
+            }
+
+            if (limiter != null) {
+                mutinyQuery = limiter.applyTo(mutinyQuery);
+            }
+
+            return Query.checkCursor(limiter, session, EVENT_TYPE_SORT_FIELDS, null)
+                    .chain(mutinyQuery::getResultList);
+        }).onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 
     // TODO [BG Phase 2] Delete this method
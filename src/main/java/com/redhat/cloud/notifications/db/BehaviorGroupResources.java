@@ -2,6 +2,7 @@ package com.redhat.cloud.notifications.db;
 
 import com.redhat.cloud.notifications.models.BehaviorGroup;
 import com.redhat.cloud.notifications.models.BehaviorGroupAction;
+import com.redhat.cloud.notifications.models.BehaviorGroupExport;
 import com.redhat.cloud.notifications.models.Bundle;
 import com.redhat.cloud.notifications.models.Endpoint;
 import com.redhat.cloud.notifications.models.EventType;
@@ -12,19 +13,51 @@ import org.hibernate.reactive.mutiny.Mutiny;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.ws.rs.NotFoundException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @ApplicationScoped
+@TimedQueries
 public class BehaviorGroupResources {
 
+    /*
+     * Name of the invalidation published once a write of the behavior groups, of their actions or of their event types
+     * is committed. The caches of the routing of the events observe it.
+     */
+    public static final String BEHAVIOR_GROUPS_CACHE_NAME = "behavior-groups";
+
     private static final Logger LOGGER = Logger.getLogger(BehaviorGroupResources.class.getName());
 
+    private static final Query.SortFields BEHAVIOR_GROUP_SORT_FIELDS = new Query.SortFields("BehaviorGroup", "bg", "accountId", Map.of(
+            "id", "id",
+            "name", "name",
+            "display_name", "displayName",
+            "created", "created"
+    ));
+
     @Inject
     Mutiny.Session session;
 
+    @Inject
+    Mutiny.SessionFactory sessionFactory;
+
+    @Inject
+    EndpointResources endpointResources;
+
+    @Inject
+    ReadReplica readReplica;
+
+    @Inject
+    CacheInvalidationBus invalidationBus;
+
     public Uni<BehaviorGroup> create(String accountId, BehaviorGroup behaviorGroup) {
         return Uni.createFrom().item(behaviorGroup)
                 .onItem().transform(bg -> {
@@ -35,6 +68,7 @@ public class BehaviorGroupResources {
                 })
                 .onItem().transformToUni(session::persist)
                 .call(session::flush)
+                .invoke(this::invalidateBehaviorGroups)
                 .replaceWith(behaviorGroup);
     }
 
@@ -45,7 +79,70 @@ public class BehaviorGroupResources {
         return session.createQuery(query, BehaviorGroup.class)
                 .setParameter("accountId", accountId)
                 .setParameter("bundleId", bundleId)
-                .getResultList();
+                .getResultList()
+                .call(behaviorGroups -> {
+                    List<Endpoint> endpoints = new ArrayList<>();
+                    for (BehaviorGroup behaviorGroup : behaviorGroups) {
+                        for (BehaviorGroupAction action : behaviorGroup.getActions()) {
+                            endpoints.add(action.getEndpoint());
+                        }
+                    }
+                    return endpointResources.loadProperties(endpoints);
+                });
+    }
+
+    /*
+     * Returns a page of the behavior groups of the account, ordered by id, like EndpointResources#getEndpointsPage. Only
+     * the ids of the endpoints and event types linked to the behavior groups are exported, so they are read with
+     * projections restricted to the behavior groups of the page instead of loading the actions and behaviors entities.
+     */
+    public Uni<List<BehaviorGroupExport>> exportBehaviorGroupsPage(String accountId, UUID after, int limit) {
+        String query = "FROM BehaviorGroup WHERE accountId = :accountId";
+        if (after != null) {
+            query += " AND id > :after";
+        }
+        query += " ORDER BY id";
+        String actionsQuery = "SELECT bga.id.behaviorGroupId, bga.id.endpointId FROM BehaviorGroupAction bga " +
+                "WHERE bga.id.behaviorGroupId IN (:behaviorGroupIds)";
+        String behaviorsQuery = "SELECT etb.id.behaviorGroupId, etb.id.eventTypeId FROM EventTypeBehavior etb " +
+                "WHERE etb.id.behaviorGroupId IN (:behaviorGroupIds)";
+
+        String hql = query;
+        return readReplica.withSession(session -> {
+            Mutiny.Query<BehaviorGroup> mutinyQuery = session.createQuery(hql, BehaviorGroup.class)
+                    .setParameter("accountId", accountId)
+                    .setMaxResults(limit);
+            if (after != null) {
+                mutinyQuery = mutinyQuery.setParameter("after", after);
+            }
+            return mutinyQuery.getResultList()
+                    .onItem().transformToUni(behaviorGroups -> {
+                        Map<UUID, BehaviorGroupExport> exports = new LinkedHashMap<>();
+                        for (BehaviorGroup behaviorGroup : behaviorGroups) {
+                            exports.put(behaviorGroup.getId(), new BehaviorGroupExport(behaviorGroup));
+                        }
+                        if (exports.isEmpty()) {
+                            return Uni.createFrom().item(new ArrayList<>(exports.values()));
+                        }
+                        return session.<Object[]>createQuery(actionsQuery)
+                                .setParameter("behaviorGroupIds", exports.keySet())
+                                .getResultList()
+                                .onItem().invoke(rows -> {
+                                    for (Object[] row : rows) {
+                                        exports.get((UUID) row[0]).getEndpointIds().add((UUID) row[1]);
+                                    }
+                                })
+                                .chain(() -> session.<Object[]>createQuery(behaviorsQuery)
+                                        .setParameter("behaviorGroupIds", exports.keySet())
+                                        .getResultList())
+                                .onItem().transform(rows -> {
+                                    for (Object[] row : rows) {
+                                        exports.get((UUID) row[0]).getEventTypeIds().add((UUID) row[1]);
+                                    }
+                                    return new ArrayList<>(exports.values());
+                                });
+                    });
+        });
     }
 
     // TODO Should this be forbidden for default behavior groups?
@@ -58,6 +155,7 @@ public class BehaviorGroupResources {
                 .setParameter("id", behaviorGroup.getId())
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(this::invalidateBehaviorGroups)
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -69,6 +167,7 @@ public class BehaviorGroupResources {
                 .setParameter("id", behaviorGroupId)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(this::invalidateBehaviorGroups)
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -89,6 +188,7 @@ public class BehaviorGroupResources {
                 })
                 .onItem().transformToUni(session::persist)
                 .onItem().call(session::flush)
+                .invoke(this::invalidateBehaviorGroups)
                 .replaceWith(Boolean.TRUE)
                 .onFailure().recoverWithItem(failure -> {
                     LOGGER.log(Level.WARNING, "Event type behavior addition failed", failure);
@@ -105,6 +205,7 @@ public class BehaviorGroupResources {
                 .setParameter("accountId", accountId)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(this::invalidateBehaviorGroups)
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -121,19 +222,19 @@ public class BehaviorGroupResources {
         String query = "SELECT bg FROM BehaviorGroup bg JOIN bg.behaviors b WHERE bg.accountId = :accountId AND b.eventType.id = :eventTypeId";
 
         if (limiter != null) {
-            query = limiter.getModifiedQuery(query);
+            query = limiter.getModifiedQuery(query, BEHAVIOR_GROUP_SORT_FIELDS);
         }
 
         Mutiny.Query<BehaviorGroup> mutinyQuery = session.createQuery(query, BehaviorGroup.class)
                 .setParameter("accountId", accountId)
                 .setParameter("eventTypeId", eventTypeId);
 
-        if (limiter != null && limiter.getLimit() != null && limiter.getLimit().getLimit() > 0) {
-            mutinyQuery = mutinyQuery.setMaxResults(limiter.getLimit().getLimit())
-                    .setFirstResult(limiter.getLimit().getOffset());
+        if (limiter != null) {
+            mutinyQuery = limiter.applyTo(mutinyQuery);
         }
 
-        return mutinyQuery.getResultList()
+        return Query.checkCursor(limiter, session, BEHAVIOR_GROUP_SORT_FIELDS, accountId)
+                .chain(mutinyQuery::getResultList)
                 .onItem().invoke(behaviorGroups -> behaviorGroups.forEach(BehaviorGroup::filterOutActions));
     }
 
@@ -154,6 +255,7 @@ public class BehaviorGroupResources {
                 })
                 .onItem().transformToUni(session::persist)
                 .onItem().call(session::flush)
+                .invoke(this::invalidateBehaviorGroups)
                 .replaceWith(Boolean.TRUE)
                 .onFailure().recoverWithItem(failure -> {
                     LOGGER.log(Level.WARNING, "Behavior group action addition failed", failure);
@@ -170,9 +272,98 @@ public class BehaviorGroupResources {
                 .setParameter("accountId", accountId)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(this::invalidateBehaviorGroups)
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
+    /*
+     * Replaces the event types linked to a behavior group with the given ones in a single transaction. The links which
+     * already exist are left untouched. The unknown event types are ignored. Returns false if the behavior group does
+     * not exist or belongs to another account.
+     */
+    public Uni<Boolean> updateBehaviorGroupEventTypes(String accountId, UUID behaviorGroupId, Set<UUID> eventTypeIds) {
+        String deleteQuery = "DELETE FROM event_type_behavior WHERE behavior_group_id = :behaviorGroupId";
+        if (!eventTypeIds.isEmpty()) {
+            deleteQuery += " AND event_type_id NOT IN (" + parameterList("eventTypeId", eventTypeIds.size()) + ")";
+        }
+        // HQL does not support the ON CONFLICT clause so we need a native query here
+        String insertQuery = "INSERT INTO event_type_behavior (event_type_id, behavior_group_id, created) " +
+                "SELECT et.id, bg.id, CAST(:created AS TIMESTAMP) FROM event_type et, behavior_group bg " +
+                "WHERE bg.id = :behaviorGroupId AND et.id IN (" + parameterList("eventTypeId", eventTypeIds.size()) + ") ON CONFLICT DO NOTHING";
+        return replaceLinks(accountId, behaviorGroupId, eventTypeIds, "eventTypeId", deleteQuery, insertQuery);
+    }
+
+    /*
+     * Replaces the actions of a behavior group with the given endpoints in a single transaction. The actions which
+     * already exist are left untouched. The unknown endpoints and the endpoints of other accounts are ignored. Returns
+     * false if the behavior group does not exist or belongs to another account.
+     */
+    public Uni<Boolean> updateBehaviorGroupActions(String accountId, UUID behaviorGroupId, Set<UUID> endpointIds) {
+        String deleteQuery = "DELETE FROM behavior_group_action WHERE behavior_group_id = :behaviorGroupId";
+        if (!endpointIds.isEmpty()) {
+            deleteQuery += " AND endpoint_id NOT IN (" + parameterList("endpointId", endpointIds.size()) + ")";
+        }
+        // HQL does not support the ON CONFLICT clause so we need a native query here
+        String insertQuery = "INSERT INTO behavior_group_action (behavior_group_id, endpoint_id, created) " +
+                "SELECT bg.id, e.id, CAST(:created AS TIMESTAMP) FROM endpoints e, behavior_group bg " +
+                "WHERE bg.id = :behaviorGroupId AND e.account_id = bg.account_id " +
+                "AND e.id IN (" + parameterList("endpointId", endpointIds.size()) + ") ON CONFLICT DO NOTHING";
+        return replaceLinks(accountId, behaviorGroupId, endpointIds, "endpointId", deleteQuery, insertQuery);
+    }
+
+    /*
+     * The behavior group row is locked by the ownership check, so that concurrent replacements of the links of the
+     * same behavior group are applied one after the other instead of being merged.
+     */
+    private Uni<Boolean> replaceLinks(String accountId, UUID behaviorGroupId, Set<UUID> ids, String parameterName, String deleteQuery, String insertQuery) {
+        String ownershipQuery = "SELECT id FROM behavior_group WHERE account_id = :accountId AND id = :behaviorGroupId FOR UPDATE";
+        return sessionFactory.withTransaction((session, transaction) -> session.createNativeQuery(ownershipQuery)
+                .setParameter("accountId", accountId)
+                .setParameter("behaviorGroupId", behaviorGroupId)
+                .getResultList()
+                .onItem().transformToUni(rows -> {
+                    if (rows.isEmpty()) {
+                        return Uni.createFrom().item(Boolean.FALSE);
+                    }
+                    Mutiny.Query<Object> delete = setParameterList(session.createNativeQuery(deleteQuery), parameterName, ids)
+                            .setParameter("behaviorGroupId", behaviorGroupId);
+                    if (ids.isEmpty()) {
+                        return delete.executeUpdate().replaceWith(Boolean.TRUE);
+                    }
+                    Mutiny.Query<Object> insert = setParameterList(session.createNativeQuery(insertQuery), parameterName, ids)
+                            .setParameter("behaviorGroupId", behaviorGroupId)
+                            .setParameter("created", LocalDateTime.now(ZoneOffset.UTC));
+                    return delete.executeUpdate()
+                            .chain(insert::executeUpdate)
+                            .replaceWith(Boolean.TRUE);
+                })
+        ).invoke(this::invalidateBehaviorGroups);
+    }
+
+    // The writes which don't run in a transaction are committed by each statement, so this is called after their last flush.
+    private void invalidateBehaviorGroups() {
+        invalidationBus.invalidate(BEHAVIOR_GROUPS_CACHE_NAME);
+    }
+
+    private static String parameterList(String name, int size) {
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                parameters.append(", ");
+            }
+            parameters.append(":").append(name).append(i);
+        }
+        return parameters.toString();
+    }
+
+    private static Mutiny.Query<Object> setParameterList(Mutiny.Query<Object> query, String name, Set<UUID> values) {
+        int i = 0;
+        for (UUID value : values) {
+            query.setParameter(name + i++, value);
+        }
+        return query;
+    }
+
     // This should only be called from an internal API. That's why we don't have to validate the accountId.
     public Uni<Boolean> setDefaultBehaviorGroup(UUID bundleId, UUID behaviorGroupId) {
         String query = "UPDATE BehaviorGroup SET defaultBehavior = (CASE WHEN id = :behaviorGroupId THEN TRUE ELSE FALSE END) " +
@@ -182,6 +373,7 @@ public class BehaviorGroupResources {
                 .setParameter("bundleId", bundleId)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(this::invalidateBehaviorGroups)
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -193,6 +385,7 @@ public class BehaviorGroupResources {
                 .setParameter("eventTypeId", eventTypeId)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(this::invalidateBehaviorGroups)
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 }
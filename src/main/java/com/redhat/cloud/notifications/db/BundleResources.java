@@ -14,35 +14,39 @@ import java.util.UUID;
  * Deal with Bundles.
  */
 @ApplicationScoped
+@TimedQueries
 public class BundleResources {
 
     @Inject
     Mutiny.Session session;
 
+    @Inject
+    ReferenceDataCache referenceDataCache;
+
     public Uni<Bundle> createBundle(Bundle bundle) {
         // The returned bundle will contain an ID and a creation timestamp.
         return Uni.createFrom().item(bundle)
                 .onItem().transformToUni(session::persist)
                 .call(session::flush)
+                .invoke(referenceDataCache::invalidateAll)
                 .replaceWith(bundle);
     }
 
     public Multi<Bundle> getBundles() {
         String query = "FROM Bundle";
-        return session.createQuery(query, Bundle.class)
-                .getResultList()
+        return referenceDataCache.get(() -> session.createQuery(query, Bundle.class).getResultList(), "bundles")
                 .onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 
     public Uni<Bundle> getBundle(UUID id) {
-        return session.find(Bundle.class, id);
+        return referenceDataCache.get(() -> session.find(Bundle.class, id), "bundle", id);
     }
 
     public Uni<Bundle> getBundle(String name) {
         String query = "FROM Bundle WHERE name = :name";
-        return session.createQuery(query, Bundle.class)
+        return referenceDataCache.get(() -> session.createQuery(query, Bundle.class)
                 .setParameter("name", name)
-                .getSingleResultOrNull();
+                .getSingleResultOrNull(), "bundle-by-name", name);
     }
 
     public Uni<Integer> updateBundle(UUID id, Bundle bundle) {
@@ -52,7 +56,8 @@ public class BundleResources {
                 .setParameter("displayName", bundle.getDisplayName())
                 .setParameter("id", id)
                 .executeUpdate()
-                .call(session::flush);
+                .call(session::flush)
+                .invoke(referenceDataCache::invalidateAll);
     }
 
     public Uni<Boolean> deleteBundle(UUID id) {
@@ -61,14 +66,15 @@ public class BundleResources {
                 .setParameter("id", id)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(referenceDataCache::invalidateAll)
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
     public Multi<Application> getApplications(UUID id) {
-        String query = "FROM Application WHERE bundle.id = :id";
-        return session.createQuery(query, Application.class)
+        String query = "FROM Application a JOIN FETCH a.bundle b WHERE b.id = :id";
+        return referenceDataCache.get(() -> session.createQuery(query, Application.class)
                 .setParameter("id", id)
-                .getResultList()
+                .getResultList(), "applications", id)
                 .onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 
@@ -77,6 +83,7 @@ public class BundleResources {
                 .onItem().transform(a -> addBundleReference(a, bundleId))
                 .onItem().transformToUni(session::persist)
                 .call(session::flush)
+                .invoke(referenceDataCache::invalidateAll)
                 .replaceWith(app);
     }
 
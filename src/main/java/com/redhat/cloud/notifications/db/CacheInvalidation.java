@@ -0,0 +1,24 @@
+package com.redhat.cloud.notifications.db;
+
+/**
+ * CDI event fired by {@link CacheInvalidationBus} when another instance of the application invalidated a cache.
+ */
+public class CacheInvalidation {
+
+    private final String cacheName;
+
+    CacheInvalidation(String cacheName) {
+        this.cacheName = cacheName;
+    }
+
+    static CacheInvalidation all() {
+        return new CacheInvalidation(null);
+    }
+
+    /**
+     * @return {@code true} if the given cache has to be invalidated
+     */
+    public boolean concerns(String cacheName) {
+        return this.cacheName == null || this.cacheName.equals(cacheName);
+    }
+}
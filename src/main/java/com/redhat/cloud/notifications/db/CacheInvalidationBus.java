@@ -0,0 +1,187 @@
+package com.redhat.cloud.notifications.db;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.vertx.core.Vertx;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.pgclient.PgConnection;
+import io.vertx.pgclient.pubsub.PgSubscriber;
+import io.vertx.sqlclient.Tuple;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Propagates the invalidations of the in-process caches to all instances of the application with the PostgreSQL
+ * LISTEN/NOTIFY commands. Each instance listens to the invalidations from a dedicated connection and fires a
+ * {@link CacheInvalidation} event for each invalidation published by another instance.
+ * <p>
+ * The notifications sent while an instance is disconnected are lost, so all caches are invalidated each time the
+ * listening connection is (re)established. The invalidations published while disconnected are kept and published
+ * once the connection is (re)established.
+ */
+@ApplicationScoped
+public class CacheInvalidationBus {
+
+    public static final String CHANNEL = "notifications_cache_invalidation";
+    public static final String PUBLISHED_COUNTER_NAME = "cache.invalidation.published";
+    public static final String RECEIVED_COUNTER_NAME = "cache.invalidation.received";
+
+    static final String SEPARATOR = "|";
+
+    private static final Logger LOGGER = Logger.getLogger(CacheInvalidationBus.class.getName());
+    private static final long RECONNECT_DELAY_MS = 1000L;
+
+    // Identifies the invalidations published by this instance, which has already invalidated its own caches.
+    private final String instanceId = UUID.randomUUID().toString();
+
+    @Inject
+    Vertx vertx;
+
+    @Inject
+    Event<CacheInvalidation> invalidationEvent;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "cache.invalidation.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "quarkus.datasource.reactive.url")
+    String url;
+
+    @ConfigProperty(name = "quarkus.datasource.username")
+    String username;
+
+    @ConfigProperty(name = "quarkus.datasource.password")
+    String password;
+
+    private PgSubscriber subscriber;
+    private volatile boolean closed;
+    // Names of the caches whose invalidation could not be published yet
+    private final Set<String> pendingInvalidations = ConcurrentHashMap.newKeySet();
+    private Counter published;
+    private Counter received;
+
+    @PostConstruct
+    void init() {
+        published = registry.counter(PUBLISHED_COUNTER_NAME);
+        received = registry.counter(RECEIVED_COUNTER_NAME);
+    }
+
+    void start(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        PgConnectOptions options = PgConnectOptions.fromUri(url)
+                .setUser(username)
+                .setPassword(password);
+        subscriber = PgSubscriber.subscriber(vertx, options)
+                .reconnectPolicy(retries -> RECONNECT_DELAY_MS);
+        subscriber.channel(CHANNEL)
+                .subscribeHandler(ignored -> {
+                    LOGGER.info("Listening to the cache invalidations");
+                    invalidationEvent.fire(CacheInvalidation.all());
+                    for (String cacheName : pendingInvalidations) {
+                        pendingInvalidations.remove(cacheName);
+                        publish(cacheName);
+                    }
+                })
+                .handler(this::onMessage);
+        connect(true);
+    }
+
+    /*
+     * The reconnect policy of the subscriber only applies once it has been connected, so a failed first connection is
+     * retried here with the same delay.
+     */
+    private void connect(boolean firstAttempt) {
+        subscriber.connect(result -> {
+            if (result.failed() && !closed) {
+                if (firstAttempt) {
+                    LOGGER.log(Level.WARNING, "Could not listen to the cache invalidations, retrying until connected", result.cause());
+                }
+                vertx.setTimer(RECONNECT_DELAY_MS, ignored -> connect(false));
+            }
+        });
+    }
+
+    void stop(@Observes ShutdownEvent event) {
+        closed = true;
+        if (subscriber != null) {
+            subscriber.close();
+        }
+    }
+
+    /**
+     * Tells whether the invalidations published by the other instances are currently received. The caches should only
+     * be kept for a long time while they are.
+     *
+     * @return {@code true} if the listening connection is established
+     */
+    public boolean isConnected() {
+        return subscriber != null && subscriber.actualConnection() != null;
+    }
+
+    /**
+     * Invalidates the given cache in this instance, by firing a {@link CacheInvalidation} event, and asks the other
+     * instances of the application to invalidate it. The writes which affect data cached by other beans call this
+     * method once they are committed, so that these beans only have to observe the invalidation events.
+     *
+     * @param cacheName the name of the cache
+     */
+    public void invalidate(String cacheName) {
+        invalidationEvent.fire(new CacheInvalidation(cacheName));
+        publish(cacheName);
+    }
+
+    /**
+     * Asks the other instances of the application to invalidate the given cache. The caller is responsible for the
+     * invalidation of its own cache.
+     *
+     * @param cacheName the name of the cache
+     */
+    public void publish(String cacheName) {
+        if (subscriber == null) {
+            return;
+        }
+        PgConnection connection = subscriber.actualConnection();
+        if (connection == null) {
+            LOGGER.warning(() -> "Not connected, the invalidation of the " + cacheName + " cache will be published once connected");
+            pendingInvalidations.add(cacheName);
+            return;
+        }
+        connection.preparedQuery("SELECT pg_notify($1, $2)").execute(Tuple.of(CHANNEL, instanceId + SEPARATOR + cacheName), result -> {
+            if (result.succeeded()) {
+                published.increment();
+            } else {
+                LOGGER.log(Level.WARNING, "Could not publish the invalidation of the " + cacheName + " cache, it will be " +
+                        "published again once reconnected", result.cause());
+                pendingInvalidations.add(cacheName);
+            }
+        });
+    }
+
+    private void onMessage(String payload) {
+        int separatorIndex = payload.indexOf(SEPARATOR);
+        if (separatorIndex < 0) {
+            LOGGER.warning(() -> "Invalid cache invalidation message: " + payload);
+            return;
+        }
+        if (!instanceId.equals(payload.substring(0, separatorIndex))) {
+            received.increment();
+            invalidationEvent.fire(new CacheInvalidation(payload.substring(separatorIndex + 1)));
+        }
+    }
+}
@@ -1,22 +1,108 @@
 package com.redhat.cloud.notifications.db;
 
+import com.cronutils.model.CronType;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.model.time.ExecutionTime;
+import com.cronutils.parser.CronParser;
 import com.redhat.cloud.notifications.models.EmailAggregation;
 import com.redhat.cloud.notifications.models.EmailAggregationKey;
+import com.redhat.cloud.notifications.models.EmailAggregationRun;
+import com.redhat.cloud.notifications.models.EmailAggregationSummary;
+import com.redhat.cloud.notifications.models.EmailAggregationSummaryId;
+import com.redhat.cloud.notifications.models.EmailSubscriptionType;
 import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonObject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.LockMode;
 import org.hibernate.reactive.mutiny.Mutiny;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 @ApplicationScoped
+@TimedQueries
 public class EmailAggregationResources {
 
     @Inject
     Mutiny.Session session;
 
+    /*
+     * The aggregation keys are processed concurrently by the scheduled email jobs. A Mutiny.Session must not be used
+     * by concurrent operations, so all the methods called from these jobs open their own session from the factory.
+     */
+    @Inject
+    Mutiny.SessionFactory sessionFactory;
+
+    @ConfigProperty(name = "email.aggregation.page_size", defaultValue = "1000")
+    int pageSize;
+
+    // The daily windows are delimited by the scheduled fire times of the daily email job
+    @ConfigProperty(name = "email.subscription.daily.cron")
+    String dailyCron;
+
+    private ExecutionTime dailyWindows;
+    private volatile DailyWindow currentDailyWindow;
+
+    @PostConstruct
+    void init() {
+        CronParser parser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(CronType.QUARTZ));
+        dailyWindows = ExecutionTime.forCron(parser.parse(dailyCron));
+    }
+
+    /*
+     * Returns the start of the daily aggregation window (start, end] which contains the given UTC time, which is the
+     * last fire time of the daily email job scheduled before it. The cron expression is evaluated in the default time
+     * zone, like the scheduler does. The current window is kept since this is called for each aggregation.
+     */
+    public LocalDateTime getDailyWindowStart(LocalDateTime time) {
+        DailyWindow window = currentDailyWindow;
+        if (window == null || !time.isAfter(window.start) || time.isAfter(window.end)) {
+            ZonedDateTime zonedTime = time.atZone(ZoneOffset.UTC).withZoneSameInstant(ZoneId.systemDefault());
+            ZonedDateTime start = dailyWindows.lastExecution(zonedTime).orElse(zonedTime.truncatedTo(ChronoUnit.DAYS));
+            ZonedDateTime end = dailyWindows.nextExecution(start).orElse(start.plusDays(1L));
+            window = new DailyWindow(toUtc(start), toUtc(end));
+            currentDailyWindow = window;
+        }
+        return window.start;
+    }
+
+    private static LocalDateTime toUtc(ZonedDateTime time) {
+        return time.withZoneSameInstant(ZoneOffset.UTC).toLocalDateTime();
+    }
+
+    private static class DailyWindow {
+
+        final LocalDateTime start;
+        final LocalDateTime end;
+
+        DailyWindow(LocalDateTime start, LocalDateTime end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
     public Uni<Boolean> addEmailAggregation(EmailAggregation aggregation) {
+        if (aggregation.getPayloadHash() != null) {
+            return addEmailAggregations(List.of(aggregation))
+                    .replaceWith(Boolean.TRUE)
+                    .onFailure().recoverWithItem(Boolean.FALSE);
+        }
         return Uni.createFrom().item(aggregation)
                 .onItem().transformToUni(session::persist)
                 .call(session::flush)
@@ -24,36 +110,354 @@ public class EmailAggregationResources {
                 .onFailure().recoverWithItem(Boolean.FALSE);
     }
 
+    /*
+     * Inserts the given aggregations with a single multi-row statement and returns the number of inserted rows. The ids
+     * are generated by the database. An aggregation with a payload hash is skipped if the same payload was already
+     * stored for its key during the current daily window: the hash is inserted by the same statement and the aggregation
+     * is only inserted with it, so the primary key of email_aggregation_payload_hash also guards the concurrent
+     * insertions of the other replicas, and a failed statement leaves no hash behind. The creation time is set when the
+     * statement runs, which keeps it consistent with the generated ids: a row is never created before a row with a lower
+     * id. This is also used from background flushes, outside of any request, so a dedicated session is needed.
+     */
+    public Uni<Integer> addEmailAggregations(List<EmailAggregation> aggregations) {
+        // A payload repeated within the batch would pass the check twice since both copies see the same new hash
+        List<EmailAggregation> distinctAggregations = new ArrayList<>(aggregations.size());
+        Set<List<String>> payloadHashes = new HashSet<>();
+        for (EmailAggregation aggregation : aggregations) {
+            if (aggregation.getPayloadHash() == null || payloadHashes.add(List.of(aggregation.getAccountId(),
+                    aggregation.getBundleName(), aggregation.getApplicationName(), aggregation.getPayloadHash()))) {
+                distinctAggregations.add(aggregation);
+            }
+        }
+
+        StringBuilder query = new StringBuilder("WITH v (account_id, bundle, application, payload, payload_hash) AS (VALUES ");
+        for (int i = 0; i < distinctAggregations.size(); i++) {
+            if (i > 0) {
+                query.append(", ");
+            }
+            query.append(String.format("(CAST(:accountId%1$d AS VARCHAR), CAST(:bundle%1$d AS VARCHAR), CAST(:application%1$d AS VARCHAR), " +
+                    "CAST(:payload%1$d AS TEXT), CAST(:payloadHash%1$d AS VARCHAR))", i));
+        }
+        query.append("), stored AS (INSERT INTO email_aggregation_payload_hash (account_id, bundle, application, payload_hash, window_start) " +
+                "SELECT account_id, bundle, application, payload_hash, CAST(:windowStart AS TIMESTAMP) FROM v WHERE payload_hash IS NOT NULL " +
+                "ON CONFLICT DO NOTHING RETURNING account_id, bundle, application, payload_hash) " +
+                "INSERT INTO email_aggregation (account_id, bundle, application, payload, created) " +
+                "SELECT v.account_id, v.bundle, v.application, v.payload, CAST(:created AS TIMESTAMP) FROM v " +
+                "WHERE v.payload_hash IS NULL OR EXISTS (SELECT 1 FROM stored s WHERE s.account_id = v.account_id " +
+                "AND s.bundle = v.bundle AND s.application = v.application AND s.payload_hash = v.payload_hash)");
+        // HQL does not support the ON CONFLICT clause so we need a native query here
+        return sessionFactory.withSession(session -> {
+            LocalDateTime created = LocalDateTime.now(ZoneOffset.UTC);
+            Mutiny.Query<Object> insertQuery = session.createNativeQuery(query.toString())
+                    .setParameter("created", created)
+                    .setParameter("windowStart", getDailyWindowStart(created));
+            for (int i = 0; i < distinctAggregations.size(); i++) {
+                EmailAggregation aggregation = distinctAggregations.get(i);
+                insertQuery.setParameter("accountId" + i, aggregation.getAccountId())
+                        .setParameter("bundle" + i, aggregation.getBundleName())
+                        .setParameter("application" + i, aggregation.getApplicationName())
+                        .setParameter("payload" + i, aggregation.getPayload().encode())
+                        .setParameter("payloadHash" + i, aggregation.getPayloadHash());
+            }
+            for (EmailAggregation aggregation : aggregations) {
+                aggregation.setCreated(created);
+            }
+            return insertQuery.executeUpdate();
+        });
+    }
+
     public Multi<EmailAggregationKey> getApplicationsWithPendingAggregation(LocalDateTime start, LocalDateTime end) {
         String query = "SELECT DISTINCT NEW com.redhat.cloud.notifications.models.EmailAggregationKey(ea.accountId, ea.bundleName, ea.applicationName) " +
                 "FROM EmailAggregation ea WHERE ea.created > :start AND ea.created <= :end";
-        return session.createQuery(query, EmailAggregationKey.class)
+        String summaryQuery = "SELECT DISTINCT NEW com.redhat.cloud.notifications.models.EmailAggregationKey(s.id.accountId, s.id.bundleName, s.id.applicationName) " +
+                "FROM EmailAggregationSummary s WHERE s.id.bucket >= :start AND s.id.bucket < :end";
+        // HQL does not support the UNION clause so the keys from both tables are merged here
+        return sessionFactory.withSession(session -> session.createQuery(query, EmailAggregationKey.class)
                 .setParameter("start", start)
                 .setParameter("end", end)
                 .getResultList()
-                .onItem().transformToMulti(Multi.createFrom()::iterable);
+                .onItem().transformToUni(keys -> session.createQuery(summaryQuery, EmailAggregationKey.class)
+                        .setParameter("start", start)
+                        .setParameter("end", end)
+                        .getResultList()
+                        .onItem().transform(summaryKeys -> {
+                            Set<EmailAggregationKey> allKeys = new LinkedHashSet<>(keys);
+                            allKeys.addAll(summaryKeys);
+                            return allKeys;
+                        })
+                )
+        ).onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 
     public Multi<EmailAggregation> getEmailAggregation(EmailAggregationKey key, LocalDateTime start, LocalDateTime end) {
-        String query = "FROM EmailAggregation WHERE accountId = :accountId AND bundleName = :bundleName AND applicationName = :applicationName AND created > :start AND created <= :end ORDER BY created";
-        return session.createQuery(query, EmailAggregation.class)
+        return getEmailAggregation(key, start, end, pageSize);
+    }
+
+    /*
+     * The aggregations are streamed page by page using a keyset pagination on the id column, so that only one page
+     * is held in memory at a time regardless of the number of rows stored for the key. Each page is loaded from a
+     * stateless session which does not keep the loaded entities in a persistence context. The id is generated from a
+     * sequence, so sorting on that column preserves the insertion order.
+     */
+    Multi<EmailAggregation> getEmailAggregation(EmailAggregationKey key, LocalDateTime start, LocalDateTime end, int pageSize) {
+        String query = "FROM EmailAggregation ea WHERE ea.accountId = :accountId AND ea.bundleName = :bundleName AND ea.applicationName = :applicationName " +
+                "AND ea.created > :start AND ea.created <= :end AND ea.id > :lastId ORDER BY ea.id";
+        return Multi.createBy().repeating()
+                .uni(AtomicInteger::new, lastId -> sessionFactory.withStatelessSession(session -> session.createQuery(query, EmailAggregation.class)
+                        .setParameter("accountId", key.getAccountId())
+                        .setParameter("bundleName", key.getBundle())
+                        .setParameter("applicationName", key.getApplication())
+                        .setParameter("start", start)
+                        .setParameter("end", end)
+                        .setParameter("lastId", lastId.get())
+                        .setMaxResults(pageSize)
+                        .getResultList()
+                ).onItem().invoke(page -> {
+                    if (!page.isEmpty()) {
+                        lastId.set(page.get(page.size() - 1).getId());
+                    }
+                }))
+                // A page smaller than the page size is the last one.
+                .whilst(page -> page.size() == pageSize)
+                .onItem().transformToIterable(Function.identity());
+    }
+
+    /*
+     * The raw aggregations are not deleted here: a window only reads the aggregations created within its bounds, so the
+     * next windows never read them again. They are removed once their partition expires, which costs the same regardless
+     * of the number of rows. Only the summaries of the incremental mode are deleted.
+     */
+    public Uni<Integer> purgeOldAggregation(EmailAggregationKey key, LocalDateTime lastUsedTime) {
+        String query = "DELETE FROM EmailAggregationSummary WHERE id.accountId = :accountId AND id.bundleName = :bundleName " +
+                "AND id.applicationName = :applicationName AND id.bucket < :created";
+        return sessionFactory.withTransaction((session, transaction) -> session.createQuery(query)
                 .setParameter("accountId", key.getAccountId())
                 .setParameter("bundleName", key.getBundle())
                 .setParameter("applicationName", key.getApplication())
-                .setParameter("start", start)
-                .setParameter("end", end)
-                .getResultList()
-                .onItem().transformToMulti(Multi.createFrom()::iterable);
+                .setParameter("created", lastUsedTime)
+                .executeUpdate()
+        );
     }
 
-    public Uni<Integer> purgeOldAggregation(EmailAggregationKey key, LocalDateTime lastUsedTime) {
-        String query = "DELETE FROM EmailAggregation WHERE account_id = :accountId AND bundleName = :bundleName AND applicationName = :applicationName AND created <= :created";
-        return session.createQuery(query)
+    // The payload hashes of the past windows can no longer match an aggregation.
+    public Uni<Integer> purgePayloadHashes(LocalDateTime before) {
+        String query = "DELETE FROM EmailAggregationPayloadHash WHERE id.windowStart < :before";
+        return sessionFactory.withSession(session -> session.createQuery(query)
+                .setParameter("before", before)
+                .executeUpdate()
+        );
+    }
+
+    /*
+     * A summary covers the micro-batches merged during the hour starting at its bucket (or from the start of the daily
+     * window if it is later). It is included in the window which contains its bucket, so that consecutive windows never
+     * share a summary.
+     */
+    public Multi<EmailAggregationSummary> getEmailAggregationSummaries(EmailAggregationKey key, LocalDateTime start, LocalDateTime end) {
+        String query = "FROM EmailAggregationSummary WHERE id.accountId = :accountId AND id.bundleName = :bundleName " +
+                "AND id.applicationName = :applicationName AND id.bucket >= :start AND id.bucket < :end ORDER BY id.bucket";
+        return sessionFactory.withStatelessSession(session -> session.createQuery(query, EmailAggregationSummary.class)
                 .setParameter("accountId", key.getAccountId())
                 .setParameter("bundleName", key.getBundle())
                 .setParameter("applicationName", key.getApplication())
-                .setParameter("created", lastUsedTime)
+                .setParameter("start", start)
+                .setParameter("end", end)
+                .getResultList()
+        ).onItem().transformToMulti(Multi.createFrom()::iterable);
+    }
+
+    /*
+     * Stores the given state in the summary identified by the given id. If that summary already exists, its state is
+     * locked and replaced with the result of the merge function, which receives the stored state.
+     */
+    public Uni<Void> mergeEmailAggregationSummary(EmailAggregationSummaryId id, JsonObject state, UnaryOperator<JsonObject> merge) {
+        String query = "INSERT INTO email_aggregation_summary (account_id, bundle, application, bucket, state, created) " +
+                "VALUES (:accountId, :bundle, :application, :bucket, :state, :now) " +
+                "ON CONFLICT (account_id, bundle, application, bucket) DO NOTHING";
+        // HQL does not support the ON CONFLICT clause so we need a native query here
+        return sessionFactory.withTransaction((session, transaction) -> session.createNativeQuery(query)
+                .setParameter("accountId", id.accountId)
+                .setParameter("bundle", id.bundleName)
+                .setParameter("application", id.applicationName)
+                .setParameter("bucket", id.bucket)
+                .setParameter("state", state.encode())
+                .setParameter("now", LocalDateTime.now(ZoneOffset.UTC))
                 .executeUpdate()
-                .call(session::flush);
+                .onItem().transformToUni(inserted -> {
+                    if (inserted > 0) {
+                        return Uni.createFrom().voidItem();
+                    }
+                    return session.find(EmailAggregationSummary.class, id, LockMode.PESSIMISTIC_WRITE)
+                            .onItem().invoke(summary -> summary.setState(merge.apply(summary.getState())))
+                            .call(session::flush)
+                            .replaceWith(Uni.createFrom().voidItem());
+                })
+        );
+    }
+
+    /*
+     * Registers the window and its shards, then returns the number of shards of the window. That number may differ
+     * from the requested one if the window was registered before with another shards count.
+     */
+    public Uni<Integer> startRun(EmailSubscriptionType subscriptionType, LocalDateTime start, LocalDateTime end, int shards) {
+        String runQuery = "INSERT INTO email_aggregation_run (id, subscription_type, start_time, end_time, completed, created) " +
+                "VALUES (gen_random_uuid(), :subscriptionType, :start, :end, FALSE, :now) " +
+                "ON CONFLICT (subscription_type, start_time, end_time) DO UPDATE SET completed = FALSE, updated = :now";
+        /*
+         * The shards of a completed window are processed again when the window is started once more. The shards of a
+         * window that is still in progress are left untouched, they are owned by the replicas processing them.
+         */
+        String shardsQuery = "INSERT INTO email_aggregation_run_shard (subscription_type, start_time, end_time, shard, completed) " +
+                "SELECT :subscriptionType, :start, :end, shard, FALSE FROM generate_series(0, :shards - 1) AS shard " +
+                "ON CONFLICT (subscription_type, start_time, end_time, shard) DO UPDATE SET completed = FALSE " +
+                "WHERE EXISTS (SELECT 1 FROM email_aggregation_run r WHERE r.subscription_type = :subscriptionType " +
+                "AND r.start_time = :start AND r.end_time = :end AND r.completed = TRUE)";
+        String countQuery = "SELECT COUNT(*) FROM email_aggregation_run_shard " +
+                "WHERE subscription_type = :subscriptionType AND start_time = :start AND end_time = :end";
+        // HQL does not support the ON CONFLICT clause so we need a native query here
+        return sessionFactory.withTransaction((session, transaction) -> session.createNativeQuery(shardsQuery)
+                .setParameter("subscriptionType", subscriptionType.name())
+                .setParameter("start", start)
+                .setParameter("end", end)
+                .setParameter("shards", shards)
+                .executeUpdate()
+                .chain(() -> session.createNativeQuery(runQuery)
+                        .setParameter("subscriptionType", subscriptionType.name())
+                        .setParameter("start", start)
+                        .setParameter("end", end)
+                        .setParameter("now", LocalDateTime.now(ZoneOffset.UTC))
+                        .executeUpdate()
+                )
+                .chain(() -> session.createNativeQuery(countQuery)
+                        .setParameter("subscriptionType", subscriptionType.name())
+                        .setParameter("start", start)
+                        .setParameter("end", end)
+                        .getSingleResult()
+                )
+                .onItem().transform(count -> ((Number) count).intValue())
+        );
+    }
+
+    /*
+     * Completes the window if all of its shards are completed. Returns 0 otherwise.
+     */
+    public Uni<Integer> completeRun(EmailSubscriptionType subscriptionType, LocalDateTime start, LocalDateTime end) {
+        String query = "UPDATE email_aggregation_run r SET completed = TRUE, updated = :now " +
+                "WHERE r.subscription_type = :subscriptionType AND r.start_time = :start AND r.end_time = :end " +
+                "AND NOT EXISTS (SELECT 1 FROM email_aggregation_run_shard s WHERE s.subscription_type = r.subscription_type " +
+                "AND s.start_time = r.start_time AND s.end_time = r.end_time AND s.completed = FALSE)";
+        return sessionFactory.withSession(session -> session.createNativeQuery(query)
+                .setParameter("now", LocalDateTime.now(ZoneOffset.UTC))
+                .setParameter("subscriptionType", subscriptionType.name())
+                .setParameter("start", start)
+                .setParameter("end", end)
+                .executeUpdate()
+        );
+    }
+
+    /*
+     * Acquires the lease of an uncompleted shard of the window which is either free, expired or already owned by the
+     * given owner. Returns null if there is no such shard. The lease expiration relies on the database clock so that
+     * the replicas clocks do not need to be synchronized.
+     */
+    public Uni<Integer> claimShard(EmailSubscriptionType subscriptionType, LocalDateTime start, LocalDateTime end, String owner, Duration lease) {
+        String selectQuery = "SELECT shard FROM email_aggregation_run_shard " +
+                "WHERE subscription_type = :subscriptionType AND start_time = :start AND end_time = :end AND completed = FALSE " +
+                "AND (owner IS NULL OR owner = :owner OR lease_expires < (now() AT TIME ZONE 'UTC')) " +
+                "ORDER BY shard LIMIT 1 FOR UPDATE SKIP LOCKED";
+        String updateQuery = "UPDATE email_aggregation_run_shard SET owner = :owner, " +
+                "lease_expires = (now() AT TIME ZONE 'UTC') + :leaseSeconds * INTERVAL '1 second' " +
+                "WHERE subscription_type = :subscriptionType AND start_time = :start AND end_time = :end AND shard = :shard";
+        return sessionFactory.withTransaction((session, transaction) -> session.createNativeQuery(selectQuery)
+                .setParameter("subscriptionType", subscriptionType.name())
+                .setParameter("start", start)
+                .setParameter("end", end)
+                .setParameter("owner", owner)
+                .getResultList()
+                .chain(shards -> {
+                    if (shards.isEmpty()) {
+                        return Uni.createFrom().nullItem();
+                    }
+                    int shard = ((Number) shards.get(0)).intValue();
+                    return session.createNativeQuery(updateQuery)
+                            .setParameter("owner", owner)
+                            .setParameter("leaseSeconds", lease.getSeconds())
+                            .setParameter("subscriptionType", subscriptionType.name())
+                            .setParameter("start", start)
+                            .setParameter("end", end)
+                            .setParameter("shard", shard)
+                            .executeUpdate()
+                            .replaceWith(shard);
+                })
+        );
+    }
+
+    /*
+     * Extends the lease of a shard. Returns false if the shard is no longer owned by the given owner.
+     */
+    public Uni<Boolean> renewShardLease(EmailSubscriptionType subscriptionType, LocalDateTime start, LocalDateTime end, int shard, String owner, Duration lease) {
+        String query = "UPDATE email_aggregation_run_shard " +
+                "SET lease_expires = (now() AT TIME ZONE 'UTC') + :leaseSeconds * INTERVAL '1 second' " +
+                "WHERE subscription_type = :subscriptionType AND start_time = :start AND end_time = :end AND shard = :shard " +
+                "AND owner = :owner AND completed = FALSE";
+        return updateOwnedShard(query, subscriptionType, start, end, shard, owner, lease)
+                .onItem().transform(rowCount -> rowCount > 0);
+    }
+
+    public Uni<Boolean> completeShard(EmailSubscriptionType subscriptionType, LocalDateTime start, LocalDateTime end, int shard, String owner) {
+        String query = "UPDATE email_aggregation_run_shard SET completed = TRUE, owner = NULL, lease_expires = NULL " +
+                "WHERE subscription_type = :subscriptionType AND start_time = :start AND end_time = :end AND shard = :shard " +
+                "AND owner = :owner";
+        return updateOwnedShard(query, subscriptionType, start, end, shard, owner, null)
+                .onItem().transform(rowCount -> rowCount > 0);
+    }
+
+    public Uni<Boolean> releaseShard(EmailSubscriptionType subscriptionType, LocalDateTime start, LocalDateTime end, int shard, String owner) {
+        String query = "UPDATE email_aggregation_run_shard SET owner = NULL, lease_expires = NULL " +
+                "WHERE subscription_type = :subscriptionType AND start_time = :start AND end_time = :end AND shard = :shard " +
+                "AND owner = :owner";
+        return updateOwnedShard(query, subscriptionType, start, end, shard, owner, null)
+                .onItem().transform(rowCount -> rowCount > 0);
+    }
+
+    private Uni<Integer> updateOwnedShard(String query, EmailSubscriptionType subscriptionType, LocalDateTime start, LocalDateTime end, int shard, String owner, Duration lease) {
+        return sessionFactory.withSession(session -> {
+            Mutiny.Query<Object> nativeQuery = session.createNativeQuery(query)
+                    .setParameter("subscriptionType", subscriptionType.name())
+                    .setParameter("start", start)
+                    .setParameter("end", end)
+                    .setParameter("shard", shard)
+                    .setParameter("owner", owner);
+            if (lease != null) {
+                nativeQuery.setParameter("leaseSeconds", lease.getSeconds());
+            }
+            return nativeQuery.executeUpdate();
+        });
+    }
+
+    public Uni<Long> countUncompletedShards(EmailSubscriptionType subscriptionType, LocalDateTime start, LocalDateTime end) {
+        String query = "SELECT COUNT(*) FROM email_aggregation_run_shard " +
+                "WHERE subscription_type = :subscriptionType AND start_time = :start AND end_time = :end AND completed = FALSE";
+        return sessionFactory.withSession(session -> session.createNativeQuery(query)
+                .setParameter("subscriptionType", subscriptionType.name())
+                .setParameter("start", start)
+                .setParameter("end", end)
+                .getSingleResult()
+                .onItem().transform(count -> ((Number) count).longValue())
+        );
+    }
+
+    /*
+     * Returns the runs which were interrupted before they could process all of their aggregation keys. The current
+     * window (ending at the given time) is excluded since it is always processed.
+     */
+    public Uni<List<EmailAggregationRun>> getUnfinishedRuns(EmailSubscriptionType subscriptionType, LocalDateTime end) {
+        String query = "FROM EmailAggregationRun WHERE subscriptionType = :subscriptionType AND completed = FALSE " +
+                "AND endTime < :end ORDER BY endTime";
+        return sessionFactory.withSession(session -> session.createQuery(query, EmailAggregationRun.class)
+                .setParameter("subscriptionType", subscriptionType)
+                .setParameter("end", end)
+                .getResultList()
+        );
     }
 }
@@ -10,11 +10,25 @@ import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 
 @ApplicationScoped
+@TimedQueries
 public class EndpointEmailSubscriptionResources {
 
+    /*
+     * Name of the invalidation published once a subscription or an unsubscription is committed. The caches of the email
+     * subscribers observe it.
+     */
+    public static final String EMAIL_SUBSCRIPTIONS_CACHE_NAME = "email-subscriptions";
+
     @Inject
     Mutiny.Session session;
 
+    // Used by the methods which can be called concurrently from the scheduled email jobs.
+    @Inject
+    Mutiny.SessionFactory sessionFactory;
+
+    @Inject
+    CacheInvalidationBus invalidationBus;
+
     public Uni<Boolean> subscribe(String accountNumber, String username, String bundleName, String applicationName, EmailSubscriptionType subscriptionType) {
         String query = "INSERT INTO endpoint_email_subscriptions(account_id, user_id, application_id, subscription_type) " +
                 "SELECT :accountId, :userId, a.id, :subscriptionType " +
@@ -28,6 +42,7 @@ public class EndpointEmailSubscriptionResources {
                 .setParameter("applicationName", applicationName)
                 .setParameter("subscriptionType", subscriptionType.name())
                 .executeUpdate()
+                .invoke(() -> invalidationBus.invalidate(EMAIL_SUBSCRIPTIONS_CACHE_NAME))
                 .replaceWith(Boolean.TRUE);
     }
 
@@ -43,6 +58,7 @@ public class EndpointEmailSubscriptionResources {
                 .setParameter("subscriptionType", subscriptionType)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(() -> invalidationBus.invalidate(EMAIL_SUBSCRIPTIONS_CACHE_NAME))
                 .replaceWith(Boolean.TRUE);
     }
 
@@ -72,23 +88,24 @@ public class EndpointEmailSubscriptionResources {
     public Uni<Long> getEmailSubscribersCount(String accountNumber, String bundleName, String applicationName, EmailSubscriptionType subscriptionType) {
         String query = "SELECT COUNT(id.userId) FROM EmailSubscription WHERE id.accountId = :accountId " +
                 "AND application.bundle.name = :bundleName AND application.name = :applicationName AND id.subscriptionType = :subscriptionType";
-        return session.createQuery(query, Long.class)
+        return sessionFactory.withSession(session -> session.createQuery(query, Long.class)
                 .setParameter("accountId", accountNumber)
                 .setParameter("bundleName", bundleName)
                 .setParameter("applicationName", applicationName)
                 .setParameter("subscriptionType", subscriptionType)
-                .getSingleResult();
+                .getSingleResult()
+        );
     }
 
     public Multi<EmailSubscription> getEmailSubscribers(String accountNumber, String bundleName, String applicationName, EmailSubscriptionType subscriptionType) {
         String query = "FROM EmailSubscription WHERE id.accountId = :accountId AND application.bundle.name = :bundleName " +
                 "AND application.name = :applicationName AND id.subscriptionType = :subscriptionType";
-        return session.createQuery(query, EmailSubscription.class)
+        return sessionFactory.withSession(session -> session.createQuery(query, EmailSubscription.class)
                 .setParameter("accountId", accountNumber)
                 .setParameter("bundleName", bundleName)
                 .setParameter("applicationName", applicationName)
                 .setParameter("subscriptionType", subscriptionType)
                 .getResultList()
-                .onItem().transformToMulti(Multi.createFrom()::iterable);
+        ).onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 }
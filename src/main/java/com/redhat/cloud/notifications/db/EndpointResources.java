@@ -10,38 +10,184 @@ import com.redhat.cloud.notifications.models.EventType;
 import com.redhat.cloud.notifications.models.WebhookAttributes;
 import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.tuples.Tuple2;
 import org.hibernate.reactive.mutiny.Mutiny;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.persistence.PersistenceException;
 import javax.ws.rs.BadRequestException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 @ApplicationScoped
+@TimedQueries
 public class EndpointResources {
 
+    /*
+     * Name of the invalidation published once a write of the endpoints (or of their properties, targets and defaults)
+     * is committed. The caches of the endpoints and of the routing of the events observe it.
+     */
+    public static final String ENDPOINTS_CACHE_NAME = "endpoints";
+
+    private static final Query.SortFields ENDPOINT_SORT_FIELDS = new Query.SortFields("Endpoint", "e", "accountId", Map.of(
+            "id", "id",
+            "name", "name",
+            "type", "type",
+            "enabled", "enabled",
+            "created", "created"
+    ));
+
+    /*
+     * Number of statements sent to the database in a single round trip by the bulk operations. It matches the batch
+     * size that Hibernate recommends for JDBC.
+     */
+    private static final int BULK_BATCH_SIZE = 50;
+
     @Inject
     Mutiny.Session session;
 
+    @Inject
+    Mutiny.SessionFactory sessionFactory;
+
+    @Inject
+    ReadReplica readReplica;
+
+    @Inject
+    CacheInvalidationBus invalidationBus;
+
     public Uni<Endpoint> createEndpoint(Endpoint endpoint) {
         return Uni.createFrom().item(endpoint)
                 .onItem().transform(this::mapProperties)
                 .onItem().transformToUni(session::persist)
+                .call(() -> persistProperties(endpoint))
                 .call(session::flush)
+                .invoke(this::invalidateEndpoints)
                 .replaceWith(endpoint);
     }
 
+    /*
+     * The bulk operations run in a single transaction with a dedicated session: the whole batch is written or nothing
+     * is, and the statements are sent in batches of BULK_BATCH_SIZE instead of one round trip per statement.
+     */
+    public Uni<List<Endpoint>> createEndpoints(List<Endpoint> endpoints) {
+        return sessionFactory.withTransaction((session, transaction) -> {
+            session.setBatchSize(BULK_BATCH_SIZE);
+            List<EndpointWebhook> webhooks = new ArrayList<>();
+            for (Endpoint endpoint : endpoints) {
+                mapProperties(endpoint);
+                if (endpoint.getWebhook() != null) {
+                    webhooks.add(endpoint.getWebhook());
+                }
+            }
+            // The endpoints are inserted first because the properties reference them.
+            return session.persistAll(endpoints.toArray())
+                    .call(() -> session.persistAll(webhooks.toArray()))
+                    .call(session::flush)
+                    .replaceWith(endpoints);
+        }).invoke(this::invalidateEndpoints);
+    }
+
+    /**
+     * Updates the given endpoints if all of them belong to the tenant.
+     *
+     * @param tenant    the account of the endpoints
+     * @param endpoints the new state of the endpoints, by endpoint id
+     * @return the ids which don't match any endpoint of the tenant, nothing is updated if it is not empty
+     */
+    public Uni<Set<UUID>> updateEndpoints(String tenant, Map<UUID, Endpoint> endpoints) {
+        String query = "FROM Endpoint WHERE accountId = :accountId AND id IN (:ids)";
+        return sessionFactory.withTransaction((session, transaction) -> {
+            session.setBatchSize(BULK_BATCH_SIZE);
+            return session.createQuery(query, Endpoint.class)
+                    .setParameter("accountId", tenant)
+                    .setParameter("ids", endpoints.keySet())
+                    .getResultList()
+                    .onItem().transformToUni(existing -> {
+                        Set<UUID> missingIds = getMissingIds(endpoints.keySet(), existing);
+                        if (!missingIds.isEmpty()) {
+                            return Uni.createFrom().item(missingIds);
+                        }
+                        return loadProperties(session, existing)
+                                .onItem().invoke(ignored -> {
+                                    for (Endpoint endpoint : existing) {
+                                        applyUpdate(endpoint, endpoints.get(endpoint.getId()));
+                                    }
+                                })
+                                // The modified entities are written with batched UPDATE statements.
+                                .call(session::flush)
+                                .replaceWith(missingIds);
+                    });
+        }).invoke(this::invalidateEndpoints);
+    }
+
+    /**
+     * Deletes the given endpoints if all of them belong to the tenant.
+     *
+     * @param tenant the account of the endpoints
+     * @param ids    the endpoints ids
+     * @return the ids which don't match any endpoint of the tenant, nothing is deleted if it is not empty
+     */
+    public Uni<Set<UUID>> deleteEndpoints(String tenant, Set<UUID> ids) {
+        String existingQuery = "SELECT id FROM Endpoint WHERE accountId = :accountId AND id IN (:ids)";
+        String deleteQuery = "DELETE FROM Endpoint WHERE accountId = :accountId AND id IN (:ids)";
+        return sessionFactory.withTransaction((session, transaction) -> session.createQuery(existingQuery, UUID.class)
+                .setParameter("accountId", tenant)
+                .setParameter("ids", ids)
+                .getResultList()
+                .onItem().transformToUni(existingIds -> {
+                    Set<UUID> missingIds = new HashSet<>(ids);
+                    missingIds.removeAll(existingIds);
+                    if (!missingIds.isEmpty()) {
+                        return Uni.createFrom().item(missingIds);
+                    }
+                    return session.createQuery(deleteQuery)
+                            .setParameter("accountId", tenant)
+                            .setParameter("ids", ids)
+                            .executeUpdate()
+                            .replaceWith(missingIds);
+                })
+        ).invoke(this::invalidateEndpoints);
+    }
+
+    /*
+     * Returns a page of the endpoints of the tenant, with their properties, ordered by id. A new session is used for
+     * each page so that the exports of large accounts don't keep all of their endpoints in a single session.
+     */
+    public Uni<List<Endpoint>> getEndpointsPage(String tenant, UUID after, int limit) {
+        String query = "FROM Endpoint WHERE accountId = :accountId";
+        if (after != null) {
+            query += " AND id > :after";
+        }
+        query += " ORDER BY id";
+
+        String hql = query;
+        return readReplica.withSession(session -> {
+            Mutiny.Query<Endpoint> mutinyQuery = session.createQuery(hql, Endpoint.class)
+                    .setParameter("accountId", tenant)
+                    .setMaxResults(limit);
+            if (after != null) {
+                mutinyQuery = mutinyQuery.setParameter("after", after);
+            }
+            return mutinyQuery.getResultList()
+                    .onItem().transformToUni(endpoints -> loadProperties(session, endpoints));
+        });
+    }
+
     public Multi<Endpoint> getEndpointsPerType(String tenant, EndpointType type, Boolean activeOnly, Query limiter) {
         // TODO Modify the parameter to take a vararg of Functions that modify the query
-        // TODO Modify to take account selective joins (JOIN (..) UNION (..)) based on the type, same for getEndpoints
-        String query = "SELECT e FROM Endpoint e LEFT JOIN FETCH e.webhook WHERE e.accountId = :accountId AND e.type = :endpointType";
+        String query = "SELECT e FROM Endpoint e WHERE e.accountId = :accountId AND e.type = :endpointType";
         if (activeOnly != null) {
             query += " AND enabled = :enabled";
         }
 
         if (limiter != null) {
-            query = limiter.getModifiedQuery(query);
+            query = limiter.getModifiedQuery(query, ENDPOINT_SORT_FIELDS);
         }
 
         Mutiny.Query<Endpoint> mutinyQuery = session.createQuery(query, Endpoint.class)
@@ -52,25 +198,35 @@ public class EndpointResources {
             mutinyQuery = mutinyQuery.setParameter("enabled", activeOnly);
         }
 
-        if (limiter != null && limiter.getLimit() != null && limiter.getLimit().getLimit() > 0) {
-            mutinyQuery = mutinyQuery.setMaxResults(limiter.getLimit().getLimit())
-                    .setFirstResult(limiter.getLimit().getOffset());
+        if (limiter != null) {
+            mutinyQuery = limiter.applyTo(mutinyQuery);
         }
 
-        return mutinyQuery.getResultList()
+        return Query.checkCursor(limiter, session, ENDPOINT_SORT_FIELDS, tenant)
+                .chain(mutinyQuery::getResultList)
+                .onItem().transformToUni(this::loadProperties)
                 .onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 
     public Uni<Long> getEndpointsCountPerType(String tenant, EndpointType type, Boolean activeOnly) {
-        String query = "SELECT COUNT(*) FROM Endpoint WHERE accountId = :accountId AND type = :endpointType";
+        return countEndpoints(session, tenant, type, activeOnly);
+    }
+
+    private static Uni<Long> countEndpoints(Mutiny.Session session, String tenant, EndpointType type, Boolean activeOnly) {
+        String query = "SELECT COUNT(*) FROM Endpoint WHERE accountId = :accountId";
+        if (type != null) {
+            query += " AND type = :endpointType";
+        }
         if (activeOnly != null) {
             query += " AND enabled = :enabled";
         }
 
         Mutiny.Query<Long> mutinyQuery = session.createQuery(query, Long.class)
-                .setParameter("accountId", tenant)
-                .setParameter("endpointType", type);
+                .setParameter("accountId", tenant);
 
+        if (type != null) {
+            mutinyQuery = mutinyQuery.setParameter("endpointType", type);
+        }
         if (activeOnly != null) {
             mutinyQuery = mutinyQuery.setParameter("enabled", activeOnly);
         }
@@ -80,8 +236,7 @@ public class EndpointResources {
 
     // TODO [BG Phase 2] Delete this method
     public Multi<Endpoint> getTargetEndpoints(String tenant, String bundleName, String applicationName, String eventTypeName) {
-        // TODO Add UNION JOIN for different endpoint types here
-        String query = "SELECT e FROM Endpoint e LEFT JOIN FETCH e.webhook JOIN e.targets t " +
+        String query = "SELECT e FROM Endpoint e JOIN e.targets t " +
                 "WHERE e.enabled = TRUE AND t.eventType.name = :eventTypeName AND t.id.accountId = :accountId " +
                 "AND t.eventType.application.name = :applicationName AND t.eventType.application.bundle.name = :bundleName";
 
@@ -91,13 +246,13 @@ public class EndpointResources {
                 .setParameter("accountId", tenant)
                 .setParameter("bundleName", bundleName)
                 .getResultList()
+                .onItem().transformToUni(this::loadProperties)
                 .onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 
     // TODO [BG Phase 2] Remove '_BG' suffix
     public Multi<Endpoint> getTargetEndpoints_BG(String tenant, String bundleName, String applicationName, String eventTypeName) {
-        // TODO Add UNION JOIN for different endpoint types here
-        String query = "SELECT e FROM Endpoint e LEFT JOIN FETCH e.webhook JOIN e.behaviorGroupActions bga JOIN bga.behaviorGroup.behaviors b " +
+        String query = "SELECT e FROM Endpoint e JOIN e.behaviorGroupActions bga JOIN bga.behaviorGroup.behaviors b " +
                 "WHERE e.enabled = TRUE AND b.eventType.name = :eventTypeName AND bga.behaviorGroup.accountId = :accountId " +
                 "AND b.eventType.application.name = :applicationName AND b.eventType.application.bundle.name = :bundleName";
 
@@ -107,44 +262,82 @@ public class EndpointResources {
                 .setParameter("accountId", tenant)
                 .setParameter("bundleName", bundleName)
                 .getResultList()
+                .onItem().transformToUni(this::loadProperties)
                 .onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 
-    public Multi<Endpoint> getEndpoints(String tenant, Query limiter) {
-        // TODO Add the ability to modify the getEndpoints to return also with JOIN to application_eventtypes_endpoints link table
-        //      or should I just create a new method for it?
-        String query = "SELECT e FROM Endpoint e LEFT JOIN FETCH e.webhook WHERE e.accountId = :accountId";
+    /*
+     * The UI polls the endpoints list, so the page and the total count are fetched with a single query: the total is an
+     * uncorrelated subquery of the select clause, which PostgreSQL evaluates once per query. It counts all endpoints of
+     * the account matching the filters, including the ones before the keyset cursor or the offset. This count scans the
+     * account rows matching the filters like the separate COUNT query did, it only saves the round trip. An empty page
+     * carries no count, so a COUNT query is still needed when a page past the last one is requested. The type filter is
+     * optional and, as before, the activeOnly filter only applies when a type is given.
+     */
+    public Uni<Tuple2<List<Endpoint>, Long>> getEndpointsWithCount(String tenant, EndpointType type, Boolean activeOnly, Query limiter) {
+        String filters = "";
+        boolean filterOnEnabled = type != null && activeOnly != null;
+        if (type != null) {
+            filters += " AND %1$s.type = :endpointType";
+        }
+        if (filterOnEnabled) {
+            filters += " AND %1$s.enabled = :enabled";
+        }
+        String query = "SELECT e, (SELECT COUNT(*) FROM Endpoint t WHERE t.accountId = :accountId" + String.format(filters, "t") + ") " +
+                "FROM Endpoint e WHERE e.accountId = :accountId" + String.format(filters, "e");
 
         if (limiter != null) {
-            query = limiter.getModifiedQuery(query);
+            query = limiter.getModifiedQuery(query, ENDPOINT_SORT_FIELDS);
         }
-        // TODO Add JOIN ON clause to proper table, such as webhooks and then read the results
 
-        Mutiny.Query<Endpoint> mutinyQuery = session.createQuery(query, Endpoint.class)
-                .setParameter("accountId", tenant);
+        String hql = query;
+        return readReplica.withSession(session -> {
+            Mutiny.Query<Object[]> mutinyQuery = session.<Object[]>createQuery(hql)
+                    .setParameter("accountId", tenant);
+            if (type != null) {
+                mutinyQuery = mutinyQuery.setParameter("endpointType", type);
+            }
+            if (filterOnEnabled) {
+                mutinyQuery = mutinyQuery.setParameter("enabled", activeOnly);
+            }
 
-        if (limiter != null && limiter.getLimit() != null && limiter.getLimit().getLimit() > 0) {
-            mutinyQuery = mutinyQuery.setMaxResults(limiter.getLimit().getLimit())
-                    .setFirstResult(limiter.getLimit().getOffset());
-        }
+            if (limiter != null) {
+                mutinyQuery = limiter.applyTo(mutinyQuery);
+            }
 
-        return mutinyQuery.getResultList()
-                .onItem().transformToMulti(Multi.createFrom()::iterable);
+            return Query.checkCursor(limiter, session, ENDPOINT_SORT_FIELDS, tenant)
+                    .chain(mutinyQuery::getResultList)
+                    .onItem().transformToUni(rows -> {
+                        List<Endpoint> endpoints = new ArrayList<>(rows.size());
+                        for (Object[] row : rows) {
+                            endpoints.add((Endpoint) row[0]);
+                        }
+                        Uni<Long> count;
+                        if (!rows.isEmpty()) {
+                            count = Uni.createFrom().item((Long) rows.get(0)[1]);
+                        } else if (limiter == null || (limiter.getCursor() == null && limiter.getLimit().getOffset() == 0)) {
+                            count = Uni.createFrom().item(0L);
+                        } else {
+                            count = countEndpoints(session, tenant, type, filterOnEnabled ? activeOnly : null);
+                        }
+                        return loadProperties(session, endpoints)
+                                .onItem().transformToUni(ignored -> count)
+                                .onItem().transform(endpointsCount -> Tuple2.of(endpoints, endpointsCount));
+                    });
+        });
     }
 
     public Uni<Long> getEndpointsCount(String tenant) {
-        String query = "SELECT COUNT(*) FROM Endpoint WHERE accountId = :accountId";
-        return session.createQuery(query, Long.class)
-                .setParameter("accountId", tenant)
-                .getSingleResult();
+        return countEndpoints(session, tenant, null, null);
     }
 
     public Uni<Endpoint> getEndpoint(String tenant, UUID id) {
-        String query = "SELECT e FROM Endpoint e LEFT JOIN FETCH e.webhook WHERE e.accountId = :accountId AND e.id = :id";
+        String query = "SELECT e FROM Endpoint e WHERE e.accountId = :accountId AND e.id = :id";
         return session.createQuery(query, Endpoint.class)
                 .setParameter("id", id)
                 .setParameter("accountId", tenant)
-                .getSingleResultOrNull();
+                .getSingleResultOrNull()
+                .onItem().ifNotNull().call(endpoint -> loadProperties(List.of(endpoint)));
     }
 
     public Uni<Boolean> deleteEndpoint(String tenant, UUID id) {
@@ -154,6 +347,7 @@ public class EndpointResources {
                 .setParameter("accountId", tenant)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(this::invalidateEndpoints)
                 .onItem().transform(rowCount -> rowCount > 0);
         // Actually, the endpoint targeting this should be repeatable
     }
@@ -175,6 +369,7 @@ public class EndpointResources {
                 .setParameter("enabled", enabled)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(this::invalidateEndpoints)
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -187,6 +382,7 @@ public class EndpointResources {
         })
                 .onItem().transformToUni(session::persist)
                 .call(session::flush)
+                .invoke(this::invalidateEndpoints)
                 .replaceWith(Boolean.TRUE)
                 .onFailure().recoverWithItem(Boolean.FALSE);
     }
@@ -201,37 +397,40 @@ public class EndpointResources {
                 .setParameter("endpointId", endpointId)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(this::invalidateEndpoints)
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
     // TODO [BG Phase 2] Delete this method
     public Multi<Endpoint> getLinkedEndpoints(String tenant, UUID eventTypeId, Query limiter) {
-        String query = "SELECT e FROM Endpoint e LEFT JOIN FETCH e.webhook JOIN e.targets t WHERE t.id.accountId = :accountId AND t.eventType.id = :eventTypeId";
+        String query = "SELECT e FROM Endpoint e JOIN e.targets t WHERE t.id.accountId = :accountId AND t.eventType.id = :eventTypeId";
 
         if (limiter != null) {
-            query = limiter.getModifiedQuery(query);
+            query = limiter.getModifiedQuery(query, ENDPOINT_SORT_FIELDS);
         }
 
         Mutiny.Query<Endpoint> mutinyQuery = session.createQuery(query, Endpoint.class)
                 .setParameter("accountId", tenant)
                 .setParameter("eventTypeId", eventTypeId);
 
-        if (limiter != null && limiter.getLimit() != null && limiter.getLimit().getLimit() > 0) {
-            mutinyQuery = mutinyQuery.setMaxResults(limiter.getLimit().getLimit())
-                    .setFirstResult(limiter.getLimit().getOffset());
+        if (limiter != null) {
+            mutinyQuery = limiter.applyTo(mutinyQuery);
         }
 
-        return mutinyQuery.getResultList()
+        return Query.checkCursor(limiter, session, ENDPOINT_SORT_FIELDS, tenant)
+                .chain(mutinyQuery::getResultList)
+                .onItem().transformToUni(this::loadProperties)
                 .onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 
     // TODO [BG Phase 2] Delete this method
     public Multi<Endpoint> getDefaultEndpoints(String tenant) {
-        String query = "SELECT e FROM Endpoint e LEFT JOIN FETCH e.webhook JOIN e.defaults d WHERE d.id.accountId = :accountId";
+        String query = "SELECT e FROM Endpoint e JOIN e.defaults d WHERE d.id.accountId = :accountId";
 
         return session.createQuery(query, Endpoint.class)
                 .setParameter("accountId", tenant)
                 .getResultList()
+                .onItem().transformToUni(this::loadProperties)
                 .onItem().transformToMulti(Multi.createFrom()::iterable);
     }
 
@@ -255,6 +454,7 @@ public class EndpointResources {
                 .onItem().transformToUni(session::persist)
                 .call(session::flush)
                 .onFailure(PersistenceException.class).transform(a -> new BadRequestException("Given endpoint id can not be linked to default"))
+                .invoke(this::invalidateEndpoints)
                 .replaceWith(Boolean.TRUE);
     }
 
@@ -267,6 +467,7 @@ public class EndpointResources {
                 .setParameter("endpointId", endpointId)
                 .executeUpdate()
                 .call(session::flush)
+                .invoke(this::invalidateEndpoints)
                 .onItem().transform(rowCount -> rowCount > 0);
     }
 
@@ -303,7 +504,39 @@ public class EndpointResources {
                                 .call(session::flush)
                                 .onItem().transform(rowCount -> rowCount > 0);
                     }
-                });
+                })
+                .invoke(this::invalidateEndpoints);
+    }
+
+    /*
+     * The writes of this class which don't run in a transaction are committed by each statement, so the invalidation is
+     * published after the last flush of the write.
+     */
+    private void invalidateEndpoints() {
+        invalidationBus.invalidate(ENDPOINTS_CACHE_NAME);
+    }
+
+    private static Set<UUID> getMissingIds(Set<UUID> ids, List<Endpoint> existing) {
+        Set<UUID> missingIds = new HashSet<>(ids);
+        for (Endpoint endpoint : existing) {
+            missingIds.remove(endpoint.getId());
+        }
+        return missingIds;
+    }
+
+    // Same fields as updateEndpoint
+    private static void applyUpdate(Endpoint endpoint, Endpoint update) {
+        endpoint.setName(update.getName());
+        endpoint.setDescription(update.getDescription());
+        endpoint.setEnabled(update.isEnabled());
+        if (update.getProperties() instanceof WebhookAttributes && endpoint.getWebhook() != null) {
+            WebhookAttributes attr = (WebhookAttributes) update.getProperties();
+            EndpointWebhook webhook = endpoint.getWebhook();
+            webhook.setUrl(attr.getUrl());
+            webhook.setMethod(attr.getMethod());
+            webhook.setDisableSslVerification(attr.isDisableSSLVerification());
+            webhook.setSecretToken(attr.getSecretToken());
+        }
     }
 
     private Endpoint mapProperties(Endpoint endpoint) {
@@ -324,6 +557,45 @@ public class EndpointResources {
         return endpoint;
     }
 
+    private Uni<Void> persistProperties(Endpoint endpoint) {
+        if (endpoint.getWebhook() != null) {
+            return session.persist(endpoint.getWebhook());
+        }
+        return Uni.createFrom().voidItem();
+    }
+
+    /*
+     * The properties of an endpoint are stored in a table that depends on the endpoint type. Rather than joining every
+     * properties table in the endpoints queries, they are loaded afterwards with one query per type present in the
+     * results. Endpoints which have no properties table (EMAIL_SUBSCRIPTION, DEFAULT) don't cost any extra query.
+     * New endpoint types with a properties table need their own case here.
+     */
+    Uni<List<Endpoint>> loadProperties(List<Endpoint> endpoints) {
+        return loadProperties(session, endpoints);
+    }
+
+    private static Uni<List<Endpoint>> loadProperties(Mutiny.Session session, List<Endpoint> endpoints) {
+        Map<UUID, Endpoint> webhookEndpoints = new HashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.getType() == EndpointType.WEBHOOK && endpoint.getWebhook() == null) {
+                webhookEndpoints.put(endpoint.getId(), endpoint);
+            }
+        }
+        if (webhookEndpoints.isEmpty()) {
+            return Uni.createFrom().item(endpoints);
+        }
+        String query = "FROM EndpointWebhook WHERE endpoint.id IN (:endpointIds)";
+        return session.createQuery(query, EndpointWebhook.class)
+                .setParameter("endpointIds", webhookEndpoints.keySet())
+                .getResultList()
+                .onItem().transform(webhooks -> {
+                    for (EndpointWebhook webhook : webhooks) {
+                        webhookEndpoints.get(webhook.getEndpoint().getId()).setWebhook(webhook);
+                    }
+                    return endpoints;
+                });
+    }
+
     private EndpointWebhook webhook(Attributes properties) {
         WebhookAttributes attr = (WebhookAttributes) properties;
         EndpointWebhook webhook = new EndpointWebhook();
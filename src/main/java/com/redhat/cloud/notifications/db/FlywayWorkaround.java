@@ -1,22 +1,45 @@
 package com.redhat.cloud.notifications.db;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.quarkus.runtime.StartupEvent;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationInfo;
+import org.flywaydb.core.api.MigrationInfoService;
+import org.flywaydb.core.api.output.MigrateResult;
 import org.jboss.logging.Logger;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
 
 /**
  * This is a temporary workaround for a quarkus-flyway / quarkus-hibernate-reactive incompatibility.
  * See https://github.com/quarkusio/quarkus/issues/10716 for more details.
+ * <p>
+ * All replicas start at the same time during a rollout. Each of them checks the applied migrations without taking any
+ * lock and only the first one to get the migration advisory lock repairs and migrates the schema. The other ones wait
+ * for that lock and find a current schema once they get it.
  */
 @ApplicationScoped
 public class FlywayWorkaround {
 
+    public static final String MIGRATION_TIMER_NAME = "db.migration";
+
     private static final Logger LOGGER = Logger.getLogger(FlywayWorkaround.class);
 
+    // Arbitrary key shared by all replicas, distinct from the key Flyway uses for its own lock.
+    private static final long MIGRATION_LOCK_KEY = 7_246_513_908_144L;
+
+    @Inject
+    MeterRegistry registry;
+
     @ConfigProperty(name = "quarkus.datasource.reactive.url")
     String datasourceUrl;
 
@@ -26,10 +49,45 @@ public class FlywayWorkaround {
     @ConfigProperty(name = "quarkus.datasource.password")
     String datasourcePassword;
 
-    public void runFlywayMigration(@Observes StartupEvent event) {
+    public void runFlywayMigration(@Observes StartupEvent event) throws SQLException {
         LOGGER.warn("Starting Flyway workaround... remove it ASAP!");
-        Flyway flyway = Flyway.configure().dataSource("jdbc:" + datasourceUrl, datasourceUsername, datasourcePassword).load();
+        String jdbcUrl = "jdbc:" + datasourceUrl;
+        Flyway flyway = Flyway.configure().dataSource(jdbcUrl, datasourceUsername, datasourcePassword).load();
+        if (isCurrent(flyway)) {
+            LOGGER.info("Database schema is up to date");
+            return;
+        }
+
+        // The advisory lock belongs to the session, so the connection is kept open until the migration is done.
+        try (Connection lockConnection = DriverManager.getConnection(jdbcUrl, datasourceUsername, datasourcePassword);
+             Statement statement = lockConnection.createStatement()) {
+            LOGGER.info("Database schema is not up to date, waiting for the migration lock");
+            statement.execute("SELECT pg_advisory_lock(" + MIGRATION_LOCK_KEY + ")");
+            try {
+                // Another replica may have migrated the schema while this one was waiting for the lock.
+                if (isCurrent(flyway)) {
+                    LOGGER.info("Database schema was migrated by another replica");
+                } else {
+                    migrate(flyway);
+                }
+            } finally {
+                statement.execute("SELECT pg_advisory_unlock(" + MIGRATION_LOCK_KEY + ")");
+            }
+        }
+    }
+
+    private static boolean isCurrent(Flyway flyway) {
+        MigrationInfoService info = flyway.info();
+        return info.pending().length == 0 && Arrays.stream(info.applied()).noneMatch(migration -> migration.getState().isFailed());
+    }
+
+    private void migrate(Flyway flyway) {
+        Timer.Sample sample = Timer.start(registry);
         flyway.repair();
-        flyway.migrate();
+        MigrateResult result = flyway.migrate();
+        long durationNanos = sample.stop(registry.timer(MIGRATION_TIMER_NAME));
+        MigrationInfo current = flyway.info().current();
+        LOGGER.infof("Database schema migrated to version %s: %d migration(s) executed in %d ms",
+                current == null ? null : current.getVersion(), result.migrationsExecuted, durationNanos / 1_000_000L);
     }
 }
@@ -0,0 +1,59 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.models.NotificationHistory;
+
+import javax.ws.rs.BadRequestException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Position of a notification history entry in the (created DESC, id DESC) ordering used by the history pagination.
+ * The cursor is exposed to the API clients as an opaque URL-safe token.
+ */
+public class HistoryCursor {
+
+    private static final String SEPARATOR = "|";
+
+    private final LocalDateTime created;
+    private final UUID id;
+
+    public HistoryCursor(LocalDateTime created, UUID id) {
+        this.created = created;
+        this.id = id;
+    }
+
+    public static HistoryCursor of(NotificationHistory history) {
+        return new HistoryCursor(history.getCreated(), history.getId());
+    }
+
+    public static HistoryCursor decode(String token) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separatorIndex = decoded.indexOf(SEPARATOR);
+            if (separatorIndex < 0) {
+                throw new BadRequestException("Invalid cursor: " + token);
+            }
+            LocalDateTime created = LocalDateTime.parse(decoded.substring(0, separatorIndex));
+            UUID id = UUID.fromString(decoded.substring(separatorIndex + 1));
+            return new HistoryCursor(created, id);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new BadRequestException("Invalid cursor: " + token);
+        }
+    }
+
+    public String encode() {
+        String decoded = created + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(decoded.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public LocalDateTime getCreated() {
+        return created;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+}
@@ -0,0 +1,59 @@
+package com.redhat.cloud.notifications.db;
+
+import javax.ws.rs.BadRequestException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Filters of the notification history which are evaluated by PostgreSQL on the columns generated from the history
+ * details.
+ */
+public class HistoryFilter {
+
+    public static final HistoryFilter NONE = new HistoryFilter(null, null, null);
+
+    // Either an exact HTTP status code such as 503 or a class of status codes such as 5xx.
+    private static final Pattern STATUS_CODE_PATTERN = Pattern.compile("([1-5])(xx|\\d\\d)", Pattern.CASE_INSENSITIVE);
+
+    private final Integer minStatusCode;
+    private final Integer maxStatusCode;
+    private final String errorType;
+
+    private HistoryFilter(Integer minStatusCode, Integer maxStatusCode, String errorType) {
+        this.minStatusCode = minStatusCode;
+        this.maxStatusCode = maxStatusCode;
+        this.errorType = errorType;
+    }
+
+    public static HistoryFilter of(String statusCode, String errorType) {
+        Integer minStatusCode = null;
+        Integer maxStatusCode = null;
+        if (statusCode != null) {
+            Matcher matcher = STATUS_CODE_PATTERN.matcher(statusCode);
+            if (!matcher.matches()) {
+                throw new BadRequestException("Invalid status code filter: " + statusCode);
+            }
+            int statusClass = Integer.parseInt(matcher.group(1)) * 100;
+            if (matcher.group(2).equalsIgnoreCase("xx")) {
+                minStatusCode = statusClass;
+                maxStatusCode = statusClass + 99;
+            } else {
+                minStatusCode = statusClass + Integer.parseInt(matcher.group(2));
+                maxStatusCode = minStatusCode;
+            }
+        }
+        return new HistoryFilter(minStatusCode, maxStatusCode, errorType);
+    }
+
+    public Integer getMinStatusCode() {
+        return minStatusCode;
+    }
+
+    public Integer getMaxStatusCode() {
+        return maxStatusCode;
+    }
+
+    public String getErrorType() {
+        return errorType;
+    }
+}
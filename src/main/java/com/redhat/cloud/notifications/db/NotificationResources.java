@@ -2,22 +2,34 @@ package com.redhat.cloud.notifications.db;
 
 import com.redhat.cloud.notifications.models.Endpoint;
 import com.redhat.cloud.notifications.models.NotificationHistory;
-import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import io.vertx.core.json.JsonObject;
 import org.hibernate.reactive.mutiny.Mutiny;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 @ApplicationScoped
+@TimedQueries
 public class NotificationResources {
 
+    private static final Query.SortFields NOTIFICATION_HISTORY_SORT_FIELDS = new Query.SortFields("NotificationHistory", "nh", "accountId", Map.of(
+            "id", "id",
+            "created", "created"
+    ));
+
     @Inject
     Mutiny.Session session;
 
+    @Inject
+    Mutiny.SessionFactory sessionFactory;
+
+    @Inject
+    ReadReplica readReplica;
+
     public Uni<NotificationHistory> createNotificationHistory(NotificationHistory history) {
         return Uni.createFrom().item(history)
                 .onItem().transform(this::addEndpointReference)
@@ -26,20 +38,89 @@ public class NotificationResources {
                 .replaceWith(history);
     }
 
-    public Multi<NotificationHistory> getNotificationHistory(String tenant, UUID endpoint) {
+    /*
+     * The aggregated emails are sent by scheduled jobs, outside of any request, so their history is persisted with a
+     * dedicated session.
+     */
+    public Uni<NotificationHistory> createAggregatedNotificationHistory(NotificationHistory history) {
+        return sessionFactory.withTransaction((session, transaction) -> session.persist(history))
+                .replaceWith(history);
+    }
+
+    /*
+     * Copies the failure attributes from the details of the history entries of a partition. The entries inserted before
+     * V1.26.0 don't have them since they were only filled on insert from then on. The partition is processed in short
+     * transactions, by batches of entries in the order of their identifiers.
+     */
+    public Uni<Void> backfillFailureColumns(String partition, int batchSize) {
+        return backfillFailureColumns(partition, batchSize, new UUID(0L, 0L));
+    }
+
+    private Uni<Void> backfillFailureColumns(String partition, int batchSize, UUID after) {
+        String query = "WITH batch AS (SELECT id FROM " + partition + " WHERE id > :after ORDER BY id LIMIT :batchSize), " +
+                "updated AS (UPDATE " + partition + " nh SET status_code = CAST(CAST(nh.details AS jsonb) ->> 'code' AS INTEGER), " +
+                "error_type = CAST(nh.details AS jsonb) ->> 'error_type' FROM batch " +
+                "WHERE nh.id = batch.id AND nh.details IS NOT NULL AND nh.status_code IS NULL AND nh.error_type IS NULL) " +
+                "SELECT id FROM batch ORDER BY id DESC LIMIT 1";
+        return sessionFactory.withTransaction((session, transaction) -> session.<UUID>createNativeQuery(query)
+                .setParameter("after", after)
+                .setParameter("batchSize", batchSize)
+                .getResultList()
+        ).onItem().transformToUni(lastIds -> {
+            if (lastIds.isEmpty()) {
+                return Uni.createFrom().voidItem();
+            }
+            return backfillFailureColumns(partition, batchSize, lastIds.get(0));
+        });
+    }
+
+    /*
+     * The history is paginated with a keyset on (created, id) rather than with an offset so that the cost of a page
+     * does not grow with its position and so that entries inserted while a client is paging are neither skipped nor
+     * returned twice. The (account_id, endpoint_id, created DESC, id DESC) index covers both the filter and the sort. The status code
+     * and error type filters are served by partial indexes on the columns copied from the details.
+     */
+    public Uni<List<NotificationHistory>> getNotificationHistory(String tenant, UUID endpoint, HistoryFilter filter, HistoryCursor after, int limit) {
         String query = "SELECT NEW NotificationHistory(nh.id, nh.accountId, nh.invocationTime, nh.invocationResult, nh.eventId, nh.endpoint, nh.created) " +
                 "FROM NotificationHistory nh WHERE nh.accountId = :accountId AND nh.endpoint.id = :endpointId";
-        return session.createQuery(query, NotificationHistory.class)
-                .setParameter("accountId", tenant)
-                .setParameter("endpointId", endpoint)
-                .getResultList()
-                .onItem().transformToMulti(Multi.createFrom()::iterable);
+        if (filter.getMinStatusCode() != null) {
+            query += " AND nh.statusCode BETWEEN :minStatusCode AND :maxStatusCode";
+        }
+        if (filter.getErrorType() != null) {
+            query += " AND nh.errorType = :errorType";
+        }
+        if (after != null) {
+            query += " AND (nh.created < :created OR (nh.created = :created AND nh.id < :id))";
+        }
+        query += " ORDER BY nh.created DESC, nh.id DESC";
+
+        String hql = query;
+        return readReplica.withSession(session -> {
+            Mutiny.Query<NotificationHistory> mutinyQuery = session.createQuery(hql, NotificationHistory.class)
+                    .setParameter("accountId", tenant)
+                    .setParameter("endpointId", endpoint)
+                    .setMaxResults(limit);
+            if (filter.getMinStatusCode() != null) {
+                mutinyQuery = mutinyQuery
+                        .setParameter("minStatusCode", filter.getMinStatusCode())
+                        .setParameter("maxStatusCode", filter.getMaxStatusCode());
+            }
+            if (filter.getErrorType() != null) {
+                mutinyQuery = mutinyQuery.setParameter("errorType", filter.getErrorType());
+            }
+            if (after != null) {
+                mutinyQuery = mutinyQuery
+                        .setParameter("created", after.getCreated())
+                        .setParameter("id", after.getId());
+            }
+            return mutinyQuery.getResultList();
+        });
     }
 
     public Uni<JsonObject> getNotificationDetails(String tenant, Query limiter, UUID endpoint, UUID historyId) {
-        String query = "SELECT details FROM NotificationHistory WHERE accountId = :accountId AND endpoint.id = :endpointId AND id = :historyId";
+        String query = "SELECT nh.details FROM NotificationHistory nh WHERE nh.accountId = :accountId AND nh.endpoint.id = :endpointId AND nh.id = :historyId";
         if (limiter != null) {
-            query = limiter.getModifiedQuery(query);
+            query = limiter.getModifiedQuery(query, NOTIFICATION_HISTORY_SORT_FIELDS);
         }
 
         Mutiny.Query<Map> mutinyQuery = session.createQuery(query, Map.class)
@@ -47,12 +128,12 @@ public class NotificationResources {
                 .setParameter("endpointId", endpoint)
                 .setParameter("historyId", historyId);
 
-        if (limiter != null && limiter.getLimit() != null && limiter.getLimit().getLimit() > 0) {
-            mutinyQuery = mutinyQuery.setMaxResults(limiter.getLimit().getLimit())
-                    .setFirstResult(limiter.getLimit().getOffset());
+        if (limiter != null) {
+            mutinyQuery = limiter.applyTo(mutinyQuery);
         }
 
-        return mutinyQuery.getSingleResultOrNull()
+        return Query.checkCursor(limiter, session, NOTIFICATION_HISTORY_SORT_FIELDS, tenant)
+                .chain(mutinyQuery::getSingleResultOrNull)
                 .onItem().ifNotNull().transform(JsonObject::new);
     }
 
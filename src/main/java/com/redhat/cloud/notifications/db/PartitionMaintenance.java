@@ -0,0 +1,136 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.models.EmailSubscriptionType;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates the daily partitions of the partitioned tables ahead of time and drops the expired ones. It also indexes the
+ * partitions which existed before an index was added to their table.
+ */
+@ApplicationScoped
+public class PartitionMaintenance {
+
+    static final String EMAIL_AGGREGATION_TABLE = "email_aggregation";
+    static final String NOTIFICATION_HISTORY_TABLE = "notification_history";
+    // Created by V1.26.0 on the partitioned table only
+    static final List<String> NOTIFICATION_HISTORY_FAILURE_INDEXES = List.of("ix_notification_history_status_code", "ix_notification_history_error_type");
+
+    private static final Logger LOGGER = Logger.getLogger(PartitionMaintenance.class.getName());
+
+    @Inject
+    PartitionResources partitionResources;
+
+    @Inject
+    EmailAggregationResources emailAggregationResources;
+
+    @Inject
+    NotificationResources notificationResources;
+
+    // Number of daily partitions created ahead of the current day
+    @ConfigProperty(name = "db.partition.days_ahead", defaultValue = "3")
+    int daysAhead;
+
+    /*
+     * The email aggregations are kept during the largest subscription window plus this delay, which leaves some time
+     * to resume an interrupted aggregation run.
+     */
+    @ConfigProperty(name = "email.aggregation.retention.grace", defaultValue = "P2D")
+    Duration emailAggregationRetentionGrace;
+
+    @ConfigProperty(name = "notification.history.retention", defaultValue = "P90D")
+    Duration notificationHistoryRetention;
+
+    @ConfigProperty(name = "notification.history.backfill.batch_size", defaultValue = "1000")
+    int notificationHistoryBackfillBatchSize;
+
+    @Scheduled(identity = "partitionMaintenance", cron = "{db.partition.maintenance.cron}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void scheduledMaintenance() {
+        maintain(LocalDateTime.now(ZoneOffset.UTC)).await().indefinitely();
+    }
+
+    public Uni<Void> maintain(LocalDateTime now) {
+        LocalDate emailAggregationFirstKeptDay = now.minus(getEmailAggregationRetention()).toLocalDate();
+        LocalDate notificationHistoryFirstKeptDay = now.minus(notificationHistoryRetention).toLocalDate();
+        return maintainTable(EMAIL_AGGREGATION_TABLE, "created", now.toLocalDate(), emailAggregationFirstKeptDay)
+                .call(() -> emailAggregationResources.purgePayloadHashes(emailAggregationResources.getDailyWindowStart(now)))
+                .chain(() -> maintainTable(NOTIFICATION_HISTORY_TABLE, "created", now.toLocalDate(), notificationHistoryFirstKeptDay))
+                .chain(this::indexNotificationHistoryFailures);
+    }
+
+    /*
+     * The failure columns of the notification history were added by V1.26.0 without rewriting the existing partitions,
+     * and their indexes were only created on the partitioned table. Each partition which is not indexed yet is
+     * backfilled and then indexed. The expired partitions were dropped just before, so they are not indexed for nothing.
+     * Once all partitions are indexed, this only runs catalog queries.
+     */
+    Uni<Void> indexNotificationHistoryFailures() {
+        return Multi.createFrom().iterable(NOTIFICATION_HISTORY_FAILURE_INDEXES)
+                .onItem().transformToUniAndConcatenate(index -> partitionResources.getPartitionsWithoutIndex(NOTIFICATION_HISTORY_TABLE, index)
+                        .onItem().transform(partitions -> Map.entry(index, partitions)))
+                .collect().asList()
+                .onItem().transformToMulti(missingIndexes -> {
+                    // Each partition is backfilled once, before its first index is built.
+                    Map<String, List<String>> indexesByPartition = new TreeMap<>();
+                    for (Map.Entry<String, List<String>> missingIndex : missingIndexes) {
+                        for (String partition : missingIndex.getValue()) {
+                            indexesByPartition.computeIfAbsent(partition, ignored -> new ArrayList<>()).add(missingIndex.getKey());
+                        }
+                    }
+                    return Multi.createFrom().iterable(indexesByPartition.entrySet());
+                })
+                .onItem().transformToUniAndConcatenate(partitionIndexes -> {
+                    String partition = partitionIndexes.getKey();
+                    return notificationResources.backfillFailureColumns(partition, notificationHistoryBackfillBatchSize)
+                            .chain(() -> Multi.createFrom().iterable(partitionIndexes.getValue())
+                                    .onItem().transformToUniAndConcatenate(index -> partitionResources.createPartitionIndex(NOTIFICATION_HISTORY_TABLE, partition, index))
+                                    .collect().last())
+                            .invoke(() -> LOGGER.info(() -> "Indexed the failure columns of " + partition))
+                            .onFailure().recoverWithItem(failure -> {
+                                LOGGER.log(Level.WARNING, failure, () -> "Partition indexing failed, it will be retried during the next run: " + partition);
+                                // A null item is skipped by the Multi
+                                return null;
+                            });
+                })
+                .collect().last()
+                .replaceWith(Uni.createFrom().voidItem());
+    }
+
+    Duration getEmailAggregationRetention() {
+        Duration largestWindow = Arrays.stream(EmailSubscriptionType.values())
+                .map(EmailSubscriptionType::getDuration)
+                .filter(Objects::nonNull)
+                .max(Duration::compareTo)
+                .orElse(Duration.ZERO);
+        return largestWindow.plus(emailAggregationRetentionGrace);
+    }
+
+    private Uni<Void> maintainTable(String table, String partitionColumn, LocalDate today, LocalDate firstKeptDay) {
+        return partitionResources.createDailyPartitions(table, today, daysAhead + 1)
+                .chain(() -> partitionResources.dropDailyPartitionsBefore(table, firstKeptDay))
+                .invoke(dropped -> {
+                    if (!dropped.isEmpty()) {
+                        LOGGER.info(() -> String.format("Dropped the expired partitions of %s: %s", table, dropped));
+                    }
+                })
+                .chain(() -> partitionResources.purgeDefaultPartition(table, partitionColumn, firstKeptDay))
+                .replaceWith(Uni.createFrom().voidItem());
+    }
+}
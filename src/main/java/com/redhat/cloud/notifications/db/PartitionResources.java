@@ -0,0 +1,211 @@
+package com.redhat.cloud.notifications.db;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.reactive.mutiny.Mutiny;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Manages the daily range partitions of the tables partitioned on a timestamp column. The partitions of a table are
+ * named {@code <table>_pYYYYMMDD} and each of them covers one day. The table names are never user inputs.
+ */
+@ApplicationScoped
+@TimedQueries
+public class PartitionResources {
+
+    private static final Logger LOGGER = Logger.getLogger(PartitionResources.class.getName());
+    private static final DateTimeFormatter PARTITION_SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    @Inject
+    Mutiny.SessionFactory sessionFactory;
+
+    // A partition detach which needs a lock on the parent table gives up after this delay instead of queuing the queries
+    @ConfigProperty(name = "db.partition.detach.lock_timeout", defaultValue = "PT5S")
+    Duration detachLockTimeout;
+
+    static String getPartitionName(String table, LocalDate day) {
+        return table + "_p" + PARTITION_SUFFIX_FORMAT.format(day);
+    }
+
+    /*
+     * Creates the partitions of the given days if they don't exist yet. Several replicas may run this concurrently, so a
+     * failure is only logged: the partition was most likely created by another replica.
+     */
+    public Uni<Void> createDailyPartitions(String table, LocalDate firstDay, int days) {
+        List<LocalDate> partitionDays = new ArrayList<>();
+        for (int i = 0; i < days; i++) {
+            partitionDays.add(firstDay.plusDays(i));
+        }
+        return Multi.createFrom().iterable(partitionDays)
+                .onItem().transformToUniAndConcatenate(day -> {
+                    String query = String.format("CREATE TABLE IF NOT EXISTS %s PARTITION OF %s FOR VALUES FROM ('%s') TO ('%s')",
+                            getPartitionName(table, day), table, day, day.plusDays(1));
+                    return sessionFactory.withSession(session -> session.createNativeQuery(query).executeUpdate())
+                            .onFailure().recoverWithItem(failure -> {
+                                LOGGER.log(Level.WARNING, failure, () -> "Partition creation failed: " + getPartitionName(table, day));
+                                return 0;
+                            });
+                })
+                .collect().last()
+                .replaceWith(Uni.createFrom().voidItem());
+    }
+
+    /*
+     * Drops the partitions which only contain rows older than the given day. The data is removed at a constant cost,
+     * unlike a DELETE which would also leave dead tuples behind. Dropping an attached partition would lock the parent
+     * table until the files are removed, so each partition is detached first and then dropped on its own. Since
+     * PostgreSQL 14, the partition is detached concurrently if the table has no default partition, otherwise the detach
+     * only waits for the parent lock during a limited time. A partition which could not be detached or dropped is left
+     * for the next run: the tables detached (or pending detach) by an interrupted run are also listed.
+     */
+    public Uni<List<String>> dropDailyPartitionsBefore(String table, LocalDate firstKeptDay) {
+        String versionQuery = "SELECT CAST(current_setting('server_version_num') AS INTEGER)";
+        String defaultPartitionQuery = "SELECT pt.partdefid <> 0 FROM pg_catalog.pg_partitioned_table pt WHERE pt.partrelid = CAST(:table AS regclass)";
+        return sessionFactory.withSession(session -> session.createNativeQuery(versionQuery)
+                .getSingleResult()
+                .onItem().transformToUni(version -> session.createNativeQuery(defaultPartitionQuery)
+                        .setParameter("table", table)
+                        .getSingleResult()
+                        .onItem().transformToUni(hasDefaultPartition -> {
+                            boolean detachPendingSupported = ((Number) version).intValue() >= 140000;
+                            boolean concurrently = detachPendingSupported && !Boolean.TRUE.equals(hasDefaultPartition);
+                            String query = "SELECT c.relname, i.inhrelid IS NOT NULL, " + (detachPendingSupported ? "COALESCE(i.inhdetachpending, FALSE)" : "FALSE") + " " +
+                                    "FROM pg_catalog.pg_class c LEFT JOIN pg_catalog.pg_inherits i ON i.inhrelid = c.oid " +
+                                    "WHERE c.relkind = 'r' AND c.relnamespace = CAST(current_schema() AS regnamespace) AND c.relname LIKE :prefix";
+                            return session.<Object[]>createNativeQuery(query)
+                                    .setParameter("prefix", table + "_p%")
+                                    .getResultList()
+                                    .onItem().transform(rows -> {
+                                        List<DailyPartition> partitions = new ArrayList<>(rows.size());
+                                        for (Object[] row : rows) {
+                                            partitions.add(new DailyPartition(String.valueOf(row[0]), Boolean.TRUE.equals(row[1]), Boolean.TRUE.equals(row[2]), concurrently));
+                                        }
+                                        return partitions;
+                                    });
+                        })
+                )
+        )
+                .onItem().transformToMulti(Multi.createFrom()::iterable)
+                .select().where(partition -> isDailyPartitionBefore(table, partition.name, firstKeptDay))
+                .onItem().transformToUniAndConcatenate(partition -> detachPartition(table, partition)
+                        .chain(() -> sessionFactory.withSession(session -> session.createNativeQuery("DROP TABLE IF EXISTS " + partition.name).executeUpdate()))
+                        .replaceWith(partition.name)
+                        .onFailure().recoverWithItem(failure -> {
+                            LOGGER.log(Level.WARNING, failure, () -> "Partition drop failed, it will be retried during the next run: " + partition.name);
+                            // A null item is skipped by the Multi
+                            return null;
+                        })
+                )
+                .collect().asList();
+    }
+
+    private Uni<Integer> detachPartition(String table, DailyPartition partition) {
+        if (!partition.attached) {
+            return Uni.createFrom().item(0);
+        } else if (partition.detachPending) {
+            // A concurrent detach was interrupted, it has to be completed before the table can be dropped
+            String query = String.format("ALTER TABLE %s DETACH PARTITION %s FINALIZE", table, partition.name);
+            return sessionFactory.withSession(session -> session.createNativeQuery(query).executeUpdate());
+        } else if (partition.concurrently) {
+            // DETACH PARTITION CONCURRENTLY can't run in a transaction block
+            String query = String.format("ALTER TABLE %s DETACH PARTITION %s CONCURRENTLY", table, partition.name);
+            return sessionFactory.withSession(session -> session.createNativeQuery(query).executeUpdate());
+        } else {
+            String lockTimeoutQuery = String.format("SET LOCAL lock_timeout = %d", detachLockTimeout.toMillis());
+            String query = String.format("ALTER TABLE %s DETACH PARTITION %s", table, partition.name);
+            return sessionFactory.withTransaction((session, transaction) -> session.createNativeQuery(lockTimeoutQuery)
+                    .executeUpdate()
+                    .chain(() -> session.createNativeQuery(query).executeUpdate())
+            );
+        }
+    }
+
+    /*
+     * Lists the partitions of the given table which have no index attached to the given partitioned index. Such an
+     * index is created ON ONLY the partitioned table by a migration, so that the existing partitions are not locked while
+     * their indexes are built, see createPartitionIndex.
+     */
+    public Uni<List<String>> getPartitionsWithoutIndex(String table, String index) {
+        String query = "SELECT CAST(c.relname AS text) FROM pg_catalog.pg_inherits i JOIN pg_catalog.pg_class c ON c.oid = i.inhrelid " +
+                "WHERE i.inhparent = CAST(:table AS regclass) AND c.relkind = 'r' AND NOT EXISTS (" +
+                "SELECT 1 FROM pg_catalog.pg_inherits ii JOIN pg_catalog.pg_index x ON x.indexrelid = ii.inhrelid " +
+                "WHERE ii.inhparent = CAST(:index AS regclass) AND x.indrelid = c.oid) ORDER BY c.relname";
+        return sessionFactory.withSession(session -> session.<String>createNativeQuery(query)
+                .setParameter("table", table)
+                .setParameter("index", index)
+                .getResultList()
+        );
+    }
+
+    /*
+     * Builds the index of a partition from the definition of the partitioned index and attaches it. The partitioned
+     * index becomes valid once the indexes of all partitions are attached. The index is built concurrently so that the
+     * partition can still be written. A build which was interrupted leaves an invalid index behind, which is dropped
+     * first: it has the same name and was never attached.
+     */
+    public Uni<Void> createPartitionIndex(String table, String partition, String index) {
+        String indexPrefix = "ix_" + table + "_";
+        String partitionIndex = partition + "_" + (index.startsWith(indexPrefix) ? index.substring(indexPrefix.length()) : index);
+        String definitionQuery = "SELECT pg_get_indexdef(CAST(:index AS regclass))";
+        return sessionFactory.withSession(session -> session.<String>createNativeQuery(definitionQuery)
+                .setParameter("index", index)
+                .getSingleResult()
+                // The definition reads: CREATE INDEX <index> ON ONLY <table> USING <method> (<columns>) [WHERE <predicate>]
+                .onItem().transform(definition -> String.format("CREATE INDEX CONCURRENTLY %s ON %s%s", partitionIndex, partition, definition.substring(definition.indexOf(" USING "))))
+                .call(() -> session.createNativeQuery("DROP INDEX CONCURRENTLY IF EXISTS " + partitionIndex).executeUpdate())
+                .call(query -> session.createNativeQuery(query).executeUpdate())
+                .call(() -> session.createNativeQuery(String.format("ALTER INDEX %s ATTACH PARTITION %s", index, partitionIndex)).executeUpdate())
+        ).replaceWith(Uni.createFrom().voidItem());
+    }
+
+    private static class DailyPartition {
+
+        final String name;
+        final boolean attached;
+        final boolean detachPending;
+        final boolean concurrently;
+
+        DailyPartition(String name, boolean attached, boolean detachPending, boolean concurrently) {
+            this.name = name;
+            this.attached = attached;
+            this.detachPending = detachPending;
+            this.concurrently = concurrently;
+        }
+    }
+
+    /*
+     * The rows which were inserted into the default partition (because the daily partition was missing) can't be
+     * dropped with a partition, so they are deleted.
+     */
+    public Uni<Integer> purgeDefaultPartition(String table, String column, LocalDate firstKeptDay) {
+        String query = String.format("DELETE FROM %s_default WHERE %s < :firstKeptDay", table, column);
+        return sessionFactory.withSession(session -> session.createNativeQuery(query)
+                .setParameter("firstKeptDay", firstKeptDay.atStartOfDay())
+                .executeUpdate()
+        );
+    }
+
+    static boolean isDailyPartitionBefore(String table, String partition, LocalDate firstKeptDay) {
+        String prefix = table + "_p";
+        if (!partition.startsWith(prefix)) {
+            return false;
+        }
+        try {
+            LocalDate day = LocalDate.parse(partition.substring(prefix.length()), PARTITION_SUFFIX_FORMAT);
+            return day.isBefore(firstKeptDay);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package com.redhat.cloud.notifications.db;
 
+import io.smallrye.mutiny.Uni;
+import org.hibernate.reactive.mutiny.Mutiny;
+
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.QueryParam;
+import java.util.Map;
+import java.util.UUID;
 import java.util.function.Function;
 
 public class Query {
@@ -16,6 +22,59 @@ public class Query {
     @QueryParam("sort_by")
     private String sortBy;
 
+    /*
+     * Identifier of the last element of the previous page. When it is set, the page starts right after that element
+     * in the requested order (keyset pagination) and the offset is ignored.
+     */
+    @QueryParam("cursor")
+    private String cursor;
+
+    private static final String CURSOR_PARAM = "cursor";
+    private static final String ACCOUNT_ID_PARAM = "accountId";
+
+    /**
+     * Whitelist of the sort keys accepted for an entity. Each key is mapped to an entity property that is backed by
+     * an index (see the V1.24.0 migration), so that neither an arbitrary HQL fragment nor an unindexed column can reach
+     * the ORDER BY clause.
+     */
+    public static class SortFields {
+        private final String entityName;
+        private final String alias;
+        private final String accountProperty;
+        private final Map<String, String> properties;
+
+        /**
+         * @param entityName the HQL name of the queried entity, which is not owned by an account
+         * @param alias      the alias of the queried entity in the query that will be modified
+         * @param properties the accepted sort keys, mapped to the entity properties
+         */
+        public SortFields(String entityName, String alias, Map<String, String> properties) {
+            this(entityName, alias, null, properties);
+        }
+
+        /**
+         * @param entityName      the HQL name of the queried entity
+         * @param alias           the alias of the queried entity in the query that will be modified
+         * @param accountProperty the account property of the entity, the cursor is only looked up within the account
+         *                        bound to the {@code accountId} parameter of the query
+         * @param properties      the accepted sort keys, mapped to the entity properties
+         */
+        public SortFields(String entityName, String alias, String accountProperty, Map<String, String> properties) {
+            this.entityName = entityName;
+            this.alias = alias;
+            this.accountProperty = accountProperty;
+            this.properties = properties;
+        }
+
+        public String getProperty(String sortKey) {
+            String property = properties.get(sortKey);
+            if (property == null) {
+                throw new BadRequestException("Unknown sort field: " + sortKey);
+            }
+            return property;
+        }
+    }
+
     public static class Limit {
         private int limit;
         private int offset;
@@ -83,11 +142,7 @@ public class Query {
     }
 
     public Sort getSort() {
-        // Endpoints: sort by: name, type, "last connection status" (?), enabled
-        //      -> endpoint_id, name, endpoint_type, enabled are the accepted parameter names
-        // TODO Should they be id, name, type, enabled for consistency and then modified in the actual query to Postgres?
-        // And if it's not an accepted value? Throw exception?
-
+        // The accepted sort keys depend on the queried entity, see SortFields.
         if (sortBy == null || sortBy.length() < 1) {
             return null;
         }
@@ -98,23 +153,123 @@ public class Query {
             try {
                 Sort.Order order = Sort.Order.valueOf(sortSplit[1].toUpperCase());
                 sort.setSortOrder(order);
-            } catch (IllegalArgumentException | NullPointerException iae) {
+            } catch (IllegalArgumentException iae) {
+                throw new BadRequestException("Unknown sort order: " + sortSplit[1]);
             }
         }
         return sort;
     }
 
-    public String getModifiedQuery(String basicQuery) {
-        // Use the internal Query
-        // What's the proper order? SORT first, then LIMIT? COUNT as last one?
+    public UUID getCursor() {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            return UUID.fromString(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid cursor: " + cursor);
+        }
+    }
+
+    /**
+     * Adds the keyset condition and the ORDER BY clause to the given query. The identifier of the entity is always
+     * used as the last sort key so that the order is stable and a cursor designates a unique position.
+     *
+     * @param basicQuery the query to modify, which must not contain any ORDER BY clause
+     * @param sortFields the sort keys accepted for the queried entity
+     * @return the modified query
+     * @throws BadRequestException if the sort key is not whitelisted or if the cursor is invalid
+     * @see #checkCursor(Query, Mutiny.Session, SortFields, String)
+     */
+    public String getModifiedQuery(String basicQuery, SortFields sortFields) {
         String query = basicQuery;
         Sort sort = getSort();
+        String sortProperty = sort == null ? null : sortFields.getProperty(sort.getSortColumn());
+        if (getCursor() != null) {
+            query += (query.contains(" WHERE ") ? " AND " : " WHERE ") + getKeysetCondition(sortFields, sortProperty, sort);
+        }
         if (sort != null) {
-            query = modifyWithSort(query, sort);
+            query += " ORDER BY " + sortFields.alias + "." + sortProperty + " " + sort.getSortOrder() +
+                    ", " + sortFields.alias + ".id " + sort.getSortOrder();
+        } else if (getCursor() != null) {
+            query += " ORDER BY " + sortFields.alias + ".id";
         }
         return query;
     }
 
+    /**
+     * Applies the cursor parameter and the page size to a query built with {@link #getModifiedQuery(String, SortFields)}.
+     */
+    public <T> Mutiny.Query<T> applyTo(Mutiny.Query<T> mutinyQuery) {
+        UUID after = getCursor();
+        if (after != null) {
+            mutinyQuery = mutinyQuery.setParameter(CURSOR_PARAM, after);
+        }
+        Limit limit = getLimit();
+        if (limit.getLimit() > 0) {
+            mutinyQuery = mutinyQuery.setMaxResults(limit.getLimit());
+            if (after == null) {
+                mutinyQuery = mutinyQuery.setFirstResult(limit.getOffset());
+            }
+        }
+        return mutinyQuery;
+    }
+
+    /**
+     * Checks that the cursor designates an element of the queried entity (within the account if the entity is owned by
+     * an account). Without this check, an unknown cursor would silently return an empty page.
+     *
+     * @param limiter    the paging parameters of the query, may be null
+     * @param session    the session used to run the check, no query is run if there is no cursor
+     * @param sortFields the sort keys accepted for the queried entity
+     * @param accountId  the account of the query, ignored if the entity is not owned by an account
+     * @return a failed {@link Uni} with a {@link BadRequestException} if the cursor is unknown
+     */
+    public static Uni<Void> checkCursor(Query limiter, Mutiny.Session session, SortFields sortFields, String accountId) {
+        UUID after = limiter == null ? null : limiter.getCursor();
+        if (after == null) {
+            return Uni.createFrom().voidItem();
+        }
+        String query = "SELECT COUNT(*) FROM " + sortFields.entityName + " c WHERE " + getCursorCondition(sortFields);
+        Mutiny.Query<Long> countQuery = session.createQuery(query, Long.class)
+                .setParameter(CURSOR_PARAM, after);
+        if (sortFields.accountProperty != null) {
+            countQuery = countQuery.setParameter(ACCOUNT_ID_PARAM, accountId);
+        }
+        return countQuery.getSingleResult()
+                .onItem().transformToUni(count -> {
+                    if (count == 0L) {
+                        return Uni.createFrom().failure(new BadRequestException("Unknown cursor: " + after));
+                    }
+                    return Uni.createFrom().voidItem();
+                });
+    }
+
+    private static String getCursorCondition(SortFields sortFields) {
+        String condition = "c.id = :" + CURSOR_PARAM;
+        if (sortFields.accountProperty != null) {
+            condition += " AND c." + sortFields.accountProperty + " = :" + ACCOUNT_ID_PARAM;
+        }
+        return condition;
+    }
+
+    /*
+     * The sort value of the cursor row is read with a primary key lookup, which keeps the cursor an opaque identifier
+     * instead of an encoding of values of various types. The lookup is restricted to the account of the query, so that
+     * a cursor can't reveal the position of the elements of another account.
+     */
+    private static String getKeysetCondition(SortFields sortFields, String sortProperty, Sort sort) {
+        String id = sortFields.alias + ".id";
+        if (sort == null) {
+            return id + " > :" + CURSOR_PARAM;
+        }
+        String comparison = sort.getSortOrder() == Sort.Order.ASC ? " > " : " < ";
+        String column = sortFields.alias + "." + sortProperty;
+        String cursorValue = "(SELECT c." + sortProperty + " FROM " + sortFields.entityName + " c WHERE " + getCursorCondition(sortFields) + ")";
+        return "(" + column + comparison + cursorValue +
+                " OR (" + column + " = " + cursorValue + " AND " + id + comparison + ":" + CURSOR_PARAM + "))";
+    }
+
     public static Function<String, String> modifyToCountQuery() {
         return s -> "SELECT COUNT(*) FROM (" +
                 s +
@@ -126,11 +281,4 @@ public class Query {
                 theQuery +
                 ") counted";
     }
-
-    private static String modifyWithSort(String theQuery, Query.Sort sorter) {
-        return theQuery +
-                " ORDER BY " +
-                sorter.getSortColumn() + " " +
-                sorter.getSortOrder().toString();
-    }
 }
@@ -0,0 +1,96 @@
+package com.redhat.cloud.notifications.db;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.temporal.Temporal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Records the execution time of the queries timed by {@link QueryTimingInterceptor} and logs the slow ones.
+ * <p>
+ * The Vert.x 3.9 SQL client doesn't expose any metrics about its connection pools (Quarkus creates one pool per event
+ * loop thread). Each running query holds a connection, so the number of running queries is exposed instead: the
+ * queries start waiting for a connection when it reaches the size of the pools.
+ */
+@ApplicationScoped
+public class QueryMetrics {
+
+    public static final String QUERY_TIMER_NAME = "db.query";
+    public static final String ACTIVE_QUERIES_GAUGE_NAME = "db.queries.active";
+
+    private static final Logger LOGGER = Logger.getLogger(QueryMetrics.class.getName());
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "db.query.slow_threshold", defaultValue = "PT1S")
+    Duration slowThreshold;
+
+    private final AtomicInteger activeQueries = new AtomicInteger();
+
+    @PostConstruct
+    void init() {
+        registry.gauge(ACTIVE_QUERIES_GAUGE_NAME, activeQueries);
+    }
+
+    Execution start(String queryName, Object[] parameters) {
+        activeQueries.incrementAndGet();
+        return new Execution(queryName, parameters, System.nanoTime());
+    }
+
+    /*
+     * The parameters may contain personal data or secrets (emails, endpoint properties...). Only the scalar values are
+     * logged, the other parameters are replaced with their type.
+     */
+    static String sanitize(Object[] parameters) {
+        return Arrays.stream(parameters)
+                .map(QueryMetrics::sanitize)
+                .collect(Collectors.joining(", ", "[", "]"));
+    }
+
+    private static String sanitize(Object parameter) {
+        if (parameter == null || parameter instanceof Number || parameter instanceof Boolean || parameter instanceof Enum
+                || parameter instanceof UUID || parameter instanceof Temporal) {
+            return String.valueOf(parameter);
+        } else if (parameter instanceof Collection) {
+            return "Collection(size=" + ((Collection<?>) parameter).size() + ")";
+        } else if (parameter instanceof Map) {
+            return "Map(size=" + ((Map<?, ?>) parameter).size() + ")";
+        } else {
+            return parameter.getClass().getSimpleName();
+        }
+    }
+
+    class Execution {
+
+        private final String queryName;
+        private final Object[] parameters;
+        private final long start;
+
+        Execution(String queryName, Object[] parameters, long start) {
+            this.queryName = queryName;
+            this.parameters = parameters;
+            this.start = start;
+        }
+
+        void stop(Throwable failure) {
+            Duration duration = Duration.ofNanos(System.nanoTime() - start);
+            activeQueries.decrementAndGet();
+            registry.timer(QUERY_TIMER_NAME, "query", queryName, "outcome", failure == null ? "success" : "failure").record(duration);
+            if (duration.compareTo(slowThreshold) > 0) {
+                LOGGER.warning(() -> String.format("Slow query %s took %d ms with parameters %s", queryName, duration.toMillis(), sanitize(parameters)));
+            }
+        }
+    }
+}
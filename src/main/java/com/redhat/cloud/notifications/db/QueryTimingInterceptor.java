@@ -0,0 +1,46 @@
+package com.redhat.cloud.notifications.db;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+
+/**
+ * Times the {@link Uni} and {@link Multi} returned by the methods of the {@link TimedQueries} classes. The methods only
+ * build the reactive pipelines, so the time is measured from the subscription to the termination of the pipeline, which
+ * is when the queries actually run. The query name is the simple name of the class followed by the method name.
+ */
+@TimedQueries
+@Interceptor
+@Priority(Interceptor.Priority.APPLICATION)
+public class QueryTimingInterceptor {
+
+    @Inject
+    QueryMetrics queryMetrics;
+
+    @AroundInvoke
+    Object timeQuery(InvocationContext context) throws Exception {
+        Object result = context.proceed();
+        String queryName = context.getMethod().getDeclaringClass().getSimpleName() + "." + context.getMethod().getName();
+        Object[] parameters = context.getParameters();
+        if (result instanceof Uni) {
+            Uni<?> uni = (Uni<?>) result;
+            return Uni.createFrom().deferred(() -> {
+                QueryMetrics.Execution execution = queryMetrics.start(queryName, parameters);
+                return uni.onTermination().invoke((item, failure, cancelled) -> execution.stop(failure));
+            });
+        } else if (result instanceof Multi) {
+            Multi<?> multi = (Multi<?>) result;
+            return Multi.createFrom().deferred(() -> {
+                QueryMetrics.Execution execution = queryMetrics.start(queryName, parameters);
+                return multi.onTermination().invoke((failure, cancelled) -> execution.stop(failure));
+            });
+        } else {
+            return result;
+        }
+    }
+}
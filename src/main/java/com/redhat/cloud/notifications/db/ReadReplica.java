@@ -0,0 +1,188 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.db.naming.SnakeCasePhysicalNamingStrategy;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.hibernate.orm.runtime.dialect.QuarkusPostgreSQL10Dialect;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.Vertx;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.reactive.mutiny.Mutiny;
+import org.hibernate.reactive.provider.ReactiveServiceRegistryBuilder;
+import org.hibernate.reactive.provider.Settings;
+import org.hibernate.reactive.vertx.VertxInstance;
+import org.hibernate.reactive.vertx.impl.ProvidedVertxInstance;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs read-only queries on a PostgreSQL read replica when one is configured, so that the REST APIs don't compete
+ * with the events processing for the connections of the primary database. The queries are run on the primary database
+ * instead when no replica is configured, when the replica lags behind by more than {@code db.replica.max_lag} or when
+ * a query fails on the replica.
+ * <p>
+ * Only the queries which tolerate slightly stale data may use the replica: a client could otherwise not read what it
+ * just wrote.
+ */
+@ApplicationScoped
+public class ReadReplica {
+
+    public static final String LAG_GAUGE = "db.replica.lag";
+    public static final String FALLBACKS_COUNTER = "db.replica.fallbacks";
+
+    private static final Logger LOGGER = Logger.getLogger(ReadReplica.class.getName());
+
+    /*
+     * The replay timestamp keeps getting older on a replica which is up to date when the primary database is idle, so
+     * the lag is only measured while some WAL has not been replayed yet.
+     */
+    private static final String LAG_QUERY = "SELECT CASE WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) * 1000 END";
+
+    @Inject
+    Mutiny.SessionFactory sessionFactory;
+
+    @Inject
+    Vertx vertx;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "db.replica.enabled", defaultValue = "false")
+    boolean enabled;
+
+    // Same format as quarkus.datasource.reactive.url
+    @ConfigProperty(name = "db.replica.url")
+    Optional<String> url;
+
+    @ConfigProperty(name = "db.replica.username")
+    Optional<String> username;
+
+    @ConfigProperty(name = "db.replica.password")
+    Optional<String> password;
+
+    @ConfigProperty(name = "quarkus.datasource.username")
+    String primaryUsername;
+
+    @ConfigProperty(name = "quarkus.datasource.password")
+    String primaryPassword;
+
+    @ConfigProperty(name = "db.replica.pool_size", defaultValue = "10")
+    int poolSize;
+
+    @ConfigProperty(name = "db.replica.max_lag", defaultValue = "PT10S")
+    Duration maxLag;
+
+    // Package-private so that the tests can replace it.
+    Mutiny.SessionFactory replicaSessionFactory;
+    private volatile boolean replicaAvailable;
+    private final AtomicLong lag = new AtomicLong();
+    private Counter fallbacks;
+
+    @PostConstruct
+    void init() {
+        registry.gauge(LAG_GAUGE, lag);
+        fallbacks = registry.counter(FALLBACKS_COUNTER);
+    }
+
+    void start(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        if (url.isEmpty()) {
+            LOGGER.warning("The read replica is enabled but db.replica.url is not set, all queries will run on the primary database");
+            return;
+        }
+
+        /*
+         * Quarkus only builds the session factory of the primary datasource, so the replica one is built here. It maps
+         * the same entities and uses the same Vert.x instance.
+         */
+        Configuration configuration = new Configuration();
+        sessionFactory.getMetamodel().getEntities().forEach(entity -> configuration.addAnnotatedClass(entity.getJavaType()));
+        configuration.setPhysicalNamingStrategy(new SnakeCasePhysicalNamingStrategy());
+        ReactiveServiceRegistryBuilder registryBuilder = new ReactiveServiceRegistryBuilder();
+        registryBuilder.applySettings(configuration.getProperties())
+                .applySetting(Settings.URL, url.get())
+                .applySetting(Settings.USER, username.orElse(primaryUsername))
+                .applySetting(Settings.PASS, password.orElse(primaryPassword))
+                .applySetting(Settings.DIALECT, QuarkusPostgreSQL10Dialect.class.getName())
+                .applySetting(Settings.POOL_SIZE, poolSize)
+                .addService(VertxInstance.class, new ProvidedVertxInstance(vertx));
+        replicaSessionFactory = configuration.buildSessionFactory(registryBuilder.build()).unwrap(Mutiny.SessionFactory.class);
+        // The startup is not delayed by the first lag check, the queries run on the primary database until it completes.
+        measureLag().subscribe().with(ignored -> { });
+    }
+
+    void stop(@Observes ShutdownEvent event) {
+        if (replicaSessionFactory != null) {
+            replicaSessionFactory.close();
+        }
+    }
+
+    @Scheduled(identity = "readReplicaLagCheck", every = "{db.replica.lag_check.period}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void checkLag() {
+        if (replicaSessionFactory != null) {
+            measureLag().await().indefinitely();
+        }
+    }
+
+    /*
+     * Measures the replica lag and updates the replica availability. A lag check which takes longer than max_lag fails
+     * and makes the replica unavailable. The returned Uni never fails.
+     */
+    Uni<Void> measureLag() {
+        return replicaSessionFactory.withSession(session -> session.createNativeQuery(LAG_QUERY).getSingleResult())
+                .ifNoItem().after(maxLag).fail()
+                .onItem().castTo(Number.class)
+                .onItem().invoke(lagMillis -> {
+                    lag.set(lagMillis.longValue());
+                    boolean available = lagMillis.longValue() <= maxLag.toMillis();
+                    if (available != replicaAvailable) {
+                        LOGGER.info(() -> String.format("Read replica %s, lag: %d ms", available ? "available" : "lagging behind", lagMillis.longValue()));
+                    }
+                    replicaAvailable = available;
+                })
+                .onFailure().invoke(failure -> {
+                    LOGGER.log(Level.WARNING, "Read replica lag check failed", failure);
+                    replicaAvailable = false;
+                })
+                .onFailure().recoverWithNull()
+                .replaceWith(Uni.createFrom().voidItem());
+    }
+
+    /**
+     * Runs a read-only unit of work with a new session, opened on the replica if it is available or on the primary
+     * database otherwise.
+     *
+     * @param work the unit of work, which must not modify any data
+     * @param <T>  the type of the result
+     * @return the result of the unit of work
+     */
+    public <T> Uni<T> withSession(Function<Mutiny.Session, Uni<T>> work) {
+        if (replicaSessionFactory == null || !replicaAvailable) {
+            return sessionFactory.withSession(work);
+        }
+        return replicaSessionFactory.withSession(work)
+                .onFailure().recoverWithUni(failure -> {
+                    LOGGER.log(Level.WARNING, "Query failed on the read replica, running it on the primary database", failure);
+                    fallbacks.increment();
+                    // The next lag check will tell whether the replica can be used again.
+                    replicaAvailable = false;
+                    return sessionFactory.withSession(work);
+                });
+    }
+}
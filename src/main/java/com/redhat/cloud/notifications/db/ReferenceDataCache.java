@@ -0,0 +1,128 @@
+package com.redhat.cloud.notifications.db;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caches the reference data (bundles, applications and event types) which is read by almost every request and event
+ * but only modified through the internal APIs. The whole cache is invalidated when any reference data is modified:
+ * these modifications are rare and the cache is cheap to reload. The invalidations are propagated to the other
+ * instances of the application with the {@link CacheInvalidationBus}.
+ * <p>
+ * The cached entities are shared between the sessions and must therefore never be modified by the callers. They are
+ * read long after the session which loaded them was closed, so their to-one associations (the bundle of an application,
+ * the application and bundle of an event type) have to be fetched by every loader, otherwise reading them fails. Their
+ * collections are never fetched and must not be read.
+ */
+@ApplicationScoped
+public class ReferenceDataCache {
+
+    public static final String CACHE_NAME = "reference-data";
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    CacheInvalidationBus invalidationBus;
+
+    // Limits the staleness of the cache if an invalidation from another instance of the application is lost
+    @ConfigProperty(name = "reference_data.cache.expire_after_write", defaultValue = "PT1H")
+    Duration expireAfterWrite;
+
+    // Used instead of expire_after_write for the values cached while the invalidations of the other instances are not received
+    @ConfigProperty(name = "reference_data.cache.disconnected.expire_after_write", defaultValue = "PT5M")
+    Duration disconnectedExpireAfterWrite;
+
+    @ConfigProperty(name = "reference_data.cache.max_size", defaultValue = "10000")
+    long maxSize;
+
+    private Cache<List<Object>, Object> cache;
+
+    /*
+     * Incremented by each invalidation. A value loaded from the database is only cached if no invalidation happened
+     * while it was loaded, otherwise it may be stale already.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        cache = Caffeine.newBuilder()
+                .expireAfter(new Expiry<List<Object>, Object>() {
+                    @Override
+                    public long expireAfterCreate(List<Object> key, Object value, long currentTime) {
+                        return (invalidationBus.isConnected() ? expireAfterWrite : disconnectedExpireAfterWrite).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(List<Object> key, Object value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(List<Object> key, Object value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Returns the cached value of the given key or loads it. The {@code null} values are not cached, so that reference
+     * data created in another instance of the application can be found immediately.
+     *
+     * @param loader loads the value from the database on a cache miss
+     * @param key    the cache key, starting with the kind of the value (e.g. {@code "bundle-by-name"})
+     * @param <T>    the type of the value
+     * @return the cached or loaded value
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Uni<T> get(Supplier<Uni<T>> loader, Object... key) {
+        List<Object> cacheKey = List.of(key);
+        return Uni.createFrom().deferred(() -> {
+            T cached = (T) cache.getIfPresent(cacheKey);
+            if (cached != null) {
+                return Uni.createFrom().item(cached);
+            }
+            long loadGeneration = generation.get();
+            return loader.get()
+                    .onItem().ifNotNull().invoke(value -> {
+                        if (generation.get() == loadGeneration) {
+                            cache.put(cacheKey, value);
+                        }
+                    });
+        });
+    }
+
+    public void invalidateAll() {
+        invalidateLocally();
+        invalidationBus.publish(CACHE_NAME);
+    }
+
+    void onInvalidation(@Observes CacheInvalidation invalidation) {
+        if (invalidation.concerns(CACHE_NAME)) {
+            invalidateLocally();
+        }
+    }
+
+    private void invalidateLocally() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,60 @@
+package com.redhat.cloud.notifications.models;
+
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.fasterxml.jackson.databind.PropertyNamingStrategies.SnakeCaseStrategy;
+
+/**
+ * A behavior group with the ids of its actions endpoints and of its event types, as written by the endpoints export.
+ */
+@JsonNaming(SnakeCaseStrategy.class)
+public class BehaviorGroupExport {
+
+    private final UUID id;
+    private final String name;
+    private final String displayName;
+    private final UUID bundleId;
+    private final boolean defaultBehavior;
+    private final List<UUID> endpointIds = new ArrayList<>();
+    private final List<UUID> eventTypeIds = new ArrayList<>();
+
+    public BehaviorGroupExport(BehaviorGroup behaviorGroup) {
+        id = behaviorGroup.getId();
+        name = behaviorGroup.getName();
+        displayName = behaviorGroup.getDisplayName();
+        bundleId = behaviorGroup.getBundleId();
+        defaultBehavior = behaviorGroup.getDefaultBehavior();
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public UUID getBundleId() {
+        return bundleId;
+    }
+
+    public boolean isDefaultBehavior() {
+        return defaultBehavior;
+    }
+
+    public List<UUID> getEndpointIds() {
+        return endpointIds;
+    }
+
+    public List<UUID> getEventTypeIds() {
+        return eventTypeIds;
+    }
+}
@@ -1,5 +1,6 @@
 package com.redhat.cloud.notifications.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.redhat.cloud.notifications.db.converters.JsonObjectConverter;
 import io.vertx.core.json.JsonObject;
@@ -11,6 +12,7 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 import java.util.Objects;
@@ -46,6 +48,11 @@ public class EmailAggregation extends CreationTimestamped {
     @Convert(converter = JsonObjectConverter.class)
     private JsonObject payload;
 
+    // SHA-256 of the payload, used to drop the duplicate aggregations. It is stored in email_aggregation_payload_hash.
+    @Transient
+    @JsonIgnore
+    private String payloadHash;
+
     public Integer getId() {
         return id;
     }
@@ -86,6 +93,14 @@ public class EmailAggregation extends CreationTimestamped {
         this.payload = payload;
     }
 
+    public String getPayloadHash() {
+        return payloadHash;
+    }
+
+    public void setPayloadHash(String payloadHash) {
+        this.payloadHash = payloadHash;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -1,8 +1,10 @@
 package com.redhat.cloud.notifications.models;
 
 import javax.validation.constraints.NotNull;
+import java.io.Serializable;
+import java.util.Objects;
 
-public class EmailAggregationKey {
+public class EmailAggregationKey implements Serializable {
 
     @NotNull
     private String accountId;
@@ -46,4 +48,22 @@ public class EmailAggregationKey {
         this.application = application;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof EmailAggregationKey) {
+            EmailAggregationKey other = (EmailAggregationKey) o;
+            return Objects.equals(accountId, other.accountId) &&
+                    Objects.equals(bundle, other.bundle) &&
+                    Objects.equals(application, other.application);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(accountId, bundle, application);
+    }
 }
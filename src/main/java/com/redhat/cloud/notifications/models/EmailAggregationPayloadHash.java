@@ -0,0 +1,43 @@
+package com.redhat.cloud.notifications.models;
+
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+import java.util.Objects;
+
+/**
+ * Hash of a payload stored for an (account, bundle, application) key during a daily aggregation window. The rows are
+ * only written by the native query which inserts the email aggregations.
+ */
+@Entity
+@Table(name = "email_aggregation_payload_hash")
+public class EmailAggregationPayloadHash {
+
+    @EmbeddedId
+    private EmailAggregationPayloadHashId id;
+
+    public EmailAggregationPayloadHashId getId() {
+        return id;
+    }
+
+    public void setId(EmailAggregationPayloadHashId id) {
+        this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof EmailAggregationPayloadHash) {
+            EmailAggregationPayloadHash other = (EmailAggregationPayloadHash) o;
+            return Objects.equals(id, other.id);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id);
+    }
+}
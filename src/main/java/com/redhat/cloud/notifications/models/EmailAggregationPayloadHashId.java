@@ -0,0 +1,56 @@
+package com.redhat.cloud.notifications.models;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+@Embeddable
+public class EmailAggregationPayloadHashId implements Serializable {
+
+    @NotNull
+    @Size(max = 50)
+    public String accountId;
+
+    @NotNull
+    @Size(max = 255)
+    @Column(name = "bundle")
+    public String bundleName;
+
+    @NotNull
+    @Size(max = 255)
+    @Column(name = "application")
+    public String applicationName;
+
+    @NotNull
+    @Size(max = 64)
+    public String payloadHash;
+
+    // Start of the daily aggregation window in which the payload was stored
+    @NotNull
+    public LocalDateTime windowStart;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof EmailAggregationPayloadHashId) {
+            EmailAggregationPayloadHashId other = (EmailAggregationPayloadHashId) o;
+            return Objects.equals(accountId, other.accountId) &&
+                    Objects.equals(bundleName, other.bundleName) &&
+                    Objects.equals(applicationName, other.applicationName) &&
+                    Objects.equals(payloadHash, other.payloadHash) &&
+                    Objects.equals(windowStart, other.windowStart);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(accountId, bundleName, applicationName, payloadHash, windowStart);
+    }
+}
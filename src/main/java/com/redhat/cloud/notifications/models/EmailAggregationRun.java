@@ -0,0 +1,95 @@
+package com.redhat.cloud.notifications.models;
+
+import com.redhat.cloud.notifications.db.converters.EmailSubscriptionTypeConverter;
+
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A run is the aggregation of all the pending emails of a given subscription type over a time window. Its state is
+ * persisted so that an interrupted run can be resumed by the next scheduled execution.
+ */
+@Entity
+@Table(name = "email_aggregation_run")
+public class EmailAggregationRun extends CreationUpdateTimestamped {
+
+    @Id
+    @GeneratedValue
+    private UUID id;
+
+    @NotNull
+    @Convert(converter = EmailSubscriptionTypeConverter.class)
+    private EmailSubscriptionType subscriptionType;
+
+    @NotNull
+    private LocalDateTime startTime;
+
+    @NotNull
+    private LocalDateTime endTime;
+
+    private boolean completed;
+
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public EmailSubscriptionType getSubscriptionType() {
+        return subscriptionType;
+    }
+
+    public void setSubscriptionType(EmailSubscriptionType subscriptionType) {
+        this.subscriptionType = subscriptionType;
+    }
+
+    public LocalDateTime getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(LocalDateTime startTime) {
+        this.startTime = startTime;
+    }
+
+    public LocalDateTime getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(LocalDateTime endTime) {
+        this.endTime = endTime;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof EmailAggregationRun) {
+            EmailAggregationRun other = (EmailAggregationRun) o;
+            return Objects.equals(id, other.id);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id);
+    }
+}
@@ -0,0 +1,60 @@
+package com.redhat.cloud.notifications.models;
+
+import com.redhat.cloud.notifications.db.converters.JsonObjectConverter;
+import io.vertx.core.json.JsonObject;
+
+import javax.persistence.Convert;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import java.util.Objects;
+
+/**
+ * Pre-aggregated email aggregations of an (account, bundle, application) key over one hour. The state is exported
+ * from an email payload aggregator and is merged into the daily aggregator instead of the raw email aggregations.
+ */
+@Entity
+@Table(name = "email_aggregation_summary")
+public class EmailAggregationSummary extends CreationUpdateTimestamped {
+
+    @EmbeddedId
+    private EmailAggregationSummaryId id;
+
+    @NotNull
+    @Convert(converter = JsonObjectConverter.class)
+    private JsonObject state;
+
+    public EmailAggregationSummaryId getId() {
+        return id;
+    }
+
+    public void setId(EmailAggregationSummaryId id) {
+        this.id = id;
+    }
+
+    public JsonObject getState() {
+        return state;
+    }
+
+    public void setState(JsonObject state) {
+        this.state = state;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof EmailAggregationSummary) {
+            EmailAggregationSummary other = (EmailAggregationSummary) o;
+            return Objects.equals(id, other.id);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id);
+    }
+}
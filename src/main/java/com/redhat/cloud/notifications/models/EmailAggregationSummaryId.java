@@ -0,0 +1,65 @@
+package com.redhat.cloud.notifications.models;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+@Embeddable
+public class EmailAggregationSummaryId implements Serializable {
+
+    @NotNull
+    @Size(max = 50)
+    public String accountId;
+
+    @NotNull
+    @Size(max = 255)
+    @Column(name = "bundle")
+    public String bundleName;
+
+    @NotNull
+    @Size(max = 255)
+    @Column(name = "application")
+    public String applicationName;
+
+    // Start of the hour covered by the summary, or start of the daily window if it is later
+    @NotNull
+    public LocalDateTime bucket;
+
+    public EmailAggregationSummaryId() {
+    }
+
+    public EmailAggregationSummaryId(EmailAggregationKey key, LocalDateTime bucket) {
+        accountId = key.getAccountId();
+        bundleName = key.getBundle();
+        applicationName = key.getApplication();
+        this.bucket = bucket;
+    }
+
+    public EmailAggregationKey getAggregationKey() {
+        return new EmailAggregationKey(accountId, bundleName, applicationName);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof EmailAggregationSummaryId) {
+            EmailAggregationSummaryId other = (EmailAggregationSummaryId) o;
+            return Objects.equals(accountId, other.accountId) &&
+                    Objects.equals(bundleName, other.bundleName) &&
+                    Objects.equals(applicationName, other.applicationName) &&
+                    Objects.equals(bucket, other.bucket);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(accountId, bundleName, applicationName, bucket);
+    }
+}
@@ -12,11 +12,9 @@ import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Convert;
 import javax.persistence.Entity;
-import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
-import javax.persistence.OneToOne;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import javax.validation.Valid;
@@ -72,7 +70,11 @@ public class Endpoint extends CreationUpdateTimestamped {
     @Transient
     private Attributes properties;
 
-    @OneToOne(mappedBy = "endpoint", fetch = FetchType.LAZY, cascade = CascadeType.ALL)
+    /*
+     * The properties tables are not mapped as associations: EndpointResources loads them depending on the endpoint
+     * type and persists them explicitly.
+     */
+    @Transient
     @JsonIgnore
     private EndpointWebhook webhook;
 
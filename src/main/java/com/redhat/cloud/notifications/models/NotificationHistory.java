@@ -47,8 +47,8 @@ public class NotificationHistory extends CreationTimestamped {
     @Transient
     private UUID endpointId;
 
-    @NotNull
-    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    // Null for the aggregated emails which are not sent through an endpoint
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "endpoint_id")
     @JsonIgnore
     private Endpoint endpoint;
@@ -56,6 +56,13 @@ public class NotificationHistory extends CreationTimestamped {
     @Convert(converter = NotificationHistoryDetailsConverter.class)
     private Map<String, Object> details;
 
+    // Copied from the details when the history is inserted, these columns are only used to filter the history.
+    @JsonIgnore
+    private Integer statusCode;
+
+    @JsonIgnore
+    private String errorType;
+
     public NotificationHistory() {
     }
 
@@ -136,6 +143,22 @@ public class NotificationHistory extends CreationTimestamped {
         this.details = details;
     }
 
+    public Integer getStatusCode() {
+        return statusCode;
+    }
+
+    public void setStatusCode(Integer statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    public String getErrorType() {
+        return errorType;
+    }
+
+    public void setErrorType(String errorType) {
+        this.errorType = errorType;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
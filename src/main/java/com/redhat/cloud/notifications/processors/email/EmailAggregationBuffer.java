@@ -0,0 +1,183 @@
+package com.redhat.cloud.notifications.processors.email;
+
+import com.redhat.cloud.notifications.db.EmailAggregationResources;
+import com.redhat.cloud.notifications.models.EmailAggregation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import io.vertx.pgclient.PgException;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * When enabled, the email aggregations of the instant email path are buffered in memory and inserted with multi-row
+ * statements, either as soon as a batch is full or periodically. This removes a synchronous database write per event
+ * from the critical path. The buffer is bounded: once it is full, the caller has to insert the aggregation itself.
+ * The creation time of a buffered aggregation is the time of its insertion, so that it is always included in the daily
+ * window which is processed after it became visible in the database, whichever replica buffered it.
+ */
+@ApplicationScoped
+public class EmailAggregationBuffer {
+
+    public static final String INSERTED_COUNTER_NAME = "email.aggregation.buffer.inserted";
+    public static final String FLUSH_ERROR_COUNTER_NAME = "email.aggregation.buffer.flush.error";
+    public static final String DROPPED_COUNTER_NAME = "email.aggregation.buffer.dropped";
+    public static final String DEAD_LETTER_COUNTER_NAME = "email.aggregation.buffer.dead_letter";
+
+    private static final Logger log = Logger.getLogger(EmailAggregationBuffer.class.getName());
+
+    @Inject
+    EmailAggregationResources emailAggregationResources;
+
+    @Inject
+    EmailAggregationDeduplicator emailAggregationDeduplicator;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "email.aggregation.buffer.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "email.aggregation.buffer.batch_size", defaultValue = "500")
+    int batchSize;
+
+    @ConfigProperty(name = "email.aggregation.buffer.capacity", defaultValue = "10000")
+    int capacity;
+
+    private BlockingQueue<EmailAggregation> buffer;
+    private final AtomicBoolean backgroundFlush = new AtomicBoolean();
+    private Counter insertedAggregations;
+    private Counter flushErrors;
+    private Counter droppedAggregations;
+    private Counter deadLetters;
+
+    @PostConstruct
+    void init() {
+        buffer = new ArrayBlockingQueue<>(capacity);
+        insertedAggregations = registry.counter(INSERTED_COUNTER_NAME);
+        flushErrors = registry.counter(FLUSH_ERROR_COUNTER_NAME);
+        droppedAggregations = registry.counter(DROPPED_COUNTER_NAME);
+        deadLetters = registry.counter(DEAD_LETTER_COUNTER_NAME);
+    }
+
+    /**
+     * Adds the given aggregation to the buffer.
+     * @return {@code false} if the aggregation was not buffered and has to be inserted by the caller
+     */
+    public boolean offer(EmailAggregation aggregation) {
+        if (!enabled) {
+            return false;
+        }
+        if (!buffer.offer(aggregation)) {
+            return false;
+        }
+
+        if (buffer.size() >= batchSize && backgroundFlush.compareAndSet(false, true)) {
+            flush()
+                    .eventually(() -> backgroundFlush.set(false))
+                    .subscribe().with(ignored -> { }, failure -> log.log(Level.WARNING, "Email aggregation buffer flush failed", failure));
+        }
+        return true;
+    }
+
+    @Scheduled(identity = "emailAggregationBufferFlush", every = "{email.aggregation.buffer.flush_interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void scheduledFlush() {
+        flush().await().indefinitely();
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        flush().await().atMost(Duration.ofSeconds(30L));
+    }
+
+    /*
+     * Inserts the buffered aggregations batch after batch until the buffer is empty. Several flushes can run at the same
+     * time since each batch is removed from the buffer before it is inserted. The flush stops at the first batch which
+     * could not be inserted because of a transient failure, that batch is retried during the next flush.
+     */
+    public Uni<Void> flush() {
+        List<EmailAggregation> batch = new ArrayList<>(batchSize);
+        buffer.drainTo(batch, batchSize);
+        if (batch.isEmpty()) {
+            return Uni.createFrom().voidItem();
+        }
+
+        return insert(batch)
+                .onItem().transformToUni(inserted -> inserted ? flush() : Uni.createFrom().voidItem());
+    }
+
+    /*
+     * Returns false if the batch was put back into the buffer after a transient failure. A batch rejected by the database
+     * because of its content would fail the same way forever, so it is split in halves until the rejected aggregations
+     * are isolated. These are sent to the dead letter log and the rest of the batch is inserted.
+     */
+    private Uni<Boolean> insert(List<EmailAggregation> batch) {
+        return emailAggregationResources.addEmailAggregations(batch)
+                .onItem().transform(inserted -> {
+                    insertedAggregations.increment(inserted);
+                    batch.forEach(emailAggregationDeduplicator::markStored);
+                    return Boolean.TRUE;
+                })
+                .onFailure().recoverWithUni(failure -> {
+                    if (!isRejected(failure)) {
+                        log.log(Level.WARNING, "Email aggregations batch insertion failed, it will be retried during the next flush", failure);
+                        flushErrors.increment();
+                        requeue(batch);
+                        return Uni.createFrom().item(Boolean.FALSE);
+                    }
+                    if (batch.size() == 1) {
+                        deadLetter(batch.get(0), failure);
+                        return Uni.createFrom().item(Boolean.TRUE);
+                    }
+                    List<EmailAggregation> firstHalf = batch.subList(0, batch.size() / 2);
+                    List<EmailAggregation> secondHalf = batch.subList(batch.size() / 2, batch.size());
+                    return insert(firstHalf)
+                            .onItem().transformToUni(inserted -> {
+                                if (inserted) {
+                                    return insert(secondHalf);
+                                }
+                                requeue(secondHalf);
+                                return Uni.createFrom().item(Boolean.FALSE);
+                            });
+                });
+    }
+
+    // The failed batch is put back so that its aggregations are not lost, as long as the buffer is not full.
+    private void requeue(List<EmailAggregation> batch) {
+        for (EmailAggregation aggregation : batch) {
+            if (!buffer.offer(aggregation)) {
+                droppedAggregations.increment();
+            }
+        }
+    }
+
+    private void deadLetter(EmailAggregation aggregation, Throwable failure) {
+        deadLetters.increment();
+        log.log(Level.SEVERE, failure, () -> String.format("Email aggregation rejected by the database [accountId=%s, bundle=%s, application=%s, payload=%s]",
+                aggregation.getAccountId(), aggregation.getBundleName(), aggregation.getApplicationName(), aggregation.getPayload().encode()));
+    }
+
+    // SQLSTATE classes 22 (data exception) and 23 (integrity constraint violation) won't go away with a retry.
+    private static boolean isRejected(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PgException) {
+                String code = ((PgException) cause).getCode();
+                return code != null && (code.startsWith("22") || code.startsWith("23"));
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,108 @@
+package com.redhat.cloud.notifications.processors.email;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.redhat.cloud.notifications.db.EmailAggregationResources;
+import com.redhat.cloud.notifications.models.EmailAggregation;
+import com.redhat.cloud.notifications.models.EmailSubscriptionType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Drops the email aggregations whose payload was already stored for the same account and application during the current
+ * daily aggregation window, so that a payload received again after the window was processed is included in the next
+ * digest. The hashes of the stored payloads are kept in memory, which filters the duplicates received by this replica.
+ * A hash is only recorded once its aggregation was stored, so that a retry of a failed insertion is not dropped. The
+ * hash is also stored in the database with the aggregation, which filters the duplicates received by the other replicas.
+ */
+@ApplicationScoped
+public class EmailAggregationDeduplicator {
+
+    public static final String DUPLICATES_COUNTER_NAME = "email.aggregation.duplicates";
+
+    @Inject
+    EmailAggregationResources emailAggregationResources;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "email.aggregation.deduplication.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "email.aggregation.deduplication.max_size", defaultValue = "100000")
+    long maxSize;
+
+    private Cache<String, Boolean> recentPayloads;
+    private Counter duplicates;
+
+    @PostConstruct
+    void init() {
+        recentPayloads = Caffeine.newBuilder()
+                .expireAfterWrite(EmailSubscriptionType.DAILY.getDuration())
+                .maximumSize(maxSize)
+                .build();
+        duplicates = registry.counter(DUPLICATES_COUNTER_NAME);
+    }
+
+    /**
+     * Computes the payload hash of the given aggregation and checks whether the same payload was already stored during
+     * the current daily window.
+     * @return {@code true} if the aggregation is a duplicate and should not be stored
+     */
+    public boolean isDuplicate(EmailAggregation aggregation) {
+        if (!enabled) {
+            return false;
+        }
+
+        String payloadHash = hash(aggregation.getPayload().encode());
+        aggregation.setPayloadHash(payloadHash);
+
+        if (recentPayloads.getIfPresent(getKey(aggregation, LocalDateTime.now(ZoneOffset.UTC))) != null) {
+            duplicates.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the payload hash of the given aggregation once it was stored (or kept until it is stored), in the daily
+     * window of its creation time.
+     */
+    public void markStored(EmailAggregation aggregation) {
+        if (!enabled || aggregation.getPayloadHash() == null) {
+            return;
+        }
+
+        LocalDateTime created = aggregation.getCreated() == null ? LocalDateTime.now(ZoneOffset.UTC) : aggregation.getCreated();
+        recentPayloads.put(getKey(aggregation, created), Boolean.TRUE);
+    }
+
+    private String getKey(EmailAggregation aggregation, LocalDateTime time) {
+        return String.join("/", aggregation.getAccountId(), aggregation.getBundleName(), aggregation.getApplicationName(),
+                aggregation.getPayloadHash(), emailAggregationResources.getDailyWindowStart(time).toString());
+    }
+
+    static String hash(String payload) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(payload.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.redhat.cloud.notifications.processors.email;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.redhat.cloud.notifications.db.EmailAggregationResources;
 import com.redhat.cloud.notifications.db.EndpointEmailSubscriptionResources;
+import com.redhat.cloud.notifications.db.NotificationResources;
 import com.redhat.cloud.notifications.ingress.Action;
 import com.redhat.cloud.notifications.models.EmailAggregation;
 import com.redhat.cloud.notifications.models.EmailAggregationKey;
@@ -17,10 +18,17 @@ import com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor;
 import com.redhat.cloud.notifications.templates.AbstractEmailTemplate;
 import com.redhat.cloud.notifications.templates.EmailTemplateFactory;
 import com.redhat.cloud.notifications.transformers.BaseTransformer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import io.quarkus.scheduler.Scheduled;
 import io.quarkus.scheduler.ScheduledExecution;
 import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.subscription.Cancellable;
 import io.smallrye.mutiny.tuples.Tuple2;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.client.WebClientOptions;
@@ -30,16 +38,28 @@ import io.vertx.mutiny.ext.web.client.HttpRequest;
 import io.vertx.mutiny.ext.web.client.WebClient;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -56,9 +76,23 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
 
     static final String BODY_TYPE_HTML = "html";
 
+    public static final String AGGREGATION_KEYS_PROCESSED_COUNTER_NAME = "email.aggregation.keys.processed";
+    public static final String AGGREGATION_KEYS_SKIPPED_COUNTER_NAME = "email.aggregation.keys.skipped";
+    public static final String AGGREGATION_KEYS_FAILED_COUNTER_NAME = "email.aggregation.keys.failed";
+    public static final String AGGREGATION_KEYS_PENDING_GAUGE_NAME = "email.aggregation.keys.pending";
+    public static final String AGGREGATION_ROWS_SCANNED_COUNTER_NAME = "email.aggregation.rows.scanned";
+    public static final String AGGREGATION_RUN_TIMER_NAME = "email.aggregation.run.duration";
+    public static final String AGGREGATION_LAST_RUN_GAUGE_NAME = "email.aggregation.run.last.duration";
+    public static final String RENDERED_BYTES_SUMMARY_NAME = "email.rendered.bytes";
+    public static final String BOP_LATENCY_TIMER_NAME = "email.bop.latency";
+    static final String SUBSCRIPTION_TYPE_TAG = "subscription_type";
+
     @Inject
     Vertx vertx;
 
+    @Inject
+    MeterRegistry registry;
+
     @Inject
     WebhookTypeProcessor webhookSender;
 
@@ -71,6 +105,21 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
     @Inject
     BaseTransformer baseTransformer;
 
+    @Inject
+    IncrementalEmailAggregator incrementalEmailAggregator;
+
+    @Inject
+    EmailAggregationBuffer emailAggregationBuffer;
+
+    @Inject
+    EmailAggregationDeduplicator emailAggregationDeduplicator;
+
+    @Inject
+    EmailPayloadAggregatorFactory aggregatorFactory;
+
+    @Inject
+    NotificationResources notificationResources;
+
     @ConfigProperty(name = "processor.email.bop_url")
     String bopUrl;
 
@@ -86,6 +135,64 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
     @ConfigProperty(name = "processor.email.no_reply")
     String noReplyAddress;
 
+    // Number of aggregation keys (account, bundle, application) processed at the same time by the scheduled jobs
+    @ConfigProperty(name = "email.subscription.daily.concurrency", defaultValue = "4")
+    int dailyConcurrency;
+
+    // Once this delay is elapsed, the daily job stops processing new keys and the remaining ones are left to the next run
+    @ConfigProperty(name = "email.subscription.daily.deadline", defaultValue = "PT3H")
+    Duration dailyDeadline;
+
+    // The aggregation keys of each window are split into shards which are shared by the replicas running the daily job
+    @ConfigProperty(name = "email.subscription.daily.shards", defaultValue = "16")
+    int dailyShards;
+
+    // A shard owned by a replica which stopped renewing its lease for this long is taken over by the other replicas
+    @ConfigProperty(name = "email.subscription.daily.shard_lease", defaultValue = "PT5M")
+    Duration dailyShardLease;
+
+    // The aggregations of a key are aggregated in chunks of this size, several chunks at a time, then merged
+    @ConfigProperty(name = "email.aggregation.chunk_size", defaultValue = "5000")
+    int aggregationChunkSize;
+
+    @ConfigProperty(name = "email.aggregation.chunk_parallelism", defaultValue = "2")
+    int aggregationChunkParallelism;
+
+    private String shardOwner;
+
+    private final AtomicInteger pendingAggregationKeys = new AtomicInteger();
+    private Counter processedAggregationKeys;
+    private Counter skippedAggregationKeys;
+    private Counter failedAggregationKeys;
+    private Counter scannedAggregationRows;
+    private final Map<EmailSubscriptionType, Timer> aggregationRunTimers = new EnumMap<>(EmailSubscriptionType.class);
+    private final Map<EmailSubscriptionType, AtomicLong> lastAggregationRunSeconds = new EnumMap<>(EmailSubscriptionType.class);
+    private final Map<EmailSubscriptionType, DistributionSummary> renderedBytes = new EnumMap<>(EmailSubscriptionType.class);
+    private final Map<EmailSubscriptionType, Timer> bopLatencies = new EnumMap<>(EmailSubscriptionType.class);
+
+    @PostConstruct
+    void init() {
+        processedAggregationKeys = registry.counter(AGGREGATION_KEYS_PROCESSED_COUNTER_NAME);
+        skippedAggregationKeys = registry.counter(AGGREGATION_KEYS_SKIPPED_COUNTER_NAME);
+        failedAggregationKeys = registry.counter(AGGREGATION_KEYS_FAILED_COUNTER_NAME);
+        registry.gauge(AGGREGATION_KEYS_PENDING_GAUGE_NAME, pendingAggregationKeys);
+        scannedAggregationRows = registry.counter(AGGREGATION_ROWS_SCANNED_COUNTER_NAME);
+        for (EmailSubscriptionType type : EmailSubscriptionType.values()) {
+            Tags tags = Tags.of(SUBSCRIPTION_TYPE_TAG, type.name());
+            aggregationRunTimers.put(type, registry.timer(AGGREGATION_RUN_TIMER_NAME, tags));
+            lastAggregationRunSeconds.put(type, registry.gauge(AGGREGATION_LAST_RUN_GAUGE_NAME, tags, new AtomicLong()));
+            renderedBytes.put(type, DistributionSummary.builder(RENDERED_BYTES_SUMMARY_NAME)
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(registry));
+            bopLatencies.put(type, Timer.builder(BOP_LATENCY_TIMER_NAME)
+                    .tags(tags)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(registry));
+        }
+        shardOwner = System.getenv().getOrDefault("HOSTNAME", "unknown") + "-" + UUID.randomUUID();
+    }
+
     protected HttpRequest<Buffer> buildBOPHttpRequest() {
         WebClientOptions options = new WebClientOptions()
                 .setTrustAll(true)
@@ -107,6 +214,30 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
         return email;
     }
 
+    private static class AggregationWindow {
+
+        final LocalDateTime startTime;
+        final LocalDateTime endTime;
+        final EmailSubscriptionType subscriptionType;
+        final boolean delete;
+        final Instant deadline;
+        final List<Tuple2<NotificationHistory, EmailAggregationKey>> result = new ArrayList<>();
+        int shards;
+        List<EmailAggregationKey> aggregationKeys;
+
+        AggregationWindow(LocalDateTime startTime, LocalDateTime endTime, EmailSubscriptionType subscriptionType, boolean delete, Instant deadline) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.subscriptionType = subscriptionType;
+            this.delete = delete;
+            this.deadline = deadline;
+        }
+
+        boolean isDeadlineReached() {
+            return deadline != null && Instant.now().isAfter(deadline);
+        }
+    }
+
     static class Emails {
         @JsonProperty("emails")
         private Set<Email> emails;
@@ -140,10 +271,33 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
 
             return baseTransformer.transform(item.getAction())
                     .onItem().transform(transformedAction -> {
-                        aggregation.setPayload(transformedAction);
+                        // Only the fields needed by the aggregator of the application are stored
+                        AbstractEmailPayloadAggregator aggregator = aggregatorFactory.by(
+                                new EmailAggregationKey(aggregation.getAccountId(), aggregation.getBundleName(), aggregation.getApplicationName())
+                        );
+                        aggregation.setPayload(aggregator == null ? transformedAction : aggregator.projectPayload(transformedAction));
                         return aggregation;
                     })
-                    .onItem().transformToUni(emailAggregation -> this.emailAggregationResources.addEmailAggregation(emailAggregation))
+                    .onItem().transformToUni(emailAggregation -> {
+                        if (emailAggregationDeduplicator.isDuplicate(emailAggregation)) {
+                            // The same payload was already stored, it would not change the aggregated email
+                            return Uni.createFrom().item(Boolean.TRUE);
+                        }
+                        // The incremental aggregator keeps the payload until it is merged, the buffer records it once inserted
+                        if (incrementalEmailAggregator.accumulate(emailAggregation)) {
+                            emailAggregationDeduplicator.markStored(emailAggregation);
+                            return Uni.createFrom().item(Boolean.TRUE);
+                        }
+                        if (emailAggregationBuffer.offer(emailAggregation)) {
+                            return Uni.createFrom().item(Boolean.TRUE);
+                        }
+                        return this.emailAggregationResources.addEmailAggregation(emailAggregation)
+                                .onItem().invoke(stored -> {
+                                    if (stored) {
+                                        emailAggregationDeduplicator.markStored(emailAggregation);
+                                    }
+                                });
+                    })
                     .onItem().transformToUni(aBoolean -> sendEmail(item, EmailSubscriptionType.INSTANT));
         }
 
@@ -225,6 +379,7 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
                         String body = data.getItem3();
                         email.setSubject(title);
                         email.setBody(body);
+                        renderedBytes.get(emailSubscriptionType).record(body.getBytes(StandardCharsets.UTF_8).length);
 
                         return email;
                     }
@@ -245,7 +400,8 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
 
                     // TODO If the call fails - we should probably rollback Kafka topic (if BOP is down for example)
                     //      also add metrics for these failures
-                    return webhookSender.doHttpRequest(item, bopRequest, payload);
+                    return webhookSender.doHttpRequest(item, bopRequest, payload)
+                            .onItem().invoke(history -> bopLatencies.get(emailSubscriptionType).record(history.getInvocationTime(), TimeUnit.MILLISECONDS));
                 });
     }
 
@@ -253,11 +409,15 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
     private Multi<Tuple2<NotificationHistory, EmailAggregationKey>> processAggregateEmailsByAggregationKey(EmailAggregationKey aggregationKey, LocalDateTime startTime, LocalDateTime endTime, EmailSubscriptionType emailSubscriptionType, boolean delete) {
         return subscriptionResources.getEmailSubscribersCount(aggregationKey.getAccountId(), aggregationKey.getBundle(), aggregationKey.getApplication(), emailSubscriptionType)
                 .onItem().transformToMulti(subscriberCount -> {
-                    AbstractEmailPayloadAggregator aggregator = EmailPayloadAggregatorFactory.by(aggregationKey);
+                    AbstractEmailPayloadAggregator aggregator = aggregatorFactory.by(aggregationKey);
 
                     if (subscriberCount > 0 && aggregator != null) {
-                        return emailAggregationResources.getEmailAggregation(aggregationKey, startTime, endTime)
-                                .collect().in(() -> aggregator, AbstractEmailPayloadAggregator::aggregate).toMulti();
+                        // The summaries written by the incremental mode are merged first, then the raw aggregations.
+                        return emailAggregationResources.getEmailAggregationSummaries(aggregationKey, startTime, endTime)
+                                .collect().in(() -> aggregator, (agg, summary) -> agg.mergeState(summary.getState()))
+                                .onItem().transformToUni(agg -> aggregateInChunks(aggregationKey, emailAggregationResources.getEmailAggregation(aggregationKey, startTime, endTime))
+                                        .collect().in(() -> agg, AbstractEmailPayloadAggregator::merge)
+                                ).toMulti();
                     }
 
                     if (delete) {
@@ -294,7 +454,28 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
                     // We don't have any endpoint (yet) as this aggregates multiple endpoints
                     Notification item = new Notification(action, null);
 
-                    return sendEmail(item, emailSubscriptionType).onItem().transformToMulti(notificationHistory -> Multi.createFrom().item(Tuple2.of(notificationHistory, aggregationKey)));
+                    scannedAggregationRows.increment(aggregator.getProcessedAggregations());
+
+                    return sendEmail(item, emailSubscriptionType)
+                            .onItem().ifNotNull().transformToUni(notificationHistory -> {
+                                Map<String, Object> details = new HashMap<>();
+                                if (notificationHistory.getDetails() != null) {
+                                    details.putAll(notificationHistory.getDetails());
+                                }
+                                details.put("subscription_type", emailSubscriptionType.name());
+                                details.put("bundle", bundle);
+                                details.put("application", application);
+                                details.put("start_time", startTime.toString());
+                                details.put("end_time", endTime.toString());
+                                details.put("aggregations", aggregator.getProcessedAggregations());
+                                notificationHistory.setDetails(details);
+                                return notificationResources.createAggregatedNotificationHistory(notificationHistory)
+                                        .onFailure().recoverWithItem(failure -> {
+                                            log.log(Level.WARNING, "Aggregated email history could not be saved", failure);
+                                            return notificationHistory;
+                                        });
+                            })
+                            .onItem().transformToMulti(notificationHistory -> Multi.createFrom().item(Tuple2.of(notificationHistory, aggregationKey)));
                 }).concatenate()
                 .onItem().transformToMulti(result -> {
                     if (delete) {
@@ -305,41 +486,199 @@ public class EmailSubscriptionTypeProcessor implements EndpointTypeProcessor {
 
                     return Multi.createFrom().item(result);
                 }).concatenate();
-                // Todo: If we want to save the NotificationHistory, this could be a good place to do so. We would probably require a special EndpointType
-                // .onItem().invoke(result -> { })
+    }
+
+    /*
+     * Each chunk of aggregations is aggregated by its own aggregator on a worker thread. The chunk aggregators are merged
+     * as they complete, so the hosts listed by the context may come in a different order than the aggregations but the
+     * counts are the same as with a sequential aggregation.
+     */
+    private Multi<AbstractEmailPayloadAggregator> aggregateInChunks(EmailAggregationKey aggregationKey, Multi<EmailAggregation> aggregations) {
+        return aggregations
+                .group().intoLists().of(aggregationChunkSize)
+                .onItem().transformToUni(chunk -> Uni.createFrom().item(() -> {
+                    AbstractEmailPayloadAggregator chunkAggregator = aggregatorFactory.by(aggregationKey);
+                    chunk.forEach(chunkAggregator::aggregate);
+                    return chunkAggregator;
+                }).runSubscriptionOn(Infrastructure.getDefaultWorkerPool()))
+                .merge(aggregationChunkParallelism);
     }
 
     public Uni<List<Tuple2<NotificationHistory, EmailAggregationKey>>> processAggregateEmails(Instant scheduledFireTime, EmailSubscriptionType emailSubscriptionType, boolean delete) {
+        return processAggregateEmails(scheduledFireTime, emailSubscriptionType, delete, null);
+    }
+
+    /*
+     * Aggregates the emails of the window ending at the scheduled fire time, after resuming the previous windows that
+     * were not completed. Once the deadline (if any) is reached, no new aggregation key is processed and the window
+     * is left uncompleted. The keys which were already processed have had their aggregations purged, so the next run
+     * will only handle the remaining ones.
+     */
+    public Uni<List<Tuple2<NotificationHistory, EmailAggregationKey>>> processAggregateEmails(Instant scheduledFireTime, EmailSubscriptionType emailSubscriptionType, boolean delete, Instant deadline) {
         Instant yesterdayScheduledFireTime = scheduledFireTime.minus(emailSubscriptionType.getDuration());
 
         LocalDateTime endTime = LocalDateTime.ofInstant(scheduledFireTime, UTC);
         LocalDateTime startTime = LocalDateTime.ofInstant(yesterdayScheduledFireTime, UTC);
+
+        return emailAggregationResources.getUnfinishedRuns(emailSubscriptionType, endTime)
+                .onItem().transformToMulti(Multi.createFrom()::iterable)
+                .onItem().invoke(run -> log.info(String.format("Resuming %s email aggregation for period (%s, %s)", emailSubscriptionType, run.getStartTime(), run.getEndTime())))
+                .onItem().transformToUniAndConcatenate(run -> processAggregateEmails(run.getStartTime(), run.getEndTime(), emailSubscriptionType, delete, deadline))
+                .collect().in(ArrayList<Tuple2<NotificationHistory, EmailAggregationKey>>::new, List::addAll)
+                .onItem().transformToUni(resumed -> processAggregateEmails(startTime, endTime, emailSubscriptionType, delete, deadline)
+                        .onItem().transform(result -> {
+                            resumed.addAll(result);
+                            return resumed;
+                        })
+                );
+    }
+
+    private Uni<List<Tuple2<NotificationHistory, EmailAggregationKey>>> processAggregateEmails(LocalDateTime startTime, LocalDateTime endTime, EmailSubscriptionType emailSubscriptionType, boolean delete, Instant deadline) {
         final LocalDateTime aggregateStarted = LocalDateTime.now();
+        final AggregationWindow window = new AggregationWindow(startTime, endTime, emailSubscriptionType, delete, deadline);
 
         log.info(String.format("Running %s email aggregation for period (%s, %s)", emailSubscriptionType.toString(), startTime.toString(), endTime.toString()));
 
-        return emailAggregationResources.getApplicationsWithPendingAggregation(startTime, endTime)
-                .onItem().transformToMulti(aggregationKey -> processAggregateEmailsByAggregationKey(aggregationKey, startTime, endTime, emailSubscriptionType, delete))
-                .concatenate().collect().asList()
-                .onItem().invoke(result -> {
+        return emailAggregationResources.startRun(emailSubscriptionType, startTime, endTime, dailyShards)
+                .onItem().invoke(shards -> window.shards = shards)
+                .chain(() -> emailAggregationResources.getApplicationsWithPendingAggregation(startTime, endTime).collect().asList())
+                .onItem().invoke(aggregationKeys -> window.aggregationKeys = aggregationKeys)
+                .chain(() -> processNextShard(window))
+                .chain(() -> emailAggregationResources.completeRun(emailSubscriptionType, startTime, endTime))
+                .onItem().transform(completed -> {
                     final LocalDateTime aggregateFinished = LocalDateTime.now();
+                    Duration runDuration = Duration.between(aggregateStarted, aggregateFinished);
+                    aggregationRunTimers.get(emailSubscriptionType).record(runDuration);
+                    lastAggregationRunSeconds.get(emailSubscriptionType).set(runDuration.getSeconds());
                     log.info(
                             String.format(
-                                    "Finished running %s email aggregation for period (%s, %s) after %d seconds. %d (accountIds, applications) pairs were processed",
+                                    "Finished running %s email aggregation for period (%s, %s) after %d seconds. %d (accountIds, applications) pairs were processed by %s",
                                     emailSubscriptionType.toString(),
                                     startTime.toString(),
                                     endTime.toString(),
                                     ChronoUnit.SECONDS.between(aggregateStarted, aggregateFinished),
-                                    result.size()
+                                    window.result.size(),
+                                    shardOwner
                             )
                     );
+                    return window.result;
+                });
+    }
+
+    /*
+     * Processes the shards of the window one at a time until they are all completed or the deadline is reached. When
+     * the remaining shards are owned by other replicas, this replica keeps polling them so that it can take them over
+     * if their owner dies (and stops renewing its lease).
+     */
+    private Uni<Void> processNextShard(AggregationWindow window) {
+        if (window.isDeadlineReached()) {
+            log.warning(String.format("The %s email aggregation deadline was reached for period (%s, %s), the remaining shards will be processed during the next run",
+                    window.subscriptionType.toString(), window.startTime.toString(), window.endTime.toString()));
+            return Uni.createFrom().voidItem();
+        }
+        return emailAggregationResources.claimShard(window.subscriptionType, window.startTime, window.endTime, shardOwner, dailyShardLease)
+                .chain(shard -> {
+                    if (shard != null) {
+                        return processShard(window, shard)
+                                .chain(() -> processNextShard(window));
+                    }
+                    return emailAggregationResources.countUncompletedShards(window.subscriptionType, window.startTime, window.endTime)
+                            .chain(uncompleted -> {
+                                if (uncompleted == 0) {
+                                    return Uni.createFrom().voidItem();
+                                }
+                                return Uni.createFrom().voidItem()
+                                        .onItem().delayIt().by(dailyShardLease.dividedBy(5))
+                                        .chain(() -> processNextShard(window));
+                            });
                 });
     }
 
-    @Scheduled(identity = "dailyEmailProcessor", cron = "{email.subscription.daily.cron}")
+    private Uni<Void> processShard(AggregationWindow window, int shard) {
+        final List<EmailAggregationKey> aggregationKeys = window.aggregationKeys.stream()
+                .filter(aggregationKey -> getShard(aggregationKey, window.shards) == shard)
+                .collect(Collectors.toList());
+        final AtomicInteger skipped = new AtomicInteger();
+        final AtomicBoolean leaseLost = new AtomicBoolean();
+
+        pendingAggregationKeys.addAndGet(aggregationKeys.size());
+
+        // The lease is renewed while the shard is processed, the other replicas would take the shard over otherwise
+        Cancellable heartbeat = Multi.createFrom().ticks().every(dailyShardLease.dividedBy(3))
+                .onItem().transformToUniAndConcatenate(tick -> emailAggregationResources.renewShardLease(window.subscriptionType, window.startTime, window.endTime, shard, shardOwner, dailyShardLease))
+                .subscribe().with(renewed -> {
+                    if (!renewed) {
+                        leaseLost.set(true);
+                    }
+                }, failure -> {
+                    log.log(Level.WARNING, "Email aggregation shard lease renewal failed", failure);
+                    leaseLost.set(true);
+                });
+
+        return Multi.createFrom().iterable(aggregationKeys)
+                .select().where(aggregationKey -> {
+                    /*
+                     * The keys are requested from the upstream as the concurrent slots become available, so this
+                     * check happens right before each key is processed. A shard which is no longer owned by this
+                     * replica is left to its new owner.
+                     */
+                    if (window.isDeadlineReached() || leaseLost.get()) {
+                        skipped.incrementAndGet();
+                        skippedAggregationKeys.increment();
+                        pendingAggregationKeys.decrementAndGet();
+                        return false;
+                    }
+                    return true;
+                })
+                .onItem().transformToMulti(aggregationKey -> processAggregateEmailsByAggregationKey(aggregationKey, window.startTime, window.endTime, window.subscriptionType, window.delete)
+                        .onItem().invoke(() -> processedAggregationKeys.increment())
+                        // A failed key must not interrupt the other keys of the shard, which are merged in the same stream.
+                        .onFailure().invoke(failure -> {
+                            log.log(Level.WARNING, String.format("The %s email aggregation failed for account %s and application %s/%s",
+                                    window.subscriptionType.toString(), aggregationKey.getAccountId(), aggregationKey.getBundle(), aggregationKey.getApplication()), failure);
+                            failedAggregationKeys.increment();
+                        })
+                        .onFailure().recoverWithCompletion()
+                        .onTermination().invoke(() -> pendingAggregationKeys.decrementAndGet())
+                ).merge(dailyConcurrency)
+                .collect().asList()
+                .eventually(heartbeat::cancel)
+                .chain(result -> {
+                    window.result.addAll(result);
+                    if (skipped.get() > 0) {
+                        log.warning(String.format("The %s email aggregation of shard %d was interrupted for period (%s, %s), %d (accountIds, applications) pairs were skipped",
+                                window.subscriptionType.toString(), shard, window.startTime.toString(), window.endTime.toString(), skipped.get()));
+                        return emailAggregationResources.releaseShard(window.subscriptionType, window.startTime, window.endTime, shard, shardOwner);
+                    }
+                    return emailAggregationResources.completeShard(window.subscriptionType, window.startTime, window.endTime, shard, shardOwner);
+                })
+                // The shard is released so that it can be claimed again right away instead of after the lease expiry.
+                .onFailure().call(failure -> {
+                    log.log(Level.WARNING, String.format("The %s email aggregation of shard %d failed for period (%s, %s), the shard is released",
+                            window.subscriptionType.toString(), shard, window.startTime.toString(), window.endTime.toString()), failure);
+                    return emailAggregationResources.releaseShard(window.subscriptionType, window.startTime, window.endTime, shard, shardOwner);
+                })
+                .replaceWith(Uni.createFrom().voidItem());
+    }
+
+    /*
+     * The keys are sharded by account. String#hashCode is specified by the JLS so all the replicas agree on the shards.
+     */
+    static int getShard(EmailAggregationKey aggregationKey, int shards) {
+        return Math.floorMod(aggregationKey.getAccountId().hashCode(), shards);
+    }
+
+    @Scheduled(identity = "dailyEmailProcessor", cron = "{email.subscription.daily.cron}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
     public void processDailyEmail(ScheduledExecution se) {
-        // Only delete on the largest aggregate time frame. Currently daily.
-        processAggregateEmails(se.getScheduledFireTime(), EmailSubscriptionType.DAILY, true).await().indefinitely();
+        Instant deadline = Instant.now().plus(dailyDeadline);
+        /*
+         * The buffered aggregations and the micro-batches of the incremental mode are not flushed first: the other
+         * replicas would not flush theirs. They are stamped when they are written to the database, after the end of
+         * this window, so they are included in the next one.
+         * Only delete on the largest aggregate time frame. Currently daily.
+         */
+        processAggregateEmails(se.getScheduledFireTime(), EmailSubscriptionType.DAILY, true, deadline)
+                .await().indefinitely();
     }
 
 }
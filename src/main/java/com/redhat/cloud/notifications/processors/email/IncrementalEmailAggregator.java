@@ -0,0 +1,148 @@
+package com.redhat.cloud.notifications.processors.email;
+
+import com.redhat.cloud.notifications.db.EmailAggregationResources;
+import com.redhat.cloud.notifications.models.EmailAggregation;
+import com.redhat.cloud.notifications.models.EmailAggregationKey;
+import com.redhat.cloud.notifications.models.EmailAggregationSummaryId;
+import com.redhat.cloud.notifications.processors.email.aggregators.AbstractEmailPayloadAggregator;
+import com.redhat.cloud.notifications.processors.email.aggregators.EmailPayloadAggregatorFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonObject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * When the incremental mode is enabled, the email aggregations are not stored as raw rows anymore. They are aggregated
+ * in memory into micro-batches which are periodically merged into the hourly summaries of the email_aggregation_summary
+ * table. The daily job then reads a few summaries per key instead of all the raw rows. The bucket of a micro-batch is
+ * chosen when it is merged, never before the start of the current daily window: the daily job does not wait for the
+ * micro-batches held in memory by the replicas, so a micro-batch merged after the end of a window belongs to the next one.
+ */
+@ApplicationScoped
+public class IncrementalEmailAggregator {
+
+    public static final String FLUSHED_SUMMARIES_COUNTER_NAME = "email.aggregation.incremental.flushed";
+    public static final String FLUSH_ERROR_COUNTER_NAME = "email.aggregation.incremental.flush.error";
+
+    private static final Logger log = Logger.getLogger(IncrementalEmailAggregator.class.getName());
+
+    @Inject
+    EmailAggregationResources emailAggregationResources;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    EmailPayloadAggregatorFactory aggregatorFactory;
+
+    @ConfigProperty(name = "email.aggregation.incremental.enabled", defaultValue = "false")
+    boolean enabled;
+
+    // Replaced by the tests which need to control the time of the merges
+    Clock clock = Clock.systemUTC();
+
+    private final ConcurrentMap<EmailAggregationKey, AbstractEmailPayloadAggregator> pendingSummaries = new ConcurrentHashMap<>();
+    private Counter flushedSummaries;
+    private Counter flushErrors;
+
+    @PostConstruct
+    void init() {
+        flushedSummaries = registry.counter(FLUSHED_SUMMARIES_COUNTER_NAME);
+        flushErrors = registry.counter(FLUSH_ERROR_COUNTER_NAME);
+    }
+
+    /**
+     * Adds the given aggregation to the current micro-batch.
+     * @return {@code false} if the aggregation was not handled and has to be stored as a raw row
+     */
+    public boolean accumulate(EmailAggregation aggregation) {
+        if (!enabled) {
+            return false;
+        }
+
+        EmailAggregationKey key = new EmailAggregationKey(aggregation.getAccountId(), aggregation.getBundleName(), aggregation.getApplicationName());
+        if (aggregatorFactory.by(key) == null) {
+            return false;
+        }
+
+        // The aggregators are not thread-safe, compute() guarantees that only one thread at a time updates each of them.
+        pendingSummaries.compute(key, (ignored, aggregator) -> {
+            if (aggregator == null) {
+                aggregator = aggregatorFactory.by(key);
+            }
+            aggregator.aggregate(aggregation);
+            return aggregator;
+        });
+        return true;
+    }
+
+    @Scheduled(identity = "incrementalEmailAggregationFlush", every = "{email.aggregation.incremental.flush_interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void scheduledFlush() {
+        flush().await().indefinitely();
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        flush().await().atMost(Duration.ofSeconds(30L));
+    }
+
+    public Uni<Void> flush() {
+        return Multi.createFrom().iterable(new ArrayList<>(pendingSummaries.keySet()))
+                .onItem().transformToUniAndConcatenate(key -> {
+                    AbstractEmailPayloadAggregator aggregator = pendingSummaries.remove(key);
+                    if (aggregator == null) {
+                        return Uni.createFrom().voidItem();
+                    }
+
+                    /*
+                     * A flush of many keys can last long enough to cross the end of a daily window, so the bucket is
+                     * chosen when each micro-batch is merged rather than once for the whole flush.
+                     */
+                    LocalDateTime bucket = getCurrentBucket();
+                    JsonObject state = aggregator.exportState();
+                    return emailAggregationResources.mergeEmailAggregationSummary(new EmailAggregationSummaryId(key, bucket), state, storedState -> {
+                        AbstractEmailPayloadAggregator merged = aggregatorFactory.by(key);
+                        merged.mergeState(storedState);
+                        merged.mergeState(state);
+                        return merged.exportState();
+                    })
+                            .onItem().invoke(() -> flushedSummaries.increment())
+                            .onFailure().recoverWithItem(failure -> {
+                                log.log(Level.WARNING, "Email aggregation summary merge failed, it will be retried during the next flush", failure);
+                                flushErrors.increment();
+                                // The failed micro-batch is put back so that its aggregations are not lost.
+                                pendingSummaries.merge(key, aggregator, (current, failed) -> {
+                                    current.mergeState(failed.exportState());
+                                    return current;
+                                });
+                                return null;
+                            });
+                })
+                .collect().last()
+                .replaceWith(Uni.createFrom().voidItem());
+    }
+
+    private LocalDateTime getCurrentBucket() {
+        LocalDateTime now = LocalDateTime.now(clock);
+        LocalDateTime hour = now.truncatedTo(ChronoUnit.HOURS);
+        LocalDateTime windowStart = emailAggregationResources.getDailyWindowStart(now);
+        return hour.isBefore(windowStart) ? windowStart : hour;
+    }
+}
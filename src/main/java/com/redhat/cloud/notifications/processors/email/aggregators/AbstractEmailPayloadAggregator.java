@@ -10,6 +10,9 @@ public abstract class AbstractEmailPayloadAggregator {
 
     private static final String START_TIME_KEY = "start_time";
     private static final String END_TIME_KEY = "end_time";
+    private static final String STATE_ACCOUNT_ID_KEY = "account_id";
+    private static final String STATE_PROCESSED_AGGREGATIONS_KEY = "processed_aggregations";
+    private static final String STATE_CONTEXT_KEY = "context";
 
     private LocalDateTime startTime;
     private LocalDateTime endTime;
@@ -44,6 +47,40 @@ public abstract class AbstractEmailPayloadAggregator {
         ++processedAggregations;
     }
 
+    /**
+     * Exports the internal state of this aggregator so that it can be stored and later merged into another aggregator
+     * with {@link #mergeState(JsonObject)}. Merging the states of several aggregators produces the same context as
+     * aggregating all of their email aggregations with a single aggregator.
+     */
+    public JsonObject exportState() {
+        JsonObject state = new JsonObject();
+        state.put(STATE_ACCOUNT_ID_KEY, accountId);
+        state.put(STATE_PROCESSED_AGGREGATIONS_KEY, processedAggregations);
+        state.put(STATE_CONTEXT_KEY, context.copy());
+        exportAggregatorState(state);
+        return state;
+    }
+
+    public void mergeState(JsonObject state) {
+        String stateAccountId = state.getString(STATE_ACCOUNT_ID_KEY);
+        if (accountId == null) {
+            accountId = stateAccountId;
+        } else if (stateAccountId != null && !accountId.equals(stateAccountId)) {
+            throw new RuntimeException("Invalid aggregation using different accountIds");
+        }
+
+        mergeAggregatorState(state.getJsonObject(STATE_CONTEXT_KEY), state);
+        processedAggregations += state.getInteger(STATE_PROCESSED_AGGREGATIONS_KEY, 0);
+    }
+
+    /**
+     * Merges another aggregator of the same key into this one. This is how the aggregators of the chunks of a large
+     * input are combined.
+     */
+    public void merge(AbstractEmailPayloadAggregator other) {
+        mergeState(other.exportState());
+    }
+
     public Map<String, Object> getContext() {
         Map<String, Object> payload = this.context.mapTo(Map.class);
         payload.put(START_TIME_KEY, this.startTime);
@@ -51,10 +88,27 @@ public abstract class AbstractEmailPayloadAggregator {
         return payload;
     }
 
+    /**
+     * Returns a copy of the given payload restricted to the fields read by
+     * {@link #processEmailAggregation(EmailAggregation)}. The email aggregations are stored with that projection, which
+     * shrinks the stored rows and the parsing cost of the scheduled aggregation. Aggregators which do not override
+     * this method keep the full payload.
+     */
+    public JsonObject projectPayload(JsonObject payload) {
+        return payload;
+    }
+
     void copyStringField(JsonObject to, JsonObject from, final String field) {
         to.put(field, from.getString(field));
     }
 
     public abstract void processEmailAggregation(EmailAggregation aggregation);
 
+    /**
+     * Adds to the exported state whatever is not already part of the context but is needed to merge the state later.
+     */
+    protected abstract void exportAggregatorState(JsonObject state);
+
+    protected abstract void mergeAggregatorState(JsonObject otherContext, JsonObject state);
+
 }
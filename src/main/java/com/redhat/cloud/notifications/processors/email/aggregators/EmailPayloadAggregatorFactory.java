@@ -2,17 +2,42 @@ package com.redhat.cloud.notifications.processors.email.aggregators;
 
 import com.redhat.cloud.notifications.models.EmailAggregationKey;
 
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Map;
+
+@ApplicationScoped
 public class EmailPayloadAggregatorFactory {
 
-    private EmailPayloadAggregatorFactory() {
+    @Inject
+    Instance<EmailPayloadAggregatorProvider> providers;
+
+    private final Map<String, EmailPayloadAggregatorProvider> providersByApplication = new HashMap<>();
 
+    @PostConstruct
+    void init() {
+        for (EmailPayloadAggregatorProvider provider : providers) {
+            String key = getKey(provider.getBundle(), provider.getApplication());
+            EmailPayloadAggregatorProvider previous = providersByApplication.put(key, provider);
+            if (previous != null) {
+                throw new IllegalStateException("Several email payload aggregators are registered for " + key);
+            }
+        }
     }
 
-    public static AbstractEmailPayloadAggregator by(EmailAggregationKey aggregationKey) {
-        if (aggregationKey.getBundle().equals("rhel") && aggregationKey.getApplication().equals("policies")) {
-            return new PoliciesEmailPayloadAggregator();
+    public AbstractEmailPayloadAggregator by(EmailAggregationKey aggregationKey) {
+        EmailPayloadAggregatorProvider provider = providersByApplication.get(getKey(aggregationKey.getBundle(), aggregationKey.getApplication()));
+        if (provider == null) {
+            return null;
         }
 
-        return null;
+        return provider.create();
+    }
+
+    private static String getKey(String bundle, String application) {
+        return bundle + "/" + application;
     }
 }
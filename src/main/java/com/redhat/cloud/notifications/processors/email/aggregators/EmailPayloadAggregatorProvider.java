@@ -0,0 +1,17 @@
+package com.redhat.cloud.notifications.processors.email.aggregators;
+
+/**
+ * Registers the email payload aggregator of an application. The implementations are CDI beans discovered by
+ * {@link EmailPayloadAggregatorFactory}, adding the digest of a new application only requires a new provider bean.
+ * The aggregators must support {@link AbstractEmailPayloadAggregator#exportState()} and
+ * {@link AbstractEmailPayloadAggregator#mergeState(io.vertx.core.json.JsonObject)} since large inputs are aggregated
+ * in parallel chunks which are merged afterwards.
+ */
+public interface EmailPayloadAggregatorProvider {
+
+    String getBundle();
+
+    String getApplication();
+
+    AbstractEmailPayloadAggregator create();
+}
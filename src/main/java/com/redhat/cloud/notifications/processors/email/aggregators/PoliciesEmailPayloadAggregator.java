@@ -4,8 +4,12 @@ import com.redhat.cloud.notifications.models.EmailAggregation;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public class PoliciesEmailPayloadAggregator extends AbstractEmailPayloadAggregator {
 
@@ -27,9 +31,24 @@ public class PoliciesEmailPayloadAggregator extends AbstractEmailPayloadAggregat
     private static final String INSIGHTS_ID = "insights_id";
     private static final String TAGS = "tags";
 
-    private HashSet<String> uniqueHosts = new HashSet<>();
-    private HashMap<String, HashSet<String>> uniqueHostPerPolicy = new HashMap<>();
-
+    // Exported state
+    private static final String STATE_UNIQUE_HOSTS = "unique_hosts";
+    private static final String STATE_UNIQUE_HOSTS_PER_POLICY = "unique_hosts_per_policy";
+
+    /*
+     * Only the first hosts of each policy are listed in the context, the total is available with UNIQUE_SYSTEM_COUNT.
+     * This keeps the context of the accounts with thousands of systems small.
+     */
+    static final int MAX_HOSTS_PER_POLICY = 50;
+
+    /*
+     * Each unique host gets an index and the hosts of a policy are stored as a set of these indexes. The host entries
+     * are shared between the policies instead of being copied for each of them.
+     */
+    private final Map<String, Integer> hostIndexes = new HashMap<>();
+    private final List<String> hostIds = new ArrayList<>();
+    private final Map<String, JsonObject> hosts = new HashMap<>();
+    private final Map<String, BitSet> hostsPerPolicy = new HashMap<>();
 
     public PoliciesEmailPayloadAggregator() {
         context.put(POLICIES_KEY, new JsonObject());
@@ -38,45 +57,139 @@ public class PoliciesEmailPayloadAggregator extends AbstractEmailPayloadAggregat
     public void processEmailAggregation(EmailAggregation notification) {
         JsonObject notificationJson = notification.getPayload();
 
-        JsonObject policies = context.getJsonObject(POLICIES_KEY);
         JsonObject context = notificationJson.getJsonObject(CONTEXT_KEY);
+        String insightsId = context.getString(INSIGHTS_ID);
+        int hostIndex = getHostIndex(insightsId);
+        JsonObject host = hosts.computeIfAbsent(insightsId, id -> {
+            JsonObject newHost = new JsonObject();
+            this.copyStringField(newHost, context, DISPLAY_NAME);
+            this.copyStringField(newHost, context, INSIGHTS_ID);
+            newHost.put(TAGS, context.getJsonArray(TAGS));
+            return newHost;
+        });
 
-        JsonObject host = new JsonObject();
-        this.copyStringField(host, context, DISPLAY_NAME);
-        this.copyStringField(host, context, INSIGHTS_ID);
-        host.put(TAGS, context.getJsonArray(TAGS));
-
-        notificationJson.getJsonArray(EVENTS_KEY).stream().forEach(eventObject -> {
+        notificationJson.getJsonArray(EVENTS_KEY).forEach(eventObject -> {
             JsonObject event = (JsonObject) eventObject;
             JsonObject payload = event.getJsonObject(PAYLOAD_KEY);
             String policyId = payload.getString(POLICY_ID);
 
-            if (!policies.containsKey(policyId)) {
-                JsonObject newPolicy = new JsonObject();
+            JsonObject policy = getOrCreatePolicy(policyId, newPolicy -> {
                 this.copyStringField(newPolicy, payload, POLICY_NAME);
                 this.copyStringField(newPolicy, payload, POLICY_ID);
                 this.copyStringField(newPolicy, payload, POLICY_DESCRIPTION);
                 this.copyStringField(newPolicy, payload, POLICY_CONDITION);
+            });
+            addHost(policyId, policy, hostIndex, host);
+        });
 
-                newPolicy.put(HOST_KEY, new JsonArray());
+        this.context.put(UNIQUE_SYSTEM_COUNT, hostIds.size());
+    }
 
-                policies.put(policyId, newPolicy);
-                uniqueHostPerPolicy.put(policyId, new HashSet<>());
-            }
+    @Override
+    public JsonObject projectPayload(JsonObject payload) {
+        JsonObject context = payload.getJsonObject(CONTEXT_KEY);
+        JsonObject projectedContext = new JsonObject();
+        this.copyStringField(projectedContext, context, DISPLAY_NAME);
+        this.copyStringField(projectedContext, context, INSIGHTS_ID);
+        projectedContext.put(TAGS, context.getJsonArray(TAGS));
+
+        JsonArray projectedEvents = new JsonArray();
+        payload.getJsonArray(EVENTS_KEY).forEach(eventObject -> {
+            JsonObject eventPayload = ((JsonObject) eventObject).getJsonObject(PAYLOAD_KEY);
+            JsonObject projectedEventPayload = new JsonObject();
+            this.copyStringField(projectedEventPayload, eventPayload, POLICY_ID);
+            this.copyStringField(projectedEventPayload, eventPayload, POLICY_NAME);
+            this.copyStringField(projectedEventPayload, eventPayload, POLICY_DESCRIPTION);
+            this.copyStringField(projectedEventPayload, eventPayload, POLICY_CONDITION);
+            projectedEvents.add(new JsonObject().put(PAYLOAD_KEY, projectedEventPayload));
+        });
+
+        return new JsonObject()
+                .put(CONTEXT_KEY, projectedContext)
+                .put(EVENTS_KEY, projectedEvents);
+    }
+
+    @Override
+    protected void exportAggregatorState(JsonObject state) {
+        state.put(STATE_UNIQUE_HOSTS, new JsonArray(new ArrayList<>(hostIds)));
+        JsonObject uniqueHostsPerPolicyState = new JsonObject();
+        hostsPerPolicy.forEach((policyId, policyHosts) -> {
+            JsonArray policyHostIds = new JsonArray();
+            policyHosts.stream().forEach(hostIndex -> policyHostIds.add(hostIds.get(hostIndex)));
+            uniqueHostsPerPolicyState.put(policyId, policyHostIds);
+        });
+        state.put(STATE_UNIQUE_HOSTS_PER_POLICY, uniqueHostsPerPolicyState);
+    }
 
-            JsonObject policy = policies.getJsonObject(policyId);
-            String insightsId = host.getString(INSIGHTS_ID);
-            policy.getJsonArray(HOST_KEY).add(host);
-            uniqueHostPerPolicy.get(policyId).add(insightsId);
-            policy.put(UNIQUE_SYSTEM_COUNT, this.uniqueHostPerPolicy.get(policyId).size());
+    @Override
+    protected void mergeAggregatorState(JsonObject otherContext, JsonObject state) {
+        JsonObject otherPolicies = otherContext.getJsonObject(POLICIES_KEY);
+        JsonObject otherUniqueHostsPerPolicy = state.getJsonObject(STATE_UNIQUE_HOSTS_PER_POLICY);
+
+        otherPolicies.forEach(entry -> {
+            String policyId = entry.getKey();
+            JsonObject otherPolicy = (JsonObject) entry.getValue();
+
+            JsonObject policy = getOrCreatePolicy(policyId, newPolicy -> otherPolicy.forEach(field -> {
+                if (!HOST_KEY.equals(field.getKey()) && !UNIQUE_SYSTEM_COUNT.equals(field.getKey())) {
+                    newPolicy.put(field.getKey(), field.getValue());
+                }
+            }));
+
+            // The listed hosts come first to preserve their order, then the hosts which were only counted
+            otherPolicy.getJsonArray(HOST_KEY).forEach(hostObject -> {
+                JsonObject otherHost = (JsonObject) hostObject;
+                String insightsId = otherHost.getString(INSIGHTS_ID);
+                JsonObject host = hosts.computeIfAbsent(insightsId, id -> otherHost.copy());
+                addHost(policyId, policy, getHostIndex(insightsId), host);
+            });
+            otherUniqueHostsPerPolicy.getJsonArray(policyId).forEach(insightsId -> {
+                JsonObject host = hosts.get(insightsId);
+                addHost(policyId, policy, getHostIndex((String) insightsId), host);
+            });
         });
 
-        String insightsId = host.getString(INSIGHTS_ID);
-        uniqueHosts.add(insightsId);
-        this.context.put(UNIQUE_SYSTEM_COUNT, this.uniqueHosts.size());
+        state.getJsonArray(STATE_UNIQUE_HOSTS).forEach(insightsId -> getHostIndex((String) insightsId));
+        this.context.put(UNIQUE_SYSTEM_COUNT, hostIds.size());
+    }
+
+    private int getHostIndex(String insightsId) {
+        return hostIndexes.computeIfAbsent(insightsId, id -> {
+            hostIds.add(id);
+            return hostIds.size() - 1;
+        });
+    }
+
+    private JsonObject getOrCreatePolicy(String policyId, Consumer<JsonObject> initializer) {
+        JsonObject policies = context.getJsonObject(POLICIES_KEY);
+        JsonObject policy = policies.getJsonObject(policyId);
+        if (policy == null) {
+            policy = new JsonObject();
+            initializer.accept(policy);
+            policy.put(HOST_KEY, new JsonArray());
+            policies.put(policyId, policy);
+            hostsPerPolicy.put(policyId, new BitSet());
+        }
+        return policy;
+    }
+
+    /*
+     * The host may be null when it is only known from the exported state of another aggregator. It is then counted
+     * but not listed.
+     */
+    private void addHost(String policyId, JsonObject policy, int hostIndex, JsonObject host) {
+        BitSet policyHosts = hostsPerPolicy.get(policyId);
+        if (!policyHosts.get(hostIndex)) {
+            policyHosts.set(hostIndex);
+            JsonArray policyHostList = policy.getJsonArray(HOST_KEY);
+            if (host != null && policyHostList.size() < MAX_HOSTS_PER_POLICY) {
+                policyHostList.add(host);
+            }
+            policy.put(UNIQUE_SYSTEM_COUNT, policyHosts.cardinality());
+        }
     }
 
     public Integer getUniqueHostCount() {
-        return this.uniqueHosts.size();
+        return hostIds.size();
     }
 }
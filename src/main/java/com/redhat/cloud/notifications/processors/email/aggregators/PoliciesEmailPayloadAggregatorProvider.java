@@ -0,0 +1,22 @@
+package com.redhat.cloud.notifications.processors.email.aggregators;
+
+import javax.enterprise.context.ApplicationScoped;
+
+@ApplicationScoped
+public class PoliciesEmailPayloadAggregatorProvider implements EmailPayloadAggregatorProvider {
+
+    @Override
+    public String getBundle() {
+        return "rhel";
+    }
+
+    @Override
+    public String getApplication() {
+        return "policies";
+    }
+
+    @Override
+    public AbstractEmailPayloadAggregator create() {
+        return new PoliciesEmailPayloadAggregator();
+    }
+}
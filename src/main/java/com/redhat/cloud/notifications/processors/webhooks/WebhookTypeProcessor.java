@@ -8,6 +8,7 @@ import com.redhat.cloud.notifications.processors.EndpointTypeProcessor;
 import com.redhat.cloud.notifications.transformers.BaseTransformer;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ConnectTimeoutException;
 import io.smallrye.mutiny.Uni;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.client.WebClientOptions;
@@ -19,8 +20,10 @@ import io.vertx.mutiny.ext.web.client.WebClient;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.net.ssl.SSLException;
 import java.net.ConnectException;
 import java.net.UnknownHostException;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
 
@@ -107,6 +110,8 @@ public class WebhookTypeProcessor implements EndpointTypeProcessor {
                                 // This isn't async body reading, lets hope vertx handles it async underneath before calling this apply method
                                 details.put("response_body", resp.bodyAsString());
                                 history.setDetails(details.getMap());
+                                // The history API filters on this value.
+                                history.setStatusCode(resp.statusCode());
                             }
 
                             return history;
@@ -125,21 +130,33 @@ public class WebhookTypeProcessor implements EndpointTypeProcessor {
                             details.put("url", reqImpl.uri());
                             details.put("method", reqImpl.method());
                             details.put("error_message", t.getMessage()); // TODO This message isn't always the most descriptive..
+                            String errorType = getErrorType(t);
+                            details.put("error_type", errorType);
                             history.setDetails(details.getMap());
+                            // The history API filters on this value.
+                            history.setErrorType(errorType);
 
-                            if (t instanceof ConnectException) {
-                                // Connection refused for example
-                                ConnectException ce = (ConnectException) t;
-                            } else if (t instanceof UnknownHostException) {
-                                UnknownHostException uhe = (UnknownHostException) t;
-                            }
-
-                            // io.netty.channel.ConnectTimeoutException: connection timed out: webhook.site/46.4.105.116:443
                             return history;
                         })
                 );
     }
 
+    static String getErrorType(Throwable t) {
+        // io.netty.channel.ConnectTimeoutException: connection timed out: webhook.site/46.4.105.116:443
+        if (t instanceof ConnectTimeoutException || t instanceof TimeoutException) {
+            return "timeout";
+        } else if (t instanceof ConnectException) {
+            // Connection refused for example
+            return "connection_refused";
+        } else if (t instanceof UnknownHostException) {
+            return "unknown_host";
+        } else if (t instanceof SSLException) {
+            return "ssl";
+        } else {
+            return "other";
+        }
+    }
+
     private String getCallUrl(HttpRequestImpl<Buffer> reqImpl) {
         String protocol;
         if (reqImpl.ssl()) {
@@ -1,21 +1,30 @@
 package com.redhat.cloud.notifications.routers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.redhat.cloud.notifications.Constants;
 import com.redhat.cloud.notifications.auth.rbac.RbacIdentityProvider;
 import com.redhat.cloud.notifications.auth.rhid.RhIdPrincipal;
 import com.redhat.cloud.notifications.db.ApplicationResources;
+import com.redhat.cloud.notifications.db.BehaviorGroupResources;
 import com.redhat.cloud.notifications.db.EndpointEmailSubscriptionResources;
 import com.redhat.cloud.notifications.db.EndpointResources;
+import com.redhat.cloud.notifications.db.HistoryCursor;
+import com.redhat.cloud.notifications.db.HistoryFilter;
 import com.redhat.cloud.notifications.db.NotificationResources;
 import com.redhat.cloud.notifications.db.Query;
+import com.redhat.cloud.notifications.models.BehaviorGroupExport;
+import com.redhat.cloud.notifications.models.EmailSubscriptionAttributes;
 import com.redhat.cloud.notifications.models.EmailSubscriptionType;
 import com.redhat.cloud.notifications.models.Endpoint;
 import com.redhat.cloud.notifications.models.EndpointType;
 import com.redhat.cloud.notifications.models.NotificationHistory;
+import com.redhat.cloud.notifications.models.WebhookAttributes;
 import com.redhat.cloud.notifications.routers.models.EndpointPage;
 import com.redhat.cloud.notifications.routers.models.Meta;
 import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.enums.ParameterIn;
 import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
@@ -28,6 +37,7 @@ import javax.annotation.security.RolesAllowed;
 import javax.inject.Inject;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.BeanParam;
 import javax.ws.rs.Consumes;
@@ -44,7 +54,13 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.net.URI;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 @Path(Constants.API_INTEGRATIONS_V_1_0 + "/endpoints")
@@ -54,6 +70,12 @@ import java.util.UUID;
 // TODO Needs documentation annotations
 public class EndpointService {
 
+    public static final int DEFAULT_HISTORY_LIMIT = 100;
+    public static final int MAX_HISTORY_LIMIT = 1000;
+    public static final int MAX_BULK_SIZE = 1000;
+    public static final int EXPORT_PAGE_SIZE = 500;
+    public static final String NDJSON = "application/x-ndjson";
+
     @Inject
     EndpointResources resources;
 
@@ -66,6 +88,12 @@ public class EndpointService {
     @Inject
     ApplicationResources applicationResources;
 
+    @Inject
+    BehaviorGroupResources behaviorGroupResources;
+
+    @Inject
+    ObjectMapper objectMapper;
+
     @GET
     @RolesAllowed(RbacIdentityProvider.RBAC_READ_INTEGRATIONS_ENDPOINTS)
     @Parameters({
@@ -84,23 +112,9 @@ public class EndpointService {
     })
     public Uni<EndpointPage> getEndpoints(@Context SecurityContext sec, @BeanParam Query query, @QueryParam("type") String targetType, @QueryParam("active") Boolean activeOnly) {
         RhIdPrincipal principal = (RhIdPrincipal) sec.getUserPrincipal();
-
-        Multi<Endpoint> endpoints;
-        Uni<Long> count;
-
-        if (targetType != null) {
-            EndpointType endpointType = EndpointType.valueOf(targetType.toUpperCase());
-            endpoints = resources
-                    .getEndpointsPerType(principal.getAccount(), endpointType, activeOnly, query);
-            count = resources.getEndpointsCountPerType(principal.getAccount(), endpointType, activeOnly);
-        } else {
-            endpoints = resources.getEndpoints(principal.getAccount(), query);
-            count = resources.getEndpointsCount(principal.getAccount());
-        }
-
-        return endpoints.collect().asList()
-                .onItem().transformToUni(endpointsList -> count
-                        .onItem().transform(endpointsCount -> new EndpointPage(endpointsList, new HashMap<>(), new Meta(endpointsCount))));
+        EndpointType endpointType = targetType == null ? null : EndpointType.valueOf(targetType.toUpperCase());
+        return resources.getEndpointsWithCount(principal.getAccount(), endpointType, activeOnly, query)
+                .onItem().transform(page -> new EndpointPage(page.getItem1(), new HashMap<>(), new Meta(page.getItem2())));
     }
 
     // TODO [BG Phase 2] Delete this method
@@ -139,6 +153,120 @@ public class EndpointService {
         return resources.createEndpoint(endpoint);
     }
 
+    @POST
+    @Path("/bulk")
+    @RolesAllowed(RbacIdentityProvider.RBAC_WRITE_INTEGRATIONS_ENDPOINTS)
+    @APIResponse(responseCode = "200", description = "All the integrations have been created, in the order of the request",
+            content = @Content(schema = @Schema(type = SchemaType.ARRAY, implementation = Endpoint.class)))
+    public Multi<Endpoint> createEndpoints(@Context SecurityContext sec,
+                                           @NotNull @Size(min = 1, max = MAX_BULK_SIZE) List<@NotNull @Valid Endpoint> endpoints) {
+        RhIdPrincipal principal = (RhIdPrincipal) sec.getUserPrincipal();
+        // The whole batch is validated before anything is written.
+        Map<String, Integer> indexesByName = new HashMap<>();
+        for (int i = 0; i < endpoints.size(); i++) {
+            Endpoint endpoint = endpoints.get(i);
+            if (endpoint.getProperties() == null) {
+                throw new BadRequestException("Properties is required (integration at index " + i + ")");
+            }
+            if (!hasPropertiesOfType(endpoint)) {
+                throw new BadRequestException("Properties don't match the type " + endpoint.getType().name().toLowerCase() +
+                        " (integration at index " + i + ")");
+            }
+            Integer sameNameIndex = indexesByName.putIfAbsent(endpoint.getName(), i);
+            if (sameNameIndex != null) {
+                throw new BadRequestException("Name '" + endpoint.getName() + "' is already used by the integration at index " +
+                        sameNameIndex + " (integration at index " + i + ")");
+            }
+            endpoint.setAccountId(principal.getAccount());
+        }
+        return resources.createEndpoints(endpoints)
+                .onItem().transformToMulti(Multi.createFrom()::iterable);
+    }
+
+    @PUT
+    @Path("/bulk")
+    @RolesAllowed(RbacIdentityProvider.RBAC_WRITE_INTEGRATIONS_ENDPOINTS)
+    @APIResponse(responseCode = "200", description = "All the integrations have been updated", content = @Content(schema = @Schema(type = SchemaType.STRING)))
+    @APIResponse(responseCode = "404", description = "Some integrations don't exist, none has been updated", content = @Content(schema = @Schema(type = SchemaType.STRING)))
+    public Uni<Response> updateEndpoints(@Context SecurityContext sec,
+                                         @NotNull @Size(min = 1, max = MAX_BULK_SIZE) Map<@NotNull UUID, @NotNull @Valid Endpoint> endpoints) {
+        RhIdPrincipal principal = (RhIdPrincipal) sec.getUserPrincipal();
+        return resources.updateEndpoints(principal.getAccount(), endpoints)
+                .onItem().transform(missingIds -> {
+                    if (!missingIds.isEmpty()) {
+                        throw new NotFoundException("Unknown integrations: " + missingIds);
+                    }
+                    return Response.ok().build();
+                });
+    }
+
+    @DELETE
+    @Path("/bulk")
+    @RolesAllowed(RbacIdentityProvider.RBAC_WRITE_INTEGRATIONS_ENDPOINTS)
+    @APIResponse(responseCode = "204", description = "All the integrations have been deleted", content = @Content(schema = @Schema(type = SchemaType.STRING)))
+    @APIResponse(responseCode = "404", description = "Some integrations don't exist, none has been deleted", content = @Content(schema = @Schema(type = SchemaType.STRING)))
+    public Uni<Response> deleteEndpoints(@Context SecurityContext sec, @NotNull @Size(min = 1, max = MAX_BULK_SIZE) Set<@NotNull UUID> ids) {
+        RhIdPrincipal principal = (RhIdPrincipal) sec.getUserPrincipal();
+        return resources.deleteEndpoints(principal.getAccount(), ids)
+                .onItem().transform(missingIds -> {
+                    if (!missingIds.isEmpty()) {
+                        throw new NotFoundException("Unknown integrations: " + missingIds);
+                    }
+                    return Response.noContent().build();
+                });
+    }
+
+    /*
+     * The export is written as newline-delimited JSON while the endpoints and then the behavior groups are read page by
+     * page, so that only one page is held in memory at a time. Each line holds either an "endpoint" or a
+     * "behavior_group" with the ids of its actions endpoints and event types. Each page is read from its own session
+     * instead of a single transaction: a repeatable read transaction would keep a database connection and its snapshot
+     * for the whole download. The export is therefore not a snapshot, as stated in its description.
+     */
+    @GET
+    @Path("/export")
+    @Produces(NDJSON)
+    @RolesAllowed(RbacIdentityProvider.RBAC_READ_INTEGRATIONS_ENDPOINTS)
+    @Operation(summary = "Export the integrations and behavior groups of the account", description = "The export is not a " +
+            "consistent snapshot: it is read page by page, so the integrations and behavior groups modified during the export " +
+            "may be exported in their previous or new state, or be missing, and a behavior group may refer to an integration " +
+            "which is not exported.")
+    @APIResponse(responseCode = "200", content = @Content(mediaType = NDJSON, schema = @Schema(type = SchemaType.STRING)))
+    public Response exportEndpoints(@Context SecurityContext sec) {
+        RhIdPrincipal principal = (RhIdPrincipal) sec.getUserPrincipal();
+        String account = principal.getAccount();
+        StreamingOutput output = outputStream -> {
+            try (SequenceWriter writer = objectMapper.writer().withRootValueSeparator("\n").writeValues(outputStream)) {
+                UUID after = null;
+                List<Endpoint> page;
+                do {
+                    page = resources.getEndpointsPage(account, after, EXPORT_PAGE_SIZE).await().indefinitely();
+                    for (Endpoint endpoint : page) {
+                        writer.write(Map.of("endpoint", endpoint));
+                    }
+                    writer.flush();
+                    if (!page.isEmpty()) {
+                        after = page.get(page.size() - 1).getId();
+                    }
+                } while (page.size() == EXPORT_PAGE_SIZE);
+
+                after = null;
+                List<BehaviorGroupExport> behaviorGroupsPage;
+                do {
+                    behaviorGroupsPage = behaviorGroupResources.exportBehaviorGroupsPage(account, after, EXPORT_PAGE_SIZE).await().indefinitely();
+                    for (BehaviorGroupExport behaviorGroup : behaviorGroupsPage) {
+                        writer.write(Map.of("behavior_group", behaviorGroup));
+                    }
+                    writer.flush();
+                    if (!behaviorGroupsPage.isEmpty()) {
+                        after = behaviorGroupsPage.get(behaviorGroupsPage.size() - 1).getId();
+                    }
+                } while (behaviorGroupsPage.size() == EXPORT_PAGE_SIZE);
+            }
+        };
+        return Response.ok(output).build();
+    }
+
     @GET
     @Path("/{id}")
     @RolesAllowed(RbacIdentityProvider.RBAC_READ_INTEGRATIONS_ENDPOINTS)
@@ -194,10 +322,57 @@ public class EndpointService {
     @GET
     @Path("/{id}/history")
     @RolesAllowed(RbacIdentityProvider.RBAC_READ_INTEGRATIONS_ENDPOINTS)
-    public Multi<NotificationHistory> getEndpointHistory(@Context SecurityContext sec, @PathParam("id") UUID id) {
-        // TODO We need globally limitations (Paging support and limits etc)
+    @Parameters({
+            @Parameter(
+                    name = "limit",
+                    in = ParameterIn.QUERY,
+                    description = "Number of history entries per page, defaults to " + DEFAULT_HISTORY_LIMIT + " and cannot exceed " + MAX_HISTORY_LIMIT,
+                    schema = @Schema(type = SchemaType.INTEGER)
+            ),
+            @Parameter(
+                    name = "cursor",
+                    in = ParameterIn.QUERY,
+                    description = "Opaque token returned in the 'next' link of the previous page, starts at the most recent entry if not specified",
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "status_code",
+                    in = ParameterIn.QUERY,
+                    description = "Only returns the calls which failed with this HTTP status code (e.g. 503) or class of status codes (e.g. 5xx)",
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "error_type",
+                    in = ParameterIn.QUERY,
+                    description = "Only returns the calls which failed without an HTTP response because of this error (e.g. timeout)",
+                    schema = @Schema(type = SchemaType.STRING, enumeration = { "timeout", "connection_refused", "unknown_host", "ssl", "other" })
+            )
+    })
+    @APIResponse(responseCode = "200", content = @Content(schema = @Schema(type = SchemaType.ARRAY, implementation = NotificationHistory.class)))
+    public Uni<Response> getEndpointHistory(@Context SecurityContext sec, @Context UriInfo uriInfo, @PathParam("id") UUID id,
+                                            @QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor,
+                                            @QueryParam("status_code") String statusCode, @QueryParam("error_type") String errorType) {
+        int pageSize = limit == null ? DEFAULT_HISTORY_LIMIT : limit;
+        if (pageSize <= 0 || pageSize > MAX_HISTORY_LIMIT) {
+            throw new BadRequestException("limit must be between 1 and " + MAX_HISTORY_LIMIT);
+        }
+        HistoryFilter filter = HistoryFilter.of(statusCode, errorType);
+        HistoryCursor after = cursor == null ? null : HistoryCursor.decode(cursor);
         RhIdPrincipal principal = (RhIdPrincipal) sec.getUserPrincipal();
-        return notifResources.getNotificationHistory(principal.getAccount(), id);
+        // One extra entry is fetched to find out whether there is a next page without counting the rows.
+        return notifResources.getNotificationHistory(principal.getAccount(), id, filter, after, pageSize + 1)
+                .onItem().transform(history -> {
+                    if (history.size() <= pageSize) {
+                        return Response.ok(history).build();
+                    }
+                    List<NotificationHistory> page = history.subList(0, pageSize);
+                    String nextCursor = HistoryCursor.of(page.get(pageSize - 1)).encode();
+                    URI next = uriInfo.getRequestUriBuilder()
+                            .replaceQueryParam("cursor", nextCursor)
+                            .replaceQueryParam("limit", pageSize)
+                            .build();
+                    return Response.ok(page).link(next, "next").build();
+                });
     }
 
     @GET
@@ -269,4 +444,19 @@ public class EndpointService {
                 ));
     }
 
+    /*
+     * EndpointResources stores the properties depending on the endpoint type, so they have to be of the class which
+     * matches it. The default endpoints can't be created in bulk since only one of them is allowed per account.
+     */
+    private static boolean hasPropertiesOfType(Endpoint endpoint) {
+        switch (endpoint.getType()) {
+            case WEBHOOK:
+                return endpoint.getProperties() instanceof WebhookAttributes;
+            case EMAIL_SUBSCRIPTION:
+                return endpoint.getProperties() instanceof EmailSubscriptionAttributes;
+            case DEFAULT:
+            default:
+                return false;
+        }
+    }
 }
@@ -343,6 +343,30 @@ public class NotificationService {
                 );
     }
 
+    @PUT
+    @Path("/behaviorGroups/{behaviorGroupId}/eventTypes")
+    @Operation(summary = "Replace the event types linked to a behavior group.")
+    @RolesAllowed(RbacIdentityProvider.RBAC_WRITE_NOTIFICATIONS)
+    @APIResponse(responseCode = "200", content = @Content(schema = @Schema(type = SchemaType.STRING)))
+    @APIResponse(responseCode = "404", description = "Behavior group not found", content = @Content(schema = @Schema(type = SchemaType.STRING)))
+    public Uni<Response> updateBehaviorGroupEventTypes(@Context SecurityContext sec, @PathParam("behaviorGroupId") UUID behaviorGroupId, @NotNull Set<@NotNull UUID> eventTypeIds) {
+        return getAccountId(sec)
+                .onItem().transformToUni(accountId -> behaviorGroupResources.updateBehaviorGroupEventTypes(accountId, behaviorGroupId, eventTypeIds))
+                .onItem().transform(NotificationService::okOrNotFound);
+    }
+
+    @PUT
+    @Path("/behaviorGroups/{behaviorGroupId}/endpoints")
+    @Operation(summary = "Replace the actions of a behavior group with the given endpoints.")
+    @RolesAllowed(RbacIdentityProvider.RBAC_WRITE_NOTIFICATIONS)
+    @APIResponse(responseCode = "200", content = @Content(schema = @Schema(type = SchemaType.STRING)))
+    @APIResponse(responseCode = "404", description = "Behavior group not found", content = @Content(schema = @Schema(type = SchemaType.STRING)))
+    public Uni<Response> updateBehaviorGroupActions(@Context SecurityContext sec, @PathParam("behaviorGroupId") UUID behaviorGroupId, @NotNull Set<@NotNull UUID> endpointIds) {
+        return getAccountId(sec)
+                .onItem().transformToUni(accountId -> behaviorGroupResources.updateBehaviorGroupActions(accountId, behaviorGroupId, endpointIds))
+                .onItem().transform(NotificationService::okOrNotFound);
+    }
+
     @GET
     @Path("/bundles/{bundleId}/behaviorGroups")
     @Operation(summary = "Retrieve the behavior groups of a bundle.")
@@ -351,4 +375,8 @@ public class NotificationService {
         return getAccountId(sec)
                 .onItem().transformToUni(accountId -> behaviorGroupResources.findByBundleId(accountId, bundleId));
     }
+
+    private static Response okOrNotFound(Boolean found) {
+        return found ? Response.ok().build() : Response.status(Response.Status.NOT_FOUND).build();
+    }
 }
@@ -0,0 +1,15 @@
+-- Keeps track of the aggregation windows processed by the scheduled email jobs. A window which is not completed
+-- (interrupted process or deadline reached) will be resumed during the next scheduled execution.
+CREATE TABLE email_aggregation_run (
+    id UUID NOT NULL,
+    subscription_type VARCHAR(50) NOT NULL,
+    start_time TIMESTAMP NOT NULL,
+    end_time TIMESTAMP NOT NULL,
+    completed BOOLEAN NOT NULL DEFAULT FALSE,
+    created TIMESTAMP NOT NULL,
+    updated TIMESTAMP,
+    CONSTRAINT pk_email_aggregation_run PRIMARY KEY (id),
+    CONSTRAINT uq_email_aggregation_run_window UNIQUE (subscription_type, start_time, end_time)
+) WITH (OIDS=FALSE);
+
+CREATE INDEX ix_email_aggregation_run_pending ON email_aggregation_run (subscription_type, end_time) WHERE completed = FALSE;
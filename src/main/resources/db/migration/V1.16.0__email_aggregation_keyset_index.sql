@@ -0,0 +1,2 @@
+-- Supports the keyset pagination used to stream the aggregations of a given (account, bundle, application) key.
+CREATE INDEX ix_email_aggregation_key_id ON email_aggregation (account_id, bundle, application, id);
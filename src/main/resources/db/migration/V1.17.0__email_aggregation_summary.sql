@@ -0,0 +1,13 @@
+-- Hourly pre-aggregated email aggregations, written when the incremental aggregation is enabled.
+CREATE TABLE email_aggregation_summary (
+    account_id VARCHAR(50) NOT NULL,
+    bundle VARCHAR(255) NOT NULL,
+    application VARCHAR(255) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    state TEXT NOT NULL,
+    created TIMESTAMP NOT NULL,
+    updated TIMESTAMP,
+    CONSTRAINT pk_email_aggregation_summary PRIMARY KEY (account_id, bundle, application, bucket)
+) WITH (OIDS=FALSE);
+
+CREATE INDEX ix_email_aggregation_summary_bucket ON email_aggregation_summary (bucket);
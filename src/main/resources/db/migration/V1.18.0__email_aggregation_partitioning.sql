@@ -0,0 +1,58 @@
+-- The email_aggregation table is partitioned by day on the created column. The expired aggregations are removed by
+-- dropping whole partitions (see com.redhat.cloud.notifications.db.PartitionMaintenance) instead of deleting rows.
+
+-- The sequence would be dropped with the old table otherwise.
+ALTER SEQUENCE public.email_aggregation_id_seq OWNED BY NONE;
+
+ALTER TABLE public.email_aggregation RENAME TO email_aggregation_old;
+
+CREATE TABLE public.email_aggregation (
+    id INTEGER NOT NULL DEFAULT nextval('public.email_aggregation_id_seq'::regclass),
+    account_id VARCHAR(50) NOT NULL,
+    bundle VARCHAR(255) NOT NULL,
+    application VARCHAR(255) NOT NULL,
+    created TIMESTAMP NOT NULL,
+    payload TEXT NOT NULL,
+    -- The partition key has to be part of the primary key.
+    CONSTRAINT pk_email_aggregation PRIMARY KEY (id, created)
+) PARTITION BY RANGE (created);
+
+-- Catches the rows which do not belong to any daily partition, in case the partitions maintenance falls behind.
+CREATE TABLE public.email_aggregation_default PARTITION OF public.email_aggregation DEFAULT;
+
+DO $$
+DECLARE
+    day DATE;
+    last_day DATE := CURRENT_DATE + 3;
+BEGIN
+    SELECT COALESCE(MIN(created)::DATE, CURRENT_DATE) INTO day FROM public.email_aggregation_old;
+    IF day > CURRENT_DATE THEN
+        day := CURRENT_DATE;
+    END IF;
+    WHILE day <= last_day LOOP
+        EXECUTE format('CREATE TABLE public.%I PARTITION OF public.email_aggregation FOR VALUES FROM (%L) TO (%L)',
+            'email_aggregation_p' || to_char(day, 'YYYYMMDD'), day, day + 1);
+        day := day + 1;
+    END LOOP;
+END $$;
+
+INSERT INTO public.email_aggregation (id, account_id, bundle, application, created, payload)
+SELECT id, account_id, bundle, application, created, payload FROM public.email_aggregation_old;
+
+DROP TABLE public.email_aggregation_old;
+
+ALTER SEQUENCE public.email_aggregation_id_seq OWNED BY public.email_aggregation.id;
+
+CREATE INDEX ix_email_aggregation_account_created ON public.email_aggregation (account_id, created);
+CREATE INDEX ix_email_aggregation_key_id ON public.email_aggregation (account_id, bundle, application, id);
+
+-- The aggregations which were already sent are no longer deleted one key at a time. A watermark is stored instead for
+-- each key: the aggregations created before last_end with an id lower than or equal to last_id were processed.
+CREATE TABLE public.email_aggregation_watermark (
+    account_id VARCHAR(50) NOT NULL,
+    bundle VARCHAR(255) NOT NULL,
+    application VARCHAR(255) NOT NULL,
+    last_id INTEGER NOT NULL,
+    last_end TIMESTAMP NOT NULL,
+    CONSTRAINT pk_email_aggregation_watermark PRIMARY KEY (account_id, bundle, application)
+) WITH (OIDS=FALSE);
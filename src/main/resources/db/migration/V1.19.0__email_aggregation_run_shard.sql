@@ -0,0 +1,15 @@
+-- The aggregation keys of a window are split into shards (by account) so that the scheduled email jobs of all the
+-- replicas can share the work. A replica owns a shard as long as it keeps renewing its lease. The shards of a dead
+-- replica are taken over by the others once their lease has expired.
+CREATE TABLE email_aggregation_run_shard (
+    subscription_type VARCHAR(50) NOT NULL,
+    start_time TIMESTAMP NOT NULL,
+    end_time TIMESTAMP NOT NULL,
+    shard INTEGER NOT NULL,
+    owner VARCHAR(255),
+    lease_expires TIMESTAMP,
+    completed BOOLEAN NOT NULL DEFAULT FALSE,
+    CONSTRAINT pk_email_aggregation_run_shard PRIMARY KEY (subscription_type, start_time, end_time, shard),
+    CONSTRAINT fk_email_aggregation_run_shard_run FOREIGN KEY (subscription_type, start_time, end_time)
+        REFERENCES email_aggregation_run (subscription_type, start_time, end_time) ON DELETE CASCADE
+) WITH (OIDS=FALSE);
@@ -0,0 +1,2 @@
+-- The aggregated (digest) emails are not sent through an endpoint but their history is recorded too.
+ALTER TABLE notification_history ALTER COLUMN endpoint_id DROP NOT NULL;
@@ -0,0 +1,15 @@
+-- Identical payloads (upstream retries, repeated policy evaluations) of the same account and application are only
+-- stored once per daily aggregation window. The hashes are stored in their own table because a unique constraint on
+-- the partitioned email_aggregation table would have to include its partition key. A hash is stored by the statement
+-- which inserts the aggregation, so the primary key guards the insertions of all the replicas.
+CREATE TABLE email_aggregation_payload_hash (
+    account_id VARCHAR(50) NOT NULL,
+    bundle VARCHAR(255) NOT NULL,
+    application VARCHAR(255) NOT NULL,
+    payload_hash VARCHAR(64) NOT NULL,
+    window_start TIMESTAMP NOT NULL,
+    CONSTRAINT pk_email_aggregation_payload_hash PRIMARY KEY (account_id, bundle, application, payload_hash, window_start)
+);
+
+-- Used to purge the hashes of the expired windows
+CREATE INDEX ix_email_aggregation_payload_hash_window_start ON email_aggregation_payload_hash (window_start);
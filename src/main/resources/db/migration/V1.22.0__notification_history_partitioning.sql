@@ -0,0 +1,52 @@
+-- The notification_history table is partitioned by day on the created column. The expired history is removed by
+-- dropping whole partitions (see com.redhat.cloud.notifications.db.PartitionMaintenance) instead of deleting rows.
+
+ALTER TABLE public.notification_history RENAME TO notification_history_old;
+ALTER TABLE public.notification_history_old RENAME CONSTRAINT notification_history_pkey TO notification_history_old_pkey;
+ALTER TABLE public.notification_history_old DROP CONSTRAINT notification_history_endpoint_id_fkey;
+
+CREATE TABLE public.notification_history (
+    id UUID NOT NULL,
+    account_id VARCHAR(50) NOT NULL,
+    endpoint_id UUID,
+    created TIMESTAMP NOT NULL,
+    invocation_time INTEGER NOT NULL,
+    invocation_result BOOLEAN NOT NULL,
+    details TEXT,
+    event_id VARCHAR,
+    -- The partition key has to be part of the primary key.
+    CONSTRAINT pk_notification_history PRIMARY KEY (id, created),
+    CONSTRAINT notification_history_endpoint_id_fkey FOREIGN KEY (endpoint_id) REFERENCES public.endpoints (id)
+        ON UPDATE CASCADE
+        ON DELETE CASCADE
+) PARTITION BY RANGE (created);
+
+-- Catches the rows which do not belong to any daily partition, in case the partitions maintenance falls behind.
+CREATE TABLE public.notification_history_default PARTITION OF public.notification_history DEFAULT;
+
+-- Only the last 90 days get their own partition. The older rows land in the default partition, from which they are
+-- deleted by the partitions maintenance once they are older than the configured retention.
+DO $$
+DECLARE
+    day DATE;
+    last_day DATE := CURRENT_DATE + 3;
+BEGIN
+    SELECT GREATEST(COALESCE(MIN(created)::DATE, CURRENT_DATE), CURRENT_DATE - 90) INTO day FROM public.notification_history_old;
+    IF day > CURRENT_DATE THEN
+        day := CURRENT_DATE;
+    END IF;
+    WHILE day <= last_day LOOP
+        EXECUTE format('CREATE TABLE public.%I PARTITION OF public.notification_history FOR VALUES FROM (%L) TO (%L)',
+            'notification_history_p' || to_char(day, 'YYYYMMDD'), day, day + 1);
+        day := day + 1;
+    END LOOP;
+END $$;
+
+INSERT INTO public.notification_history (id, account_id, endpoint_id, created, invocation_time, invocation_result, details, event_id)
+SELECT id, account_id, endpoint_id, created, invocation_time, invocation_result, details, event_id FROM public.notification_history_old;
+
+DROP TABLE public.notification_history_old;
+
+-- The endpoint history is paginated on (created, id) in descending order. This index serves both the filter and the
+-- sort. It is created after the rows were copied, which is cheaper than maintaining it during the copy.
+CREATE INDEX ix_notification_history_account_endpoint_created ON public.notification_history (account_id, endpoint_id, created DESC, id DESC);
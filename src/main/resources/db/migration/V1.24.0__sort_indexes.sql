@@ -0,0 +1,11 @@
+-- The listings can be sorted and keyset-paginated on these columns, see the SortFields of the resources classes. The
+-- identifier is the tie-breaker of every sort. The endpoints and the behavior groups are sorted within an account.
+CREATE INDEX ix_endpoints_account_name ON public.endpoints (account_id, name, id);
+CREATE INDEX ix_endpoints_account_created ON public.endpoints (account_id, created, id);
+CREATE INDEX ix_endpoints_account_type ON public.endpoints (account_id, endpoint_type, id);
+CREATE INDEX ix_endpoints_account_enabled ON public.endpoints (account_id, enabled, id);
+-- The existing et_app_idx index (name, application_id) serves the sort on the name.
+CREATE INDEX ix_event_type_display_name ON public.event_type (display_name, id);
+-- The existing uq_behavior_group_name constraint (account_id, name) serves the sort on the name.
+CREATE INDEX ix_behavior_group_account_display_name ON public.behavior_group (account_id, display_name, id);
+CREATE INDEX ix_behavior_group_account_created ON public.behavior_group (account_id, created, id);
@@ -0,0 +1,15 @@
+-- EndpointEmailSubscriptionResources#getEmailSubscribers and #getEmailSubscribersCount filter on these columns, which
+-- are not a prefix of the primary key. The user id is included so that the subscribers can be read from the index.
+CREATE INDEX ix_endpoint_email_subscriptions_subscribers ON public.endpoint_email_subscriptions (account_id, application_id, subscription_type) INCLUDE (user_id);
+
+-- EmailAggregationResources#getApplicationsWithPendingAggregation looks for the aggregation keys of a time range across
+-- all accounts, so the existing (account_id, created) index can't be used.
+CREATE INDEX ix_email_aggregation_created ON public.email_aggregation (created) INCLUDE (account_id, bundle, application, id);
+
+-- The primary keys of the behavior groups link tables only cover lookups from their first column. These indexes
+-- cover the joins from the other side: behavior group to event types and endpoint to behavior groups.
+CREATE INDEX ix_event_type_behavior_behavior_group_id ON public.event_type_behavior (behavior_group_id);
+CREATE INDEX ix_behavior_group_action_endpoint_id ON public.behavior_group_action (endpoint_id);
+
+-- BehaviorGroupResources#findByBundleId filters on both columns.
+CREATE INDEX ix_behavior_group_account_bundle ON public.behavior_group (account_id, bundle_id);
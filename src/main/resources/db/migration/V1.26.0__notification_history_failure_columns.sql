@@ -0,0 +1,13 @@
+-- The details column stays a text column because Hibernate Reactive does not support jsonb (see V1.9.0). The failure
+-- attributes which the history API filters on are copied from the details into these columns when the history is
+-- inserted. Adding nullable columns without a default only changes the catalog, the partitions are not rewritten.
+ALTER TABLE public.notification_history
+    ADD COLUMN status_code INTEGER,
+    ADD COLUMN error_type VARCHAR(50);
+
+-- Only the failed calls have a status code or an error type, so these indexes stay small. They are only created on the
+-- partitioned table here, which does not lock the partitions. The partitions created from now on get their own index.
+-- The existing partitions are backfilled and indexed concurrently by PartitionMaintenance, then their indexes are
+-- attached to these ones, which become valid once all partitions are indexed.
+CREATE INDEX ix_notification_history_status_code ON ONLY public.notification_history (account_id, endpoint_id, status_code, created DESC, id DESC) WHERE status_code IS NOT NULL;
+CREATE INDEX ix_notification_history_error_type ON ONLY public.notification_history (account_id, endpoint_id, error_type, created DESC, id DESC) WHERE error_type IS NOT NULL;
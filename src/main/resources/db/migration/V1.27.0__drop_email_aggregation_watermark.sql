@@ -0,0 +1,3 @@
+-- A daily window only reads the aggregations created within its bounds, so the aggregations which were already sent
+-- don't have to be marked as processed. They are still removed with their partition.
+DROP TABLE public.email_aggregation_watermark;
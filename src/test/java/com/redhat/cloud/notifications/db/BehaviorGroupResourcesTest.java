@@ -3,7 +3,9 @@ package com.redhat.cloud.notifications.db;
 import com.redhat.cloud.notifications.TestLifecycleManager;
 import com.redhat.cloud.notifications.models.BehaviorGroup;
 import com.redhat.cloud.notifications.models.BehaviorGroupAction;
+import com.redhat.cloud.notifications.models.BehaviorGroupExport;
 import com.redhat.cloud.notifications.models.Bundle;
+import com.redhat.cloud.notifications.models.EmailSubscriptionType;
 import com.redhat.cloud.notifications.models.Endpoint;
 import com.redhat.cloud.notifications.models.EndpointType;
 import com.redhat.cloud.notifications.models.EventType;
@@ -18,6 +20,7 @@ import javax.inject.Inject;
 import javax.persistence.PersistenceException;
 import javax.validation.ConstraintViolationException;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -45,6 +48,12 @@ public class BehaviorGroupResourcesTest extends DbIsolatedTest {
     @Inject
     BehaviorGroupResources behaviorGroupResources;
 
+    @Inject
+    EndpointEmailSubscriptionResources emailSubscriptionResources;
+
+    @Inject
+    CacheInvalidationRecorder invalidationRecorder;
+
     @Test
     public void testCreateAndUpdateAndDeleteBehaviorGroup() {
         Bundle bundle = createBundle();
@@ -269,6 +278,110 @@ public class BehaviorGroupResourcesTest extends DbIsolatedTest {
         assertFalse(added);
     }
 
+    @Test
+    public void testUpdateBehaviorGroupEventTypes() {
+        Bundle bundle = createBundle();
+        EventType eventType1 = createEventType();
+        EventType eventType2 = createEventType();
+        EventType eventType3 = createEventType();
+        BehaviorGroup behaviorGroup = createBehaviorGroup("name", "displayName", bundle.getId());
+
+        Boolean updated = updateBehaviorGroupEventTypes(ACCOUNT_ID, behaviorGroup.getId(), Set.of(eventType1.getId(), eventType2.getId()));
+        assertTrue(updated);
+        assertEquals(Set.of(eventType1.getId(), eventType2.getId()), findEventTypeIds(behaviorGroup.getId()));
+
+        // The existing links are kept, the other ones are replaced. Unknown event types are ignored.
+        updated = updateBehaviorGroupEventTypes(ACCOUNT_ID, behaviorGroup.getId(), Set.of(eventType2.getId(), eventType3.getId(), UUID.randomUUID()));
+        assertTrue(updated);
+        assertEquals(Set.of(eventType2.getId(), eventType3.getId()), findEventTypeIds(behaviorGroup.getId()));
+
+        // Another account can't touch the behavior group.
+        updated = updateBehaviorGroupEventTypes("unknownAccountId", behaviorGroup.getId(), Set.of());
+        assertFalse(updated);
+        assertEquals(Set.of(eventType2.getId(), eventType3.getId()), findEventTypeIds(behaviorGroup.getId()));
+
+        updated = updateBehaviorGroupEventTypes(ACCOUNT_ID, behaviorGroup.getId(), Set.of());
+        assertTrue(updated);
+        assertTrue(findEventTypeIds(behaviorGroup.getId()).isEmpty());
+    }
+
+    @Test
+    public void testUpdateBehaviorGroupActions() {
+        Bundle bundle = createBundle();
+        Endpoint endpoint1 = createEndpoint();
+        Endpoint endpoint2 = createEndpoint();
+        Endpoint endpoint3 = createEndpoint();
+        BehaviorGroup behaviorGroup = createBehaviorGroup("name", "displayName", bundle.getId());
+
+        Boolean updated = updateBehaviorGroupActions(ACCOUNT_ID, behaviorGroup.getId(), Set.of(endpoint1.getId(), endpoint2.getId()));
+        assertTrue(updated);
+        assertEquals(Set.of(endpoint1.getId(), endpoint2.getId()), findEndpointIds(behaviorGroup.getId()));
+
+        // The existing actions are kept, the other ones are replaced. Unknown endpoints are ignored.
+        updated = updateBehaviorGroupActions(ACCOUNT_ID, behaviorGroup.getId(), Set.of(endpoint2.getId(), endpoint3.getId(), UUID.randomUUID()));
+        assertTrue(updated);
+        assertEquals(Set.of(endpoint2.getId(), endpoint3.getId()), findEndpointIds(behaviorGroup.getId()));
+
+        // Another account can't touch the behavior group.
+        updated = updateBehaviorGroupActions("unknownAccountId", behaviorGroup.getId(), Set.of(endpoint1.getId()));
+        assertFalse(updated);
+        assertEquals(Set.of(endpoint2.getId(), endpoint3.getId()), findEndpointIds(behaviorGroup.getId()));
+
+        updated = updateBehaviorGroupActions(ACCOUNT_ID, behaviorGroup.getId(), Set.of());
+        assertTrue(updated);
+        assertTrue(findEndpointIds(behaviorGroup.getId()).isEmpty());
+    }
+
+    @Test
+    public void testExportBehaviorGroupsPages() {
+        Bundle bundle = createBundle();
+        EventType eventType = createEventType();
+        Endpoint endpoint = createEndpoint();
+        BehaviorGroup behaviorGroup1 = createBehaviorGroup("name1", "displayName", bundle.getId());
+        BehaviorGroup behaviorGroup2 = createBehaviorGroup("name2", "displayName", bundle.getId());
+        updateBehaviorGroupActions(ACCOUNT_ID, behaviorGroup1.getId(), Set.of(endpoint.getId()));
+        updateBehaviorGroupEventTypes(ACCOUNT_ID, behaviorGroup2.getId(), Set.of(eventType.getId()));
+
+        List<BehaviorGroupExport> firstPage = exportBehaviorGroupsPage(null, 1);
+        assertEquals(1, firstPage.size());
+        List<BehaviorGroupExport> secondPage = exportBehaviorGroupsPage(firstPage.get(0).getId(), 1);
+        assertEquals(1, secondPage.size());
+        assertTrue(exportBehaviorGroupsPage(secondPage.get(0).getId(), 1).isEmpty());
+
+        // Each behavior group only carries its own links.
+        BehaviorGroupExport export1 = firstPage.get(0).getId().equals(behaviorGroup1.getId()) ? firstPage.get(0) : secondPage.get(0);
+        BehaviorGroupExport export2 = export1 == firstPage.get(0) ? secondPage.get(0) : firstPage.get(0);
+        assertEquals(List.of(endpoint.getId()), export1.getEndpointIds());
+        assertTrue(export1.getEventTypeIds().isEmpty());
+        assertEquals(behaviorGroup2.getId(), export2.getId());
+        assertTrue(export2.getEndpointIds().isEmpty());
+        assertEquals(List.of(eventType.getId()), export2.getEventTypeIds());
+    }
+
+    @Test
+    public void testInvalidationOnWrites() {
+        Bundle bundle = createBundle();
+        invalidationRecorder.clear();
+        Endpoint endpoint = createEndpoint();
+        assertTrue(invalidationRecorder.isInvalidated(EndpointResources.ENDPOINTS_CACHE_NAME));
+
+        invalidationRecorder.clear();
+        BehaviorGroup behaviorGroup = createBehaviorGroup("name", "displayName", bundle.getId());
+        assertTrue(invalidationRecorder.isInvalidated(BehaviorGroupResources.BEHAVIOR_GROUPS_CACHE_NAME));
+
+        invalidationRecorder.clear();
+        updateBehaviorGroupActions(ACCOUNT_ID, behaviorGroup.getId(), Set.of(endpoint.getId()));
+        assertTrue(invalidationRecorder.isInvalidated(BehaviorGroupResources.BEHAVIOR_GROUPS_CACHE_NAME));
+
+        invalidationRecorder.clear();
+        endpointResources.disableEndpoint(ACCOUNT_ID, endpoint.getId()).await().indefinitely();
+        assertTrue(invalidationRecorder.isInvalidated(EndpointResources.ENDPOINTS_CACHE_NAME));
+
+        invalidationRecorder.clear();
+        emailSubscriptionResources.subscribe(ACCOUNT_ID, "user", "name", "name", EmailSubscriptionType.DAILY).await().indefinitely();
+        assertTrue(invalidationRecorder.isInvalidated(EndpointEmailSubscriptionResources.EMAIL_SUBSCRIPTIONS_CACHE_NAME));
+    }
+
     private Bundle createBundle() {
         Bundle bundle = new Bundle();
         bundle.setName("name");
@@ -292,6 +405,10 @@ public class BehaviorGroupResourcesTest extends DbIsolatedTest {
         return endpointResources.createEndpoint(endpoint).await().indefinitely();
     }
 
+    private List<BehaviorGroupExport> exportBehaviorGroupsPage(UUID after, int limit) {
+        return behaviorGroupResources.exportBehaviorGroupsPage(ACCOUNT_ID, after, limit).await().indefinitely();
+    }
+
     private BehaviorGroup createBehaviorGroup(String name, String displayName, UUID bundleId) {
         BehaviorGroup behaviorGroup = new BehaviorGroup();
         behaviorGroup.setName(name);
@@ -364,4 +481,28 @@ public class BehaviorGroupResourcesTest extends DbIsolatedTest {
     private Boolean deleteBehaviorGroupAction(String accountId, UUID behaviorGroupId, UUID endpointId) {
         return behaviorGroupResources.deleteBehaviorGroupAction(accountId, behaviorGroupId, endpointId).await().indefinitely();
     }
+
+    private Boolean updateBehaviorGroupEventTypes(String accountId, UUID behaviorGroupId, Set<UUID> eventTypeIds) {
+        return behaviorGroupResources.updateBehaviorGroupEventTypes(accountId, behaviorGroupId, eventTypeIds).await().indefinitely();
+    }
+
+    private Set<UUID> findEventTypeIds(UUID behaviorGroupId) {
+        String query = "SELECT id.eventTypeId FROM EventTypeBehavior WHERE behaviorGroup.id = :behaviorGroupId";
+        return Set.copyOf(session.createQuery(query, UUID.class)
+                .setParameter("behaviorGroupId", behaviorGroupId)
+                .getResultList()
+                .await().indefinitely());
+    }
+
+    private Boolean updateBehaviorGroupActions(String accountId, UUID behaviorGroupId, Set<UUID> endpointIds) {
+        return behaviorGroupResources.updateBehaviorGroupActions(accountId, behaviorGroupId, endpointIds).await().indefinitely();
+    }
+
+    private Set<UUID> findEndpointIds(UUID behaviorGroupId) {
+        String query = "SELECT id.endpointId FROM BehaviorGroupAction WHERE behaviorGroup.id = :behaviorGroupId";
+        return Set.copyOf(session.createQuery(query, UUID.class)
+                .setParameter("behaviorGroupId", behaviorGroupId)
+                .getResultList()
+                .await().indefinitely());
+    }
 }
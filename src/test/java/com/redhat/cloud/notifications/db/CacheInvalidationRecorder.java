@@ -0,0 +1,25 @@
+package com.redhat.cloud.notifications.db;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Records the cache invalidations fired in this instance, as a cache of the application would observe them.
+@ApplicationScoped
+public class CacheInvalidationRecorder {
+
+    private final List<CacheInvalidation> invalidations = new CopyOnWriteArrayList<>();
+
+    void onInvalidation(@Observes CacheInvalidation invalidation) {
+        invalidations.add(invalidation);
+    }
+
+    public void clear() {
+        invalidations.clear();
+    }
+
+    public boolean isInvalidated(String cacheName) {
+        return invalidations.stream().anyMatch(invalidation -> invalidation.concerns(cacheName));
+    }
+}
@@ -5,6 +5,9 @@ import com.redhat.cloud.notifications.models.BehaviorGroup;
 import com.redhat.cloud.notifications.models.BehaviorGroupAction;
 import com.redhat.cloud.notifications.models.Bundle;
 import com.redhat.cloud.notifications.models.EmailAggregation;
+import com.redhat.cloud.notifications.models.EmailAggregationPayloadHash;
+import com.redhat.cloud.notifications.models.EmailAggregationRun;
+import com.redhat.cloud.notifications.models.EmailAggregationSummary;
 import com.redhat.cloud.notifications.models.EmailSubscription;
 import com.redhat.cloud.notifications.models.Endpoint;
 import com.redhat.cloud.notifications.models.EndpointDefault;
@@ -52,6 +55,9 @@ public class DbCleaner {
     @DELETE
     public void clean() {
         session.withTransaction(transaction -> deleteAllFrom(EmailAggregation.class)
+                .chain(() -> deleteAllFrom(EmailAggregationRun.class))
+                .chain(() -> deleteAllFrom(EmailAggregationSummary.class))
+                .chain(() -> deleteAllFrom(EmailAggregationPayloadHash.class))
                 .chain(() -> deleteAllFrom(EmailSubscription.class))
                 .chain(() -> deleteAllFrom(NotificationHistory.class))
                 .chain(() -> deleteAllFrom(EndpointDefault.class)) // TODO [BG Phase 2] Delete this line
@@ -0,0 +1,264 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.TestHelpers;
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import com.redhat.cloud.notifications.models.EmailAggregation;
+import com.redhat.cloud.notifications.models.EmailAggregationKey;
+import com.redhat.cloud.notifications.processors.email.aggregators.PoliciesEmailPayloadAggregator;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.vertx.core.json.JsonObject;
+import org.hibernate.reactive.mutiny.Mutiny;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import javax.inject.Inject;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import static com.redhat.cloud.notifications.models.EmailSubscriptionType.DAILY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class EmailAggregationResourcesTest extends DbIsolatedTest {
+
+    private static final Logger LOGGER = Logger.getLogger(EmailAggregationResourcesTest.class.getName());
+
+    // The heap usage sampling is not precise and the garbage collector may run at any time.
+    private static final long MAX_HEAP_NOISE_MEGABYTES = 32L;
+
+    private static final String ACCOUNT_ID = "tenant";
+    private static final String BUNDLE = "rhel";
+    private static final String APPLICATION = "policies";
+
+    @Inject
+    Mutiny.Session session;
+
+    @Inject
+    ResourceHelpers helpers;
+
+    @Inject
+    EmailAggregationResources emailAggregationResources;
+
+    @Test
+    void testGetEmailAggregationIsPaginated() {
+        LocalDateTime start = LocalDateTime.now(ZoneOffset.UTC).minusMinutes(5L);
+        for (int i = 0; i < 7; i++) {
+            helpers.addEmailAggregation(ACCOUNT_ID, BUNDLE, APPLICATION, "policy-0" + i, "host-0" + i);
+        }
+        helpers.addEmailAggregation("other-tenant", BUNDLE, APPLICATION, "policy-01", "host-01");
+        LocalDateTime end = LocalDateTime.now(ZoneOffset.UTC).plusMinutes(5L);
+
+        EmailAggregationKey key = new EmailAggregationKey(ACCOUNT_ID, BUNDLE, APPLICATION);
+        for (int pageSize : new int[] {1, 3, 7, 100}) {
+            List<EmailAggregation> aggregations = emailAggregationResources.getEmailAggregation(key, start, end, pageSize)
+                    .collect().asList().await().indefinitely();
+            assertEquals(7, aggregations.size());
+            for (int i = 0; i < aggregations.size(); i++) {
+                assertEquals(ACCOUNT_ID, aggregations.get(i).getAccountId());
+                if (i > 0) {
+                    assertTrue(aggregations.get(i - 1).getId() < aggregations.get(i).getId());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testAddEmailAggregationsInsertsBatch() {
+        LocalDateTime start = LocalDateTime.now(ZoneOffset.UTC).minusMinutes(5L);
+        List<EmailAggregation> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            batch.add(TestHelpers.createEmailAggregation(ACCOUNT_ID, BUNDLE, APPLICATION, "policy-0" + i, "host-0" + i));
+        }
+        LocalDateTime end = LocalDateTime.now(ZoneOffset.UTC).plusMinutes(5L);
+
+        assertEquals(5, emailAggregationResources.addEmailAggregations(batch).await().indefinitely());
+
+        EmailAggregationKey key = new EmailAggregationKey(ACCOUNT_ID, BUNDLE, APPLICATION);
+        List<EmailAggregation> aggregations = emailAggregationResources.getEmailAggregation(key, start, end)
+                .collect().asList().await().indefinitely();
+        assertEquals(5, aggregations.size());
+        assertEquals(new JsonObject(batch.get(0).getPayload().encode()), aggregations.get(0).getPayload());
+    }
+
+    @Test
+    void testDuplicatePayloadsAreStoredOnce() {
+        LocalDateTime start = LocalDateTime.now(ZoneOffset.UTC).minusMinutes(5L);
+        EmailAggregation aggregation = TestHelpers.createEmailAggregation(ACCOUNT_ID, BUNDLE, APPLICATION, "policy-01", "host-01");
+        aggregation.setPayloadHash("same-hash");
+        EmailAggregation duplicate = TestHelpers.createEmailAggregation(ACCOUNT_ID, BUNDLE, APPLICATION, "policy-01", "host-01");
+        duplicate.setPayloadHash("same-hash");
+        EmailAggregation otherApplication = TestHelpers.createEmailAggregation(ACCOUNT_ID, BUNDLE, "other-application", "policy-01", "host-01");
+        otherApplication.setPayloadHash("same-hash");
+        LocalDateTime end = LocalDateTime.now(ZoneOffset.UTC).plusMinutes(5L);
+
+        assertEquals(1, emailAggregationResources.addEmailAggregations(List.of(aggregation)).await().indefinitely());
+        assertEquals(0, emailAggregationResources.addEmailAggregations(List.of(duplicate)).await().indefinitely());
+        assertEquals(1, emailAggregationResources.addEmailAggregations(List.of(otherApplication)).await().indefinitely());
+
+        EmailAggregationKey key = new EmailAggregationKey(ACCOUNT_ID, BUNDLE, APPLICATION);
+        assertEquals(1, emailAggregationResources.getEmailAggregation(key, start, end).collect().asList().await().indefinitely().size());
+    }
+
+    @Test
+    void testDuplicatePayloadIsStoredAgainInNextWindow() {
+        EmailAggregation aggregation = TestHelpers.createEmailAggregation(ACCOUNT_ID, BUNDLE, APPLICATION, "policy-01", "host-01");
+        aggregation.setPayloadHash("same-hash");
+        EmailAggregation duplicate = TestHelpers.createEmailAggregation(ACCOUNT_ID, BUNDLE, APPLICATION, "policy-01", "host-01");
+        duplicate.setPayloadHash("same-hash");
+        EmailAggregation retrigger = TestHelpers.createEmailAggregation(ACCOUNT_ID, BUNDLE, APPLICATION, "policy-01", "host-01");
+        retrigger.setPayloadHash("same-hash");
+
+        // A payload repeated within a batch is stored once
+        assertEquals(1, emailAggregationResources.addEmailAggregations(List.of(aggregation, duplicate)).await().indefinitely());
+
+        // The window of the first aggregation is over, it was included in the previous digest
+        session.createNativeQuery("UPDATE email_aggregation_payload_hash SET window_start = window_start - INTERVAL '1 day'")
+                .executeUpdate()
+                .await().indefinitely();
+        assertEquals(1, emailAggregationResources.addEmailAggregations(List.of(retrigger)).await().indefinitely());
+    }
+
+    @Test
+    void testFailedInsertionDoesNotStorePayloadHash() {
+        EmailAggregation aggregation = TestHelpers.createEmailAggregation(ACCOUNT_ID, BUNDLE, APPLICATION, "policy-01", "host-01");
+        aggregation.setPayloadHash("same-hash");
+        // The account_id column is limited to 50 characters, that aggregation fails the whole statement.
+        EmailAggregation rejected = TestHelpers.createEmailAggregation("x".repeat(51), BUNDLE, APPLICATION, "policy-02", "host-02");
+        rejected.setPayloadHash("other-hash");
+
+        assertThrows(Exception.class, () -> emailAggregationResources.addEmailAggregations(List.of(aggregation, rejected)).await().indefinitely());
+
+        // The retry of the upstream producer is stored
+        EmailAggregation retry = TestHelpers.createEmailAggregation(ACCOUNT_ID, BUNDLE, APPLICATION, "policy-01", "host-01");
+        retry.setPayloadHash("same-hash");
+        assertEquals(1, emailAggregationResources.addEmailAggregations(List.of(retry)).await().indefinitely());
+    }
+
+    @Test
+    void testDailyWindowStart() {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        LocalDateTime start = emailAggregationResources.getDailyWindowStart(now);
+        assertTrue(start.isBefore(now));
+        assertFalse(start.plusDays(1L).isBefore(now));
+        // The end of a window belongs to that window
+        LocalDateTime nextStart = emailAggregationResources.getDailyWindowStart(start.plusDays(1L).plusSeconds(1L));
+        assertEquals(start, emailAggregationResources.getDailyWindowStart(nextStart));
+        assertEquals(nextStart, emailAggregationResources.getDailyWindowStart(nextStart.plusSeconds(1L)));
+    }
+
+    @Test
+    void testRunShardsAreSharedByOwners() {
+        LocalDateTime end = LocalDateTime.now(ZoneOffset.UTC).withNano(0);
+        LocalDateTime start = end.minusDays(1L);
+        Duration lease = Duration.ofMinutes(5L);
+
+        assertEquals(2, emailAggregationResources.startRun(DAILY, start, end, 2).await().indefinitely());
+        // The shards count of a started window cannot change
+        assertEquals(2, emailAggregationResources.startRun(DAILY, start, end, 4).await().indefinitely());
+
+        assertEquals(0, emailAggregationResources.claimShard(DAILY, start, end, "replica-1", lease).await().indefinitely());
+        assertEquals(1, emailAggregationResources.claimShard(DAILY, start, end, "replica-2", lease).await().indefinitely());
+        assertNull(emailAggregationResources.claimShard(DAILY, start, end, "replica-3", lease).await().indefinitely());
+
+        assertTrue(emailAggregationResources.completeShard(DAILY, start, end, 0, "replica-1").await().indefinitely());
+        assertFalse(emailAggregationResources.renewShardLease(DAILY, start, end, 1, "replica-1", lease).await().indefinitely());
+        assertEquals(0, emailAggregationResources.completeRun(DAILY, start, end).await().indefinitely());
+        assertEquals(1L, emailAggregationResources.countUncompletedShards(DAILY, start, end).await().indefinitely());
+
+        // The second replica dies: its lease expires and the shard is taken over
+        assertTrue(emailAggregationResources.renewShardLease(DAILY, start, end, 1, "replica-2", Duration.ZERO).await().indefinitely());
+        assertEquals(1, emailAggregationResources.claimShard(DAILY, start, end, "replica-3", lease).await().indefinitely());
+        assertFalse(emailAggregationResources.completeShard(DAILY, start, end, 1, "replica-2").await().indefinitely());
+        assertTrue(emailAggregationResources.completeShard(DAILY, start, end, 1, "replica-3").await().indefinitely());
+        assertEquals(1, emailAggregationResources.completeRun(DAILY, start, end).await().indefinitely());
+
+        // A completed window is processed again when it is restarted
+        emailAggregationResources.startRun(DAILY, start, end, 2).await().indefinitely();
+        assertEquals(2L, emailAggregationResources.countUncompletedShards(DAILY, start, end).await().indefinitely());
+    }
+
+    /*
+     * Run with: mvn test -Dtest=EmailAggregationResourcesTest -Dbenchmark=true
+     * The peak heap usage should stay roughly the same regardless of the number of aggregations of the key.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkGetEmailAggregationHeapUsage() throws InterruptedException {
+        LocalDateTime start = LocalDateTime.now(ZoneOffset.UTC).minusMinutes(5L);
+        String payload = TestHelpers.createEmailAggregation(ACCOUNT_ID, BUNDLE, APPLICATION, "policy-01", "host-01").getPayload().encode();
+        EmailAggregationKey key = new EmailAggregationKey(ACCOUNT_ID, BUNDLE, APPLICATION);
+
+        int inserted = 0;
+        long firstHeapIncreaseMegabytes = -1L;
+        for (int rows : new int[] {10_000, 50_000, 250_000}) {
+            insertAggregations(rows - inserted, payload);
+            inserted = rows;
+            LocalDateTime end = LocalDateTime.now(ZoneOffset.UTC).plusMinutes(5L);
+
+            System.gc();
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            long baseline = memory.getHeapMemoryUsage().getUsed();
+            AtomicLong peak = new AtomicLong(baseline);
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread sampler = new Thread(() -> {
+                while (running.get()) {
+                    peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                    try {
+                        Thread.sleep(5L);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            sampler.start();
+
+            long startNanos = System.nanoTime();
+            PoliciesEmailPayloadAggregator aggregator = emailAggregationResources.getEmailAggregation(key, start, end)
+                    .collect().in(PoliciesEmailPayloadAggregator::new, PoliciesEmailPayloadAggregator::aggregate)
+                    .await().indefinitely();
+            long durationMillis = (System.nanoTime() - startNanos) / 1_000_000L;
+
+            running.set(false);
+            sampler.join();
+
+            long heapIncreaseMegabytes = (peak.get() - baseline) / (1024 * 1024);
+            LOGGER.info(String.format("%d aggregations: %d ms, peak heap increase: %d MB", rows, durationMillis, heapIncreaseMegabytes));
+            assertEquals(rows, aggregator.getProcessedAggregations());
+            if (firstHeapIncreaseMegabytes < 0L) {
+                firstHeapIncreaseMegabytes = heapIncreaseMegabytes;
+            } else {
+                // The rows are streamed, so 25 times more rows must not need much more heap.
+                assertTrue(heapIncreaseMegabytes <= 2L * firstHeapIncreaseMegabytes + MAX_HEAP_NOISE_MEGABYTES,
+                        "Peak heap increase grew from " + firstHeapIncreaseMegabytes + " MB to " + heapIncreaseMegabytes + " MB");
+            }
+        }
+    }
+
+    private void insertAggregations(int count, String payload) {
+        String query = "INSERT INTO email_aggregation (id, account_id, bundle, application, created, payload) " +
+                "SELECT nextval('email_aggregation_id_seq'), :accountId, :bundle, :application, :created, :payload FROM generate_series(1, :count)";
+        session.createNativeQuery(query)
+                .setParameter("accountId", ACCOUNT_ID)
+                .setParameter("bundle", BUNDLE)
+                .setParameter("application", APPLICATION)
+                .setParameter("created", LocalDateTime.now(ZoneOffset.UTC))
+                .setParameter("payload", payload)
+                .setParameter("count", count)
+                .executeUpdate()
+                .await().indefinitely();
+    }
+}
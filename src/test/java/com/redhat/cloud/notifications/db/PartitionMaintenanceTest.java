@@ -0,0 +1,203 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.reactive.mutiny.Mutiny;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static com.redhat.cloud.notifications.db.PartitionMaintenance.EMAIL_AGGREGATION_TABLE;
+import static com.redhat.cloud.notifications.db.PartitionMaintenance.NOTIFICATION_HISTORY_FAILURE_INDEXES;
+import static com.redhat.cloud.notifications.db.PartitionMaintenance.NOTIFICATION_HISTORY_TABLE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class PartitionMaintenanceTest extends DbIsolatedTest {
+
+    @Inject
+    Mutiny.SessionFactory sessionFactory;
+
+    @Inject
+    PartitionMaintenance partitionMaintenance;
+
+    @Inject
+    PartitionResources partitionResources;
+
+    @Inject
+    NotificationResources notificationResources;
+
+    @ConfigProperty(name = "db.partition.days_ahead")
+    int daysAhead;
+
+    @ConfigProperty(name = "notification.history.retention")
+    Duration notificationHistoryRetention;
+
+    @Test
+    void testPartitionsAreCreatedAndDropped() {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        LocalDate today = now.toLocalDate();
+
+        try {
+            partitionMaintenance.maintain(now).await().indefinitely();
+            List<String> partitions = getPartitions();
+            for (int i = 0; i <= daysAhead; i++) {
+                assertTrue(partitions.contains(PartitionResources.getPartitionName(EMAIL_AGGREGATION_TABLE, today.plusDays(i))));
+            }
+
+            // Ten days later, the partition of today has expired.
+            partitionMaintenance.maintain(now.plusDays(10L)).await().indefinitely();
+            partitions = getPartitions();
+            assertFalse(partitions.contains(PartitionResources.getPartitionName(EMAIL_AGGREGATION_TABLE, today)));
+            // The partition was detached before it was dropped, no table is left behind
+            assertFalse(tableExists(PartitionResources.getPartitionName(EMAIL_AGGREGATION_TABLE, today)));
+            assertTrue(partitions.contains(PartitionResources.getPartitionName(EMAIL_AGGREGATION_TABLE, today.plusDays(10L))));
+            assertTrue(partitions.contains(EMAIL_AGGREGATION_TABLE + "_default"));
+        } finally {
+            // The partitions of the current days are restored for the other tests.
+            partitionResources.createDailyPartitions(EMAIL_AGGREGATION_TABLE, today, 10).await().indefinitely();
+        }
+    }
+
+    @Test
+    void testNotificationHistoryPartitionsExpireAfterRetention() {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        LocalDate today = now.toLocalDate();
+        String todayPartition = PartitionResources.getPartitionName(NOTIFICATION_HISTORY_TABLE, today);
+
+        try {
+            partitionMaintenance.maintain(now).await().indefinitely();
+            List<String> partitions = getPartitions(NOTIFICATION_HISTORY_TABLE);
+            for (int i = 0; i <= daysAhead; i++) {
+                assertTrue(partitions.contains(PartitionResources.getPartitionName(NOTIFICATION_HISTORY_TABLE, today.plusDays(i))));
+            }
+
+            // The history is kept longer than the email aggregations.
+            partitionMaintenance.maintain(now.plusDays(10L)).await().indefinitely();
+            assertTrue(getPartitions(NOTIFICATION_HISTORY_TABLE).contains(todayPartition));
+
+            partitionMaintenance.maintain(now.plus(notificationHistoryRetention).plusDays(1L)).await().indefinitely();
+            assertFalse(getPartitions(NOTIFICATION_HISTORY_TABLE).contains(todayPartition));
+        } finally {
+            // The partitions of the current days are restored for the other tests.
+            partitionResources.createDailyPartitions(EMAIL_AGGREGATION_TABLE, today, 10).await().indefinitely();
+            partitionResources.createDailyPartitions(NOTIFICATION_HISTORY_TABLE, today, 10).await().indefinitely();
+        }
+    }
+
+    @Test
+    void testDetachedPartitionIsDropped() {
+        LocalDate day = LocalDate.now(ZoneOffset.UTC).minusDays(30L);
+        String partition = PartitionResources.getPartitionName(EMAIL_AGGREGATION_TABLE, day);
+        // An interrupted run detached this partition without dropping it
+        partitionResources.createDailyPartitions(EMAIL_AGGREGATION_TABLE, day, 1).await().indefinitely();
+        sessionFactory.withSession(session -> session.createNativeQuery("ALTER TABLE " + EMAIL_AGGREGATION_TABLE + " DETACH PARTITION " + partition)
+                .executeUpdate()
+        ).await().indefinitely();
+        assertFalse(getPartitions().contains(partition));
+        assertTrue(tableExists(partition));
+
+        List<String> dropped = partitionResources.dropDailyPartitionsBefore(EMAIL_AGGREGATION_TABLE, day.plusDays(1L)).await().indefinitely();
+        assertTrue(dropped.contains(partition));
+        assertFalse(tableExists(partition));
+    }
+
+    @Test
+    void testNotificationHistoryFailureIndexesAreBuilt() {
+        partitionMaintenance.maintain(LocalDateTime.now(ZoneOffset.UTC)).await().indefinitely();
+        for (String index : NOTIFICATION_HISTORY_FAILURE_INDEXES) {
+            assertTrue(partitionResources.getPartitionsWithoutIndex(NOTIFICATION_HISTORY_TABLE, index).await().indefinitely().isEmpty());
+            // The partitioned index is valid once the indexes of all partitions are attached
+            String query = "SELECT x.indisvalid FROM pg_catalog.pg_index x WHERE x.indexrelid = CAST(:index AS regclass)";
+            assertEquals(Boolean.TRUE, sessionFactory.withSession(session -> session.createNativeQuery(query)
+                    .setParameter("index", index)
+                    .getSingleResult()
+            ).await().indefinitely());
+        }
+    }
+
+    @Test
+    void testNotificationHistoryFailureColumnsBackfill() {
+        // These entries were inserted before the failure columns were filled on insert.
+        UUID unavailable = insertNotificationHistory("{\"code\":503}");
+        UUID timeout = insertNotificationHistory("{\"error_type\":\"timeout\"}");
+        UUID success = insertNotificationHistory(null);
+
+        String partitionQuery = "SELECT CAST(CAST(tableoid AS regclass) AS text) FROM notification_history WHERE id = :id";
+        String partition = String.valueOf(sessionFactory.withSession(session -> session.createNativeQuery(partitionQuery)
+                .setParameter("id", unavailable)
+                .getSingleResult()
+        ).await().indefinitely());
+        // The batch size makes the backfill run one transaction per entry
+        notificationResources.backfillFailureColumns(partition, 1).await().indefinitely();
+
+        assertArrayEquals(new Object[] {503, null}, getFailureColumns(unavailable));
+        assertArrayEquals(new Object[] {null, "timeout"}, getFailureColumns(timeout));
+        assertArrayEquals(new Object[] {null, null}, getFailureColumns(success));
+    }
+
+    @Test
+    void testIsDailyPartitionBefore() {
+        LocalDate day = LocalDate.of(2021, 5, 10);
+        assertTrue(PartitionResources.isDailyPartitionBefore("email_aggregation", "email_aggregation_p20210509", day));
+        assertFalse(PartitionResources.isDailyPartitionBefore("email_aggregation", "email_aggregation_p20210510", day));
+        assertFalse(PartitionResources.isDailyPartitionBefore("email_aggregation", "email_aggregation_default", day));
+        assertFalse(PartitionResources.isDailyPartitionBefore("email_aggregation", "email_aggregation_summary", day));
+    }
+
+    private UUID insertNotificationHistory(String details) {
+        UUID id = UUID.randomUUID();
+        String query = "INSERT INTO notification_history (id, account_id, created, invocation_time, invocation_result, details) " +
+                "VALUES (:id, 'tenant', now() AT TIME ZONE 'UTC', 1, :result, :details)";
+        sessionFactory.withSession(session -> session.createNativeQuery(query)
+                .setParameter("id", id)
+                .setParameter("result", details == null)
+                .setParameter("details", details)
+                .executeUpdate()
+        ).await().indefinitely();
+        return id;
+    }
+
+    private Object[] getFailureColumns(UUID id) {
+        String query = "SELECT status_code, error_type FROM notification_history WHERE id = :id";
+        return sessionFactory.withSession(session -> session.<Object[]>createNativeQuery(query)
+                .setParameter("id", id)
+                .getSingleResult()
+        ).await().indefinitely();
+    }
+
+    private boolean tableExists(String table) {
+        return sessionFactory.withSession(session -> session.createNativeQuery("SELECT to_regclass(:table) IS NOT NULL")
+                .setParameter("table", table)
+                .getSingleResult()
+        ).await().indefinitely().equals(Boolean.TRUE);
+    }
+
+    private List<String> getPartitions() {
+        return getPartitions(EMAIL_AGGREGATION_TABLE);
+    }
+
+    private List<String> getPartitions(String table) {
+        String query = "SELECT c.relname FROM pg_catalog.pg_inherits i " +
+                "JOIN pg_catalog.pg_class c ON c.oid = i.inhrelid " +
+                "JOIN pg_catalog.pg_class p ON p.oid = i.inhparent " +
+                "WHERE p.relname = :table";
+        return sessionFactory.withSession(session -> session.createNativeQuery(query)
+                .setParameter("table", table)
+                .getResultList()
+        ).await().indefinitely().stream().map(String::valueOf).collect(Collectors.toList());
+    }
+}
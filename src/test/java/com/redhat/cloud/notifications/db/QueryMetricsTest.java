@@ -0,0 +1,53 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import com.redhat.cloud.notifications.models.EndpointType;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.util.List;
+import java.util.UUID;
+
+import static com.redhat.cloud.notifications.db.QueryMetrics.ACTIVE_QUERIES_GAUGE_NAME;
+import static com.redhat.cloud.notifications.db.QueryMetrics.QUERY_TIMER_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class QueryMetricsTest extends DbIsolatedTest {
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    BundleResources bundleResources;
+
+    @Test
+    void testQueryTimer() {
+        long countBefore = getTimerCount("BundleResources.getBundles");
+        bundleResources.getBundles().collect().asList().await().indefinitely();
+        bundleResources.getBundles().collect().asList().await().indefinitely();
+        assertEquals(countBefore + 2, getTimerCount("BundleResources.getBundles"));
+    }
+
+    @Test
+    void testCancelledQueryIsNoLongerActive() {
+        double activeBefore = registry.get(ACTIVE_QUERIES_GAUGE_NAME).gauge().value();
+        bundleResources.getBundle(UUID.randomUUID()).subscribe().with(bundle -> { }).cancel();
+        assertEquals(activeBefore, registry.get(ACTIVE_QUERIES_GAUGE_NAME).gauge().value());
+    }
+
+    @Test
+    void testSanitizeParameters() {
+        UUID id = UUID.randomUUID();
+        Object[] parameters = {"someone@example.com", id, 10, EndpointType.WEBHOOK, List.of("a", "b"), null};
+        assertEquals("[String, " + id + ", 10, WEBHOOK, Collection(size=2), null]", QueryMetrics.sanitize(parameters));
+    }
+
+    private long getTimerCount(String queryName) {
+        return registry.timer(QUERY_TIMER_NAME, "query", queryName, "outcome", "success").count();
+    }
+}
@@ -0,0 +1,238 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.MockServerClientConfig;
+import com.redhat.cloud.notifications.MockServerConfig;
+import com.redhat.cloud.notifications.TestConstants;
+import com.redhat.cloud.notifications.TestHelpers;
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import com.redhat.cloud.notifications.models.EmailSubscriptionType;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.hibernate.reactive.mutiny.Mutiny;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/*
+ * Each test runs a query of the resources classes, captures the SQL generated by Hibernate from the org.hibernate.SQL
+ * log category and checks its plan: the expected index has to be used with an Index Cond on its leading column. A full
+ * scan of an index on which the query only filters a non-leading column would not be enough.
+ *
+ * The test database is almost empty, so PostgreSQL would pick a sequential scan for all of these queries. Sequential
+ * scans are disabled in the transaction that runs EXPLAIN, as well as the partition pruning, which would otherwise
+ * remove all partitions from the generic plan since the parameters are not bound.
+ */
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class QueryPlanTest extends DbIsolatedTest {
+
+    private static final String ACCOUNT_ID = "plan-account";
+    private static final String SQL_LOGGER = "org.hibernate.SQL";
+    private static final Pattern INDEX_SCAN = Pattern.compile("(?:Index Scan|Index Only Scan) using (\\S+) on |Bitmap Index Scan on (\\S+)");
+    private static final Pattern PARAMETER = Pattern.compile("\\$(\\d+)");
+
+    @Inject
+    Mutiny.SessionFactory sessionFactory;
+
+    @Inject
+    EndpointEmailSubscriptionResources emailSubscriptionResources;
+
+    @Inject
+    EmailAggregationResources emailAggregationResources;
+
+    @Inject
+    BehaviorGroupResources behaviorGroupResources;
+
+    @Inject
+    ApplicationResources applicationResources;
+
+    @Inject
+    NotificationResources notificationResources;
+
+    @MockServerConfig
+    MockServerClientConfig mockServerConfig;
+
+    @Test
+    void testEmailSubscribers() {
+        List<String> statements = captureSql(() -> emailSubscriptionResources.getEmailSubscribers(ACCOUNT_ID, "rhel", "policies", EmailSubscriptionType.DAILY)
+                .collect().asList().await().indefinitely());
+        assertIndexCondition(findStatement(statements, "from endpoint_email_subscriptions "), "ix_endpoint_email_subscriptions_subscribers");
+    }
+
+    @Test
+    void testApplicationsWithPendingAggregation() {
+        LocalDateTime end = LocalDateTime.now(ZoneOffset.UTC);
+        List<String> statements = captureSql(() -> emailAggregationResources.getApplicationsWithPendingAggregation(end.minusDays(1L), end)
+                .collect().asList().await().indefinitely());
+        assertIndexCondition(findStatement(statements, "from email_aggregation "), "ix_email_aggregation_created");
+    }
+
+    @Test
+    void testEventTypesByEndpoint() {
+        List<String> statements = captureSql(() -> applicationResources.getEventTypesByEndpointId_BG(ACCOUNT_ID, UUID.randomUUID())
+                .await().indefinitely());
+        assertIndexCondition(findStatement(statements, "behavior_group_action "), "ix_behavior_group_action_endpoint_id");
+    }
+
+    @Test
+    void testEventTypesByBehaviorGroup() {
+        List<String> statements = captureSql(() -> behaviorGroupResources.findEventTypesByBehaviorGroupId(ACCOUNT_ID, UUID.randomUUID())
+                .await().indefinitely());
+        assertIndexCondition(findStatement(statements, "event_type_behavior "), "ix_event_type_behavior_behavior_group_id");
+    }
+
+    @Test
+    void testBehaviorGroupsByBundle() {
+        List<String> statements = captureSql(() -> behaviorGroupResources.findByBundleId(ACCOUNT_ID, UUID.randomUUID())
+                .await().indefinitely());
+        assertIndexCondition(findStatement(statements, "from behavior_group "), "ix_behavior_group_account_bundle");
+    }
+
+    @Test
+    void testEndpointsPage() {
+        // The Query parameters are only set by JAX-RS, so the page is requested through the REST API.
+        String identityHeaderValue = TestHelpers.encodeIdentityInfo(ACCOUNT_ID, "user");
+        mockServerConfig.addMockRbacAccess(identityHeaderValue, MockServerClientConfig.RbacAccess.FULL_ACCESS);
+        List<String> statements = captureSql(() -> given()
+                .basePath(TestConstants.API_INTEGRATIONS_V_1_0)
+                .header(TestHelpers.createIdentityHeader(identityHeaderValue))
+                .queryParam("sort_by", "name")
+                .queryParam("limit", 10)
+                .when().get("/endpoints")
+                .then().statusCode(200));
+        assertIndexCondition(findStatement(statements, "order by "), "ix_endpoints_account_name");
+    }
+
+    @Test
+    void testEndpointHistoryPage() {
+        List<String> statements = captureSql(() -> notificationResources.getNotificationHistory(ACCOUNT_ID, UUID.randomUUID(), HistoryFilter.NONE, null, 100)
+                .await().indefinitely());
+        assertIndexCondition(findStatement(statements, "from notification_history "), "ix_notification_history_account_endpoint_created");
+    }
+
+    private List<String> captureSql(Runnable queries) {
+        List<String> statements = new CopyOnWriteArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                // The statements may be formatted on several lines.
+                statements.add(record.getMessage().replaceAll("\\s+", " ").trim());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(SQL_LOGGER);
+        Level level = logger.getLevel();
+        boolean useParentHandlers = logger.getUseParentHandlers();
+        logger.setLevel(Level.FINE);
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        try {
+            queries.run();
+        } finally {
+            logger.removeHandler(handler);
+            logger.setUseParentHandlers(useParentHandlers);
+            logger.setLevel(level);
+        }
+        return statements;
+    }
+
+    private static String findStatement(List<String> statements, String fragment) {
+        return statements.stream()
+                .filter(statement -> statement.toLowerCase().startsWith("select ") && statement.toLowerCase().contains(fragment))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No statement containing '" + fragment + "' in:\n" + String.join("\n", statements)));
+    }
+
+    private void assertIndexCondition(String query, String index) {
+        Set<String> indexes = getIndexAndPartitionIndexes(index);
+        Pattern leadingColumn = Pattern.compile("(?<!\\w)" + getLeadingColumn(index) + "(?!\\w)");
+        List<String> plan = explain(query);
+        for (int i = 0; i < plan.size(); i++) {
+            Matcher matcher = INDEX_SCAN.matcher(plan.get(i));
+            if (matcher.find() && indexes.contains(matcher.group(1) != null ? matcher.group(1) : matcher.group(2))) {
+                // The properties of a plan node are the following lines, indented deeper than the node itself.
+                for (int j = i + 1; j < plan.size() && !plan.get(j).contains("->") && indentation(plan.get(j)) > matcher.start(); j++) {
+                    String property = plan.get(j).trim();
+                    if (property.startsWith("Index Cond:") && leadingColumn.matcher(property).find()) {
+                        return;
+                    }
+                }
+            }
+        }
+        fail("No Index Cond on the leading column of " + index + " in the plan of:\n" + query + "\n" + String.join("\n", plan));
+    }
+
+    // The indexes of the partitions of a partitioned table are attached to the index of the table.
+    private Set<String> getIndexAndPartitionIndexes(String index) {
+        String query = "SELECT c.relname::text FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent " +
+                "WHERE p.relname = :index";
+        List<Object> partitionIndexes = sessionFactory.withSession(session -> session.createNativeQuery(query)
+                .setParameter("index", index)
+                .getResultList()
+        ).await().indefinitely();
+        Set<String> indexes = partitionIndexes.stream().map(String::valueOf).collect(Collectors.toSet());
+        indexes.add(index);
+        return indexes;
+    }
+
+    private String getLeadingColumn(String index) {
+        String query = "SELECT a.attname::text FROM pg_index x JOIN pg_class c ON c.oid = x.indexrelid " +
+                "JOIN pg_attribute a ON a.attrelid = x.indrelid AND a.attnum = x.indkey[0] WHERE c.relname = :index";
+        return sessionFactory.withSession(session -> session.createNativeQuery(query)
+                .setParameter("index", index)
+                .getSingleResult()
+        ).await().indefinitely().toString();
+    }
+
+    /*
+     * The generated SQL contains parameters, so it is prepared and the generic plan is explained: it doesn't depend on
+     * the parameter values, which can all be null.
+     */
+    private List<String> explain(String query) {
+        Matcher matcher = PARAMETER.matcher(query);
+        int parameters = 0;
+        while (matcher.find()) {
+            parameters = Math.max(parameters, Integer.parseInt(matcher.group(1)));
+        }
+        String arguments = parameters == 0 ? "" : "(" + String.join(", ", Collections.nCopies(parameters, "NULL")) + ")";
+        return sessionFactory.withTransaction((session, transaction) -> session.createNativeQuery("SET LOCAL enable_seqscan = off").executeUpdate()
+                .chain(() -> session.createNativeQuery("SET LOCAL enable_partition_pruning = off").executeUpdate())
+                .chain(() -> session.createNativeQuery("SET LOCAL plan_cache_mode = force_generic_plan").executeUpdate())
+                .chain(() -> session.createNativeQuery("PREPARE plan_check AS " + query).executeUpdate())
+                .chain(() -> session.createNativeQuery("EXPLAIN EXECUTE plan_check" + arguments).getResultList())
+                .call(() -> session.createNativeQuery("DEALLOCATE plan_check").executeUpdate())
+        ).await().indefinitely().stream().map(String::valueOf).collect(Collectors.toList());
+    }
+
+    private static int indentation(String line) {
+        int indentation = 0;
+        while (indentation < line.length() && line.charAt(indentation) == ' ') {
+            indentation++;
+        }
+        return indentation;
+    }
+}
@@ -0,0 +1,102 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.smallrye.mutiny.Uni;
+import org.hibernate.reactive.mutiny.Mutiny;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static com.redhat.cloud.notifications.db.ReadReplica.FALLBACKS_COUNTER;
+import static com.redhat.cloud.notifications.db.ReadReplica.LAG_GAUGE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class ReadReplicaTest extends DbIsolatedTest {
+
+    private static final String COUNT_BUNDLES_QUERY = "SELECT COUNT(*) FROM Bundle";
+
+    @Inject
+    Mutiny.SessionFactory sessionFactory;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicInteger replicaCalls = new AtomicInteger();
+
+    @Test
+    void testFailingReplicaFallsBackToPrimary() {
+        // The lag check succeeds, then the replica fails every query.
+        ReadReplica readReplica = buildReadReplica(call -> call == 1 ? Uni.createFrom().item(0L) : Uni.createFrom().failure(new IllegalStateException("Replica down")));
+        readReplica.measureLag().await().indefinitely();
+
+        assertEquals(countBundlesOnPrimary(), countBundles(readReplica));
+        assertEquals(2, replicaCalls.get());
+        assertEquals(1.0, registry.counter(FALLBACKS_COUNTER).count());
+
+        // The replica is no longer used until the next lag check.
+        assertEquals(countBundlesOnPrimary(), countBundles(readReplica));
+        assertEquals(2, replicaCalls.get());
+        assertEquals(1.0, registry.counter(FALLBACKS_COUNTER).count());
+    }
+
+    @Test
+    void testLaggingReplicaIsNotUsed() {
+        ReadReplica readReplica = buildReadReplica(call -> Uni.createFrom().item(60000L));
+        readReplica.measureLag().await().indefinitely();
+
+        assertEquals(60000.0, registry.get(LAG_GAUGE).gauge().value());
+        assertEquals(countBundlesOnPrimary(), countBundles(readReplica));
+        assertEquals(1, replicaCalls.get());
+        assertEquals(0.0, registry.counter(FALLBACKS_COUNTER).count());
+    }
+
+    @Test
+    void testUnresponsiveReplicaIsNotUsed() {
+        // The first lag check succeeds, the replica never answers after that.
+        ReadReplica readReplica = buildReadReplica(call -> call == 1 ? Uni.createFrom().item(0L) : Uni.createFrom().nothing());
+        readReplica.measureLag().await().indefinitely();
+        // The lag check gives up after max_lag instead of blocking.
+        readReplica.measureLag().await().atMost(Duration.ofSeconds(5L));
+
+        assertEquals(countBundlesOnPrimary(), countBundles(readReplica));
+        assertEquals(2, replicaCalls.get());
+        assertEquals(0.0, registry.counter(FALLBACKS_COUNTER).count());
+    }
+
+    /*
+     * The replica session factory ignores the unit of work and returns the result of the given function, which receives
+     * the number of the call.
+     */
+    private ReadReplica buildReadReplica(IntFunction<Uni<?>> replicaResults) {
+        ReadReplica readReplica = new ReadReplica();
+        readReplica.sessionFactory = sessionFactory;
+        readReplica.registry = registry;
+        readReplica.maxLag = Duration.ofMillis(500L);
+        readReplica.init();
+        readReplica.replicaSessionFactory = (Mutiny.SessionFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {Mutiny.SessionFactory.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("withSession")) {
+                        return replicaResults.apply(replicaCalls.incrementAndGet());
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        return readReplica;
+    }
+
+    private Long countBundles(ReadReplica readReplica) {
+        return readReplica.withSession(session -> session.createQuery(COUNT_BUNDLES_QUERY, Long.class).getSingleResult())
+                .await().indefinitely();
+    }
+
+    private Long countBundlesOnPrimary() {
+        return sessionFactory.withSession(session -> session.createQuery(COUNT_BUNDLES_QUERY, Long.class).getSingleResult())
+                .await().indefinitely();
+    }
+}
@@ -0,0 +1,173 @@
+package com.redhat.cloud.notifications.db;
+
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import com.redhat.cloud.notifications.models.Application;
+import com.redhat.cloud.notifications.models.Bundle;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.ManagedContext;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.smallrye.mutiny.Uni;
+import org.hibernate.reactive.mutiny.Mutiny;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class ReferenceDataCacheTest extends DbIsolatedTest {
+
+    @Inject
+    Mutiny.SessionFactory sessionFactory;
+
+    @Inject
+    BundleResources bundleResources;
+
+    @Inject
+    CacheInvalidationBus invalidationBus;
+
+    @Inject
+    ApplicationResources applicationResources;
+
+    @Test
+    void testInvalidationOnWrite() {
+        Bundle bundle = bundleResources.createBundle(new Bundle("cached-bundle", "Cached bundle")).await().indefinitely();
+        assertEquals(bundle.getId(), getBundle("cached-bundle").getId());
+
+        // The bundle is deleted without going through the resources class, the cache is not invalidated.
+        deleteBundle("cached-bundle");
+        assertNotNull(getBundle("cached-bundle"));
+
+        // Any write operation on the reference data invalidates the cache.
+        bundleResources.createBundle(new Bundle("other-bundle", "Other bundle")).await().indefinitely();
+        assertNull(getBundle("cached-bundle"));
+    }
+
+    @Test
+    void testInvalidationFromAnotherInstance() throws InterruptedException {
+        bundleResources.createBundle(new Bundle("cached-bundle", "Cached bundle")).await().indefinitely();
+        assertNotNull(getBundle("cached-bundle"));
+        deleteBundle("cached-bundle");
+
+        // Simulates a write of the reference data in another instance of the application.
+        sessionFactory.withSession(session -> session.createNativeQuery("SELECT CAST(pg_notify(:channel, :payload) AS TEXT)")
+                .setParameter("channel", CacheInvalidationBus.CHANNEL)
+                .setParameter("payload", "other-instance" + CacheInvalidationBus.SEPARATOR + ReferenceDataCache.CACHE_NAME)
+                .getSingleResult()
+        ).await().indefinitely();
+
+        // The notification is delivered asynchronously.
+        for (int i = 0; i < 50 && getBundle("cached-bundle") != null; i++) {
+            Thread.sleep(100L);
+        }
+        assertNull(getBundle("cached-bundle"));
+    }
+
+    @Test
+    void testAssociationsOfCachedEntities() throws InterruptedException {
+        Bundle bundle = bundleResources.createBundle(new Bundle("cached-bundle", "Cached bundle")).await().indefinitely();
+        Application application = new Application();
+        application.setName("cached-application");
+        application.setDisplayName("Cached application");
+        application.setBundleId(bundle.getId());
+        UUID applicationId = applicationResources.createApplication(application).await().indefinitely().getId();
+
+        // The applications are cached by requests which are over, so their sessions are closed.
+        Application loadedById = loadInClosedRequest(() -> applicationResources.getApplication(applicationId));
+        Application loadedByName = loadInClosedRequest(() -> applicationResources.getApplication("cached-bundle", "cached-application"));
+
+        Application cachedById = applicationResources.getApplication(applicationId).await().indefinitely();
+        assertSame(loadedById, cachedById);
+        assertEquals("cached-bundle", cachedById.getBundle().getName());
+
+        Application cachedByName = applicationResources.getApplication("cached-bundle", "cached-application").await().indefinitely();
+        assertSame(loadedByName, cachedByName);
+        assertEquals("cached-bundle", cachedByName.getBundle().getName());
+    }
+
+    @Test
+    void testShortExpiryWhileDisconnected() throws InterruptedException {
+        // This bus was never started, so the invalidations of the other instances are not received.
+        ReferenceDataCache cache = buildCache(new CacheInvalidationBus());
+        AtomicInteger loads = new AtomicInteger();
+        load(cache, loads);
+        load(cache, loads);
+        assertEquals(1, loads.get());
+
+        Thread.sleep(300L);
+        load(cache, loads);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testLongExpiryWhileConnected() throws InterruptedException {
+        // The bus connects asynchronously during the startup.
+        for (int i = 0; i < 50 && !invalidationBus.isConnected(); i++) {
+            Thread.sleep(100L);
+        }
+        assertTrue(invalidationBus.isConnected());
+
+        ReferenceDataCache cache = buildCache(invalidationBus);
+        AtomicInteger loads = new AtomicInteger();
+        load(cache, loads);
+        Thread.sleep(300L);
+        load(cache, loads);
+        assertEquals(1, loads.get());
+    }
+
+    private ReferenceDataCache buildCache(CacheInvalidationBus bus) {
+        ReferenceDataCache cache = new ReferenceDataCache();
+        cache.registry = new SimpleMeterRegistry();
+        cache.invalidationBus = bus;
+        cache.expireAfterWrite = Duration.ofHours(1L);
+        cache.disconnectedExpireAfterWrite = Duration.ofMillis(100L);
+        cache.maxSize = 10L;
+        cache.init();
+        return cache;
+    }
+
+    // The request context is bound to the thread, the request session is closed when the context is terminated.
+    private <T> T loadInClosedRequest(Supplier<Uni<T>> loader) throws InterruptedException {
+        AtomicReference<T> result = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            ManagedContext requestContext = Arc.container().requestContext();
+            requestContext.activate();
+            try {
+                result.set(loader.get().await().indefinitely());
+            } finally {
+                requestContext.terminate();
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotNull(result.get());
+        return result.get();
+    }
+
+    private void load(ReferenceDataCache cache, AtomicInteger loads) {
+        cache.get(() -> Uni.createFrom().item(loads.incrementAndGet()), "test-key").await().indefinitely();
+    }
+
+    private void deleteBundle(String name) {
+        sessionFactory.withTransaction((session, transaction) -> session.createQuery("DELETE FROM Bundle WHERE name = :name")
+                .setParameter("name", name)
+                .executeUpdate()
+        ).await().indefinitely();
+    }
+
+    private Bundle getBundle(String name) {
+        return bundleResources.getBundle(name).await().indefinitely();
+    }
+}
@@ -10,11 +10,13 @@ import com.redhat.cloud.notifications.models.Endpoint;
 import com.redhat.cloud.notifications.models.EndpointType;
 import com.redhat.cloud.notifications.models.EventType;
 import com.redhat.cloud.notifications.models.HttpType;
+import com.redhat.cloud.notifications.models.NotificationHistory;
 import com.redhat.cloud.notifications.models.WebhookAttributes;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @ApplicationScoped
@@ -40,6 +42,9 @@ public class ResourceHelpers {
     @Inject
     EmailAggregationResources emailAggregationResources;
 
+    @Inject
+    NotificationResources notificationResources;
+
     public List<Application> getApplications(String bundleName) {
         return appResources.getApplications(bundleName).collect().asList().await().indefinitely();
     }
@@ -127,6 +132,27 @@ public class ResourceHelpers {
         return resources.createEndpoint(ep).await().indefinitely().getId();
     }
 
+    public UUID createNotificationHistory(String tenant, UUID endpointId, boolean invocationResult) {
+        return createNotificationHistory(tenant, endpointId, invocationResult, null, null);
+    }
+
+    public UUID createNotificationHistory(String tenant, UUID endpointId, boolean invocationResult, Integer statusCode, String errorType) {
+        NotificationHistory history = new NotificationHistory();
+        if (statusCode != null) {
+            history.setDetails(Map.of("code", statusCode));
+            history.setStatusCode(statusCode);
+        } else if (errorType != null) {
+            history.setDetails(Map.of("error_type", errorType));
+            history.setErrorType(errorType);
+        }
+        history.setAccountId(tenant);
+        history.setEndpointId(endpointId);
+        history.setEventId(UUID.randomUUID().toString());
+        history.setInvocationTime(1L);
+        history.setInvocationResult(invocationResult);
+        return notificationResources.createNotificationHistory(history).await().indefinitely().getId();
+    }
+
     public void assignEndpointToEventType(String tenant, UUID endpointId, UUID eventTypeId) {
         resources.linkEndpoint(tenant, endpointId, eventTypeId).await().indefinitely();
     }
@@ -0,0 +1,70 @@
+package com.redhat.cloud.notifications.processors.email;
+
+import com.redhat.cloud.notifications.TestHelpers;
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import com.redhat.cloud.notifications.db.DbIsolatedTest;
+import com.redhat.cloud.notifications.db.EmailAggregationResources;
+import com.redhat.cloud.notifications.models.EmailAggregation;
+import com.redhat.cloud.notifications.models.EmailAggregationKey;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class EmailAggregationBufferTest extends DbIsolatedTest {
+
+    private static final String ACCOUNT_ID = "tenant";
+    private static final String BUNDLE = "rhel";
+    private static final String APPLICATION = "policies";
+
+    @Inject
+    EmailAggregationResources emailAggregationResources;
+
+    @Inject
+    EmailAggregationDeduplicator emailAggregationDeduplicator;
+
+    @Test
+    void testRejectedAggregationIsDeadLettered() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        EmailAggregationBuffer buffer = new EmailAggregationBuffer();
+        buffer.emailAggregationResources = emailAggregationResources;
+        buffer.emailAggregationDeduplicator = emailAggregationDeduplicator;
+        buffer.registry = registry;
+        buffer.enabled = true;
+        buffer.batchSize = 10;
+        buffer.capacity = 100;
+        buffer.init();
+
+        LocalDateTime start = LocalDateTime.now(ZoneOffset.UTC).minusMinutes(5L);
+        for (int i = 0; i < 7; i++) {
+            // The account_id column is limited to 50 characters, the database rejects that aggregation every time.
+            String accountId = i == 3 ? "x".repeat(51) : ACCOUNT_ID;
+            assertTrue(buffer.offer(TestHelpers.createEmailAggregation(accountId, BUNDLE, APPLICATION, "policy-0" + i, "host-0" + i)));
+        }
+
+        buffer.flush().await().indefinitely();
+        LocalDateTime end = LocalDateTime.now(ZoneOffset.UTC).plusMinutes(5L);
+
+        assertEquals(6.0, registry.counter(EmailAggregationBuffer.INSERTED_COUNTER_NAME).count());
+        assertEquals(1.0, registry.counter(EmailAggregationBuffer.DEAD_LETTER_COUNTER_NAME).count());
+        assertEquals(0.0, registry.counter(EmailAggregationBuffer.FLUSH_ERROR_COUNTER_NAME).count());
+
+        EmailAggregationKey key = new EmailAggregationKey(ACCOUNT_ID, BUNDLE, APPLICATION);
+        List<EmailAggregation> aggregations = emailAggregationResources.getEmailAggregation(key, start, end)
+                .collect().asList().await().indefinitely();
+        assertEquals(6, aggregations.size());
+        // The rejected aggregation is not retried by the next flush
+        buffer.flush().await().indefinitely();
+        assertEquals(1.0, registry.counter(EmailAggregationBuffer.DEAD_LETTER_COUNTER_NAME).count());
+    }
+}
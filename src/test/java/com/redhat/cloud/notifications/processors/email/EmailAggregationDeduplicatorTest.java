@@ -0,0 +1,75 @@
+package com.redhat.cloud.notifications.processors.email;
+
+import com.redhat.cloud.notifications.TestHelpers;
+import com.redhat.cloud.notifications.TestLifecycleManager;
+import com.redhat.cloud.notifications.db.EmailAggregationResources;
+import com.redhat.cloud.notifications.models.EmailAggregation;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+@QuarkusTestResource(TestLifecycleManager.class)
+public class EmailAggregationDeduplicatorTest {
+
+    @Inject
+    EmailAggregationResources emailAggregationResources;
+
+    private SimpleMeterRegistry registry;
+    private EmailAggregationDeduplicator deduplicator;
+
+    @BeforeEach
+    void init() {
+        registry = new SimpleMeterRegistry();
+        deduplicator = new EmailAggregationDeduplicator();
+        deduplicator.emailAggregationResources = emailAggregationResources;
+        deduplicator.registry = registry;
+        deduplicator.enabled = true;
+        deduplicator.maxSize = 100L;
+        deduplicator.init();
+    }
+
+    @Test
+    void testFailedInsertionIsRetried() {
+        // The first aggregation could not be stored, so it is not recorded
+        assertFalse(deduplicator.isDuplicate(createAggregation()));
+
+        EmailAggregation retry = createAggregation();
+        assertFalse(deduplicator.isDuplicate(retry));
+        deduplicator.markStored(retry);
+
+        assertTrue(deduplicator.isDuplicate(createAggregation()));
+        assertEquals(1.0, registry.counter(EmailAggregationDeduplicator.DUPLICATES_COUNTER_NAME).count());
+    }
+
+    @Test
+    void testPayloadIsAcceptedAgainInNextWindow() {
+        // This aggregation was stored during the previous window, which was already sent
+        EmailAggregation aggregation = createAggregation();
+        assertFalse(deduplicator.isDuplicate(aggregation));
+        aggregation.setCreated(LocalDateTime.now(ZoneOffset.UTC).minusDays(1L));
+        deduplicator.markStored(aggregation);
+
+        EmailAggregation retrigger = createAggregation();
+        assertFalse(deduplicator.isDuplicate(retrigger));
+        deduplicator.markStored(retrigger);
+        assertTrue(deduplicator.isDuplicate(createAggregation()));
+    }
+
+    private static EmailAggregation createAggregation() {
+        EmailAggregation aggregation = TestHelpers.createEmailAggregation("tenant", "rhel", "policies", "policy-01", "host-01");
+        // The payload contains the time of the action, which is not the case of the projected payloads.
+        aggregation.getPayload().remove("timestamp");
+        return aggregation;
+    }
+}
@@ -7,19 +7,23 @@ import com.redhat.cloud.notifications.TestLifecycleManager;
 import com.redhat.cloud.notifications.db.DbIsolatedTest;
 import com.redhat.cloud.notifications.db.EmailAggregationResources;
 import com.redhat.cloud.notifications.db.EndpointEmailSubscriptionResources;
+import com.redhat.cloud.notifications.db.NotificationResources;
 import com.redhat.cloud.notifications.db.ResourceHelpers;
 import com.redhat.cloud.notifications.ingress.Action;
 import com.redhat.cloud.notifications.ingress.Event;
 import com.redhat.cloud.notifications.ingress.Metadata;
+import com.redhat.cloud.notifications.models.EmailAggregationSummaryId;
 import com.redhat.cloud.notifications.models.EmailSubscriptionAttributes;
 import com.redhat.cloud.notifications.models.EmailSubscriptionType;
 import com.redhat.cloud.notifications.models.Endpoint;
 import com.redhat.cloud.notifications.models.EndpointType;
 import com.redhat.cloud.notifications.models.Notification;
 import com.redhat.cloud.notifications.models.NotificationHistory;
+import com.redhat.cloud.notifications.processors.email.aggregators.EmailPayloadAggregatorFactory;
 import com.redhat.cloud.notifications.processors.webhooks.WebhookTypeProcessor;
 import com.redhat.cloud.notifications.templates.LocalDateTimeExtension;
 import com.redhat.cloud.notifications.transformers.BaseTransformer;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.scheduler.ScheduledExecution;
 import io.quarkus.scheduler.Trigger;
 import io.quarkus.test.common.QuarkusTestResource;
@@ -28,6 +32,7 @@ import io.smallrye.mutiny.Uni;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.mutiny.core.Vertx;
+import org.hibernate.reactive.mutiny.Mutiny;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
@@ -35,17 +40,23 @@ import org.mockserver.mock.action.ExpectationResponseCallback;
 import org.mockserver.model.HttpRequest;
 
 import javax.inject.Inject;
+import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertIterableEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -77,6 +88,27 @@ public class EmailTest extends DbIsolatedTest {
     @Inject
     EndpointEmailSubscriptionResources subscriptionResources;
 
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    IncrementalEmailAggregator incrementalEmailAggregator;
+
+    @Inject
+    EmailAggregationBuffer emailAggregationBuffer;
+
+    @Inject
+    EmailAggregationDeduplicator emailAggregationDeduplicator;
+
+    @Inject
+    EmailPayloadAggregatorFactory aggregatorFactory;
+
+    @Inject
+    NotificationResources notificationResources;
+
+    @Inject
+    Mutiny.Session session;
+
     @BeforeAll
     void init() {
         emailProcessor = new EmailSubscriptionTypeProcessor();
@@ -89,6 +121,20 @@ public class EmailTest extends DbIsolatedTest {
         emailProcessor.bopEnv = "unitTest";
         emailProcessor.noReplyAddress = "no-reply@redhat.com";
         emailProcessor.baseTransformer = new BaseTransformer();
+        emailProcessor.registry = registry;
+        emailProcessor.incrementalEmailAggregator = incrementalEmailAggregator;
+        emailProcessor.emailAggregationBuffer = emailAggregationBuffer;
+        emailProcessor.emailAggregationDeduplicator = emailAggregationDeduplicator;
+        emailProcessor.aggregatorFactory = aggregatorFactory;
+        emailProcessor.notificationResources = notificationResources;
+        // Small chunks so that the parallel aggregation and the merge of the chunks are exercised
+        emailProcessor.aggregationChunkSize = 2;
+        emailProcessor.aggregationChunkParallelism = 2;
+        emailProcessor.dailyConcurrency = 4;
+        emailProcessor.dailyDeadline = Duration.ofHours(3);
+        emailProcessor.dailyShards = 4;
+        emailProcessor.dailyShardLease = Duration.ofMinutes(5);
+        emailProcessor.init();
 
         String url = String.format("http://%s/v1/sendEmails", mockServerConfig.getRunningAddress());
         emailProcessor.bopUrl = url;
@@ -366,6 +412,16 @@ public class EmailTest extends DbIsolatedTest {
             assertTrue(email.getJsonArray("emails").getJsonObject(0).getString("body").contains("policyid-02"));
             assertTrue(email.getJsonArray("emails").getJsonObject(0).getString("body").contains("policyid-03"));
 
+            // The aggregated email send is recorded in the history
+            List<NotificationHistory> histories = session.createQuery("FROM NotificationHistory WHERE accountId = :accountId AND endpoint IS NULL", NotificationHistory.class)
+                    .setParameter("accountId", tenant1)
+                    .getResultList()
+                    .await().indefinitely();
+            assertTrue(histories.stream().anyMatch(history -> history.isInvocationResult()
+                    && EmailSubscriptionType.DAILY.name().equals(history.getDetails().get("subscription_type"))
+                    && application.equals(history.getDetails().get("application"))));
+            assertTrue(registry.find(EmailSubscriptionTypeProcessor.AGGREGATION_RUN_TIMER_NAME).tag(EmailSubscriptionTypeProcessor.SUBSCRIPTION_TYPE_TAG, EmailSubscriptionType.DAILY.name()).timer().count() > 0);
+
             bodyRequests.clear();
 
             emailProcessor.processDailyEmail(nowPlus5Hours);
@@ -434,6 +490,156 @@ public class EmailTest extends DbIsolatedTest {
 
     }
 
+    @Test
+    void testEmailSubscriptionDailyResumedAfterDeadline() {
+        final String tenant = "resumed-tenant";
+        final String[] usernames = {"foo", "bar"};
+        final String bundle = "rhel";
+        final String application = "policies";
+
+        for (String username : usernames) {
+            helpers.createSubscription(tenant, username, bundle, application, EmailSubscriptionType.DAILY);
+        }
+
+        final Instant fireTime = Instant.now().plus(Duration.ofHours(5));
+        final List<String> bodyRequests = new ArrayList<>();
+
+        HttpRequest postReq = getMockHttpRequest(req -> {
+            bodyRequests.add(req.getBodyAsString());
+            return response().withStatusCode(200);
+        });
+
+        try {
+            helpers.addEmailAggregation(tenant, bundle, application, "policyid-01", "hostid-01");
+
+            // The deadline is already reached, the aggregation key is left for the next run
+            emailProcessor.processAggregateEmails(fireTime, EmailSubscriptionType.DAILY, true, Instant.now().minusSeconds(1)).await().indefinitely();
+            assertEquals(0, bodyRequests.size());
+
+            // The next run resumes the uncompleted period before processing its own period
+            emailProcessor.processAggregateEmails(fireTime.plus(Duration.ofDays(1)), EmailSubscriptionType.DAILY, true, null).await().indefinitely();
+            assertEquals(1, bodyRequests.size());
+            emailRequestIsOK(bodyRequests.get(0), usernames);
+            bodyRequests.clear();
+
+            // The resumed period is now completed
+            emailProcessor.processAggregateEmails(fireTime.plus(Duration.ofDays(2)), EmailSubscriptionType.DAILY, true, null).await().indefinitely();
+            assertEquals(0, bodyRequests.size());
+        } finally {
+            mockServerConfig.getMockServerClient().clear(postReq);
+        }
+    }
+
+    @Test
+    void testEmailSubscriptionDailyIncremental() {
+        final String tenant = "incremental-tenant";
+        final String[] usernames = {"foo", "bar"};
+        final String bundle = "rhel";
+        final String application = "policies";
+
+        for (String username : usernames) {
+            helpers.createSubscription(tenant, username, bundle, application, EmailSubscriptionType.DAILY);
+        }
+
+        IncrementalEmailAggregator incrementalAggregator = new IncrementalEmailAggregator();
+        incrementalAggregator.emailAggregationResources = emailAggregationResources;
+        incrementalAggregator.registry = registry;
+        incrementalAggregator.aggregatorFactory = aggregatorFactory;
+        incrementalAggregator.enabled = true;
+        incrementalAggregator.init();
+
+        final Instant fireTime = Instant.now().plus(Duration.ofHours(5));
+        final LocalDateTime startTime = LocalDateTime.ofInstant(fireTime.minus(Duration.ofDays(1)), ZoneOffset.UTC);
+        final List<String> bodyRequests = new ArrayList<>();
+
+        HttpRequest postReq = getMockHttpRequest(req -> {
+            bodyRequests.add(req.getBodyAsString());
+            return response().withStatusCode(200);
+        });
+
+        try {
+            assertTrue(incrementalAggregator.accumulate(TestHelpers.createEmailAggregation(tenant, bundle, application, "policyid-01", "hostid-01")));
+            assertTrue(incrementalAggregator.accumulate(TestHelpers.createEmailAggregation(tenant, bundle, application, "policyid-02", "hostid-02")));
+            incrementalAggregator.flush().await().indefinitely();
+            // A second micro-batch is merged into the same summary
+            assertTrue(incrementalAggregator.accumulate(TestHelpers.createEmailAggregation(tenant, bundle, application, "policyid-01", "hostid-03")));
+            incrementalAggregator.flush().await().indefinitely();
+
+            emailProcessor.processAggregateEmails(fireTime, EmailSubscriptionType.DAILY, true, null).await().indefinitely();
+            assertEquals(1, bodyRequests.size());
+            JsonObject email = emailRequestIsOK(bodyRequests.get(0), usernames);
+            assertEquals(
+                    String.format("%s - 2 policies triggered on 3 unique systems", LocalDateTimeExtension.toStringFormat(startTime)),
+                    email.getJsonArray("emails").getJsonObject(0).getString("subject")
+            );
+            bodyRequests.clear();
+
+            // The summaries were purged with the window
+            emailProcessor.processAggregateEmails(fireTime.plus(Duration.ofDays(1)), EmailSubscriptionType.DAILY, true, null).await().indefinitely();
+            assertEquals(0, bodyRequests.size());
+        } finally {
+            mockServerConfig.getMockServerClient().clear(postReq);
+        }
+    }
+
+    @Test
+    void testIncrementalFlushAcrossDailyWindow() {
+        LocalDateTime windowStart = emailAggregationResources.getDailyWindowStart(LocalDateTime.now(ZoneOffset.UTC));
+        LocalDateTime beforeEnd = windowStart.plusHours(23L);
+        LocalDateTime afterEnd = beforeEnd.plusHours(2L);
+        LocalDateTime nextWindowStart = emailAggregationResources.getDailyWindowStart(afterEnd);
+        // The daily job runs once a day, so the window of beforeEnd ends before afterEnd.
+        assertEquals(windowStart, emailAggregationResources.getDailyWindowStart(beforeEnd));
+        assertTrue(nextWindowStart.isAfter(beforeEnd));
+
+        // The merges are not written, only their buckets are recorded in the order of the merges.
+        List<LocalDateTime> buckets = new ArrayList<>();
+        IncrementalEmailAggregator incrementalAggregator = new IncrementalEmailAggregator();
+        incrementalAggregator.emailAggregationResources = new EmailAggregationResources() {
+            @Override
+            public LocalDateTime getDailyWindowStart(LocalDateTime time) {
+                return emailAggregationResources.getDailyWindowStart(time);
+            }
+
+            @Override
+            public Uni<Void> mergeEmailAggregationSummary(EmailAggregationSummaryId id, JsonObject state, UnaryOperator<JsonObject> merge) {
+                buckets.add(id.bucket);
+                return Uni.createFrom().voidItem();
+            }
+        };
+        incrementalAggregator.registry = registry;
+        incrementalAggregator.aggregatorFactory = aggregatorFactory;
+        incrementalAggregator.enabled = true;
+        // The end of the window is crossed between the merges of the two keys.
+        AtomicInteger clockReads = new AtomicInteger();
+        incrementalAggregator.clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Instant instant() {
+                return (clockReads.getAndIncrement() == 0 ? beforeEnd : afterEnd).toInstant(ZoneOffset.UTC);
+            }
+        };
+        incrementalAggregator.init();
+
+        assertTrue(incrementalAggregator.accumulate(TestHelpers.createEmailAggregation("window-tenant-1", "rhel", "policies", "policyid-01", "hostid-01")));
+        assertTrue(incrementalAggregator.accumulate(TestHelpers.createEmailAggregation("window-tenant-2", "rhel", "policies", "policyid-01", "hostid-01")));
+        incrementalAggregator.flush().await().indefinitely();
+
+        assertEquals(2, buckets.size());
+        assertEquals(beforeEnd.truncatedTo(ChronoUnit.HOURS), buckets.get(0));
+        // A micro-batch merged after the end of the window belongs to the next one.
+        assertFalse(buckets.get(1).isBefore(nextWindowStart));
+    }
+
     private JsonObject emailRequestIsOK(String request, String[] users) {
         JsonObject email = new JsonObject(request);
         JsonArray emails = email.getJsonArray("emails");
@@ -1,14 +1,27 @@
 package com.redhat.cloud.notifications.processors.email;
 
 import com.redhat.cloud.notifications.TestHelpers;
+import com.redhat.cloud.notifications.models.EmailAggregation;
 import com.redhat.cloud.notifications.processors.email.aggregators.PoliciesEmailPayloadAggregator;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
 import java.util.Map;
+import java.util.logging.Logger;
 
 public class PoliciesEmailPayloadAggregatorTest {
 
+    private static final Logger LOGGER = Logger.getLogger(PoliciesEmailPayloadAggregatorTest.class.getName());
+
+    // The heap usage is not precise, some garbage may survive a System.gc() call.
+    private static final long MAX_HEAP_NOISE_BYTES = 8L * 1024 * 1024;
+
     private Integer getUniqueHostForPolicy(PoliciesEmailPayloadAggregator aggregator, String policy) {
         Map<String, Map> policies = (Map<String, Map>) aggregator.getContext().get("policies");
         return (Integer) policies.get(policy).get("unique_system_count");
@@ -46,6 +59,139 @@ public class PoliciesEmailPayloadAggregatorTest {
         Assertions.assertEquals(2, getUniqueHostForPolicy(aggregator, "policy-03"));
     }
 
+    @Test
+    void mergedStatesMatchSingleAggregator() {
+        PoliciesEmailPayloadAggregator single = new PoliciesEmailPayloadAggregator();
+        PoliciesEmailPayloadAggregator first = new PoliciesEmailPayloadAggregator();
+        PoliciesEmailPayloadAggregator second = new PoliciesEmailPayloadAggregator();
+
+        for (EmailAggregation aggregation : List.of(
+                TestHelpers.createEmailAggregation("tenant", "insights", "policies", "policy-01", "host-01"),
+                TestHelpers.createEmailAggregation("tenant", "insights", "policies", "policy-02", "host-01")
+        )) {
+            single.aggregate(aggregation);
+            first.aggregate(aggregation);
+        }
+        for (EmailAggregation aggregation : List.of(
+                TestHelpers.createEmailAggregation("tenant", "insights", "policies", "policy-02", "host-02"),
+                TestHelpers.createEmailAggregation("tenant", "insights", "policies", "policy-03", "host-03")
+        )) {
+            single.aggregate(aggregation);
+            second.aggregate(aggregation);
+        }
+
+        // The state goes through a JSON round trip, like when it is stored in the database.
+        PoliciesEmailPayloadAggregator merged = new PoliciesEmailPayloadAggregator();
+        merged.mergeState(new JsonObject(first.exportState().encode()));
+        merged.mergeState(new JsonObject(second.exportState().encode()));
+
+        Assertions.assertEquals("tenant", merged.getAccountId());
+        Assertions.assertEquals(single.getProcessedAggregations(), merged.getProcessedAggregations());
+        Assertions.assertEquals(single.getUniqueHostCount(), merged.getUniqueHostCount());
+        Assertions.assertEquals(single.getContext(), merged.getContext());
+    }
+
+    @Test
+    void projectedPayloadsMatchFullPayloads() {
+        PoliciesEmailPayloadAggregator full = new PoliciesEmailPayloadAggregator();
+        PoliciesEmailPayloadAggregator projected = new PoliciesEmailPayloadAggregator();
+
+        for (EmailAggregation aggregation : List.of(
+                TestHelpers.createEmailAggregation("tenant", "insights", "policies", "policy-01", "host-01"),
+                TestHelpers.createEmailAggregation("tenant", "insights", "policies", "policy-02", "host-01"),
+                TestHelpers.createEmailAggregation("tenant", "insights", "policies", "policy-02", "host-02")
+        )) {
+            full.aggregate(aggregation);
+
+            JsonObject projectedPayload = projected.projectPayload(aggregation.getPayload());
+            Assertions.assertTrue(projectedPayload.encode().length() < aggregation.getPayload().encode().length());
+            aggregation.setPayload(new JsonObject(projectedPayload.encode()));
+            projected.aggregate(aggregation);
+        }
+
+        Assertions.assertEquals(full.getContext(), projected.getContext());
+    }
+
+    @Test
+    void hostsAreListedOncePerPolicy() {
+        PoliciesEmailPayloadAggregator aggregator = new PoliciesEmailPayloadAggregator();
+        for (int i = 0; i < 3; i++) {
+            aggregator.aggregate(TestHelpers.createEmailAggregation("tenant", "insights", "policies", "policy-01", "host-01"));
+        }
+        for (int i = 0; i < 200; i++) {
+            aggregator.aggregate(TestHelpers.createEmailAggregation("tenant", "insights", "policies", "policy-02", "host-" + i));
+        }
+
+        Map<String, Map> policies = (Map<String, Map>) aggregator.getContext().get("policies");
+        Assertions.assertEquals(1, ((List) policies.get("policy-01").get("hosts")).size());
+        Assertions.assertEquals(1, getUniqueHostForPolicy(aggregator, "policy-01"));
+        // Only the first hosts are listed but all of them are counted
+        Assertions.assertEquals(50, ((List) policies.get("policy-02").get("hosts")).size());
+        Assertions.assertEquals(200, getUniqueHostForPolicy(aggregator, "policy-02"));
+        Assertions.assertEquals(201, aggregator.getUniqueHostCount());
+    }
+
+    /*
+     * Run with: mvn test -Dtest=PoliciesEmailPayloadAggregatorTest -Dbenchmark=true
+     * The retained heap should grow with the number of unique hosts, not with the number of aggregations.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmarkAggregatorHeapUsage() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long firstRetained = -1L;
+        long firstNanosPerAggregation = -1L;
+        for (int rows : new int[] {10_000, 100_000, 1_000_000}) {
+            System.gc();
+            long before = memory.getHeapMemoryUsage().getUsed();
+            long started = System.nanoTime();
+
+            PoliciesEmailPayloadAggregator aggregator = new PoliciesEmailPayloadAggregator();
+            for (int i = 0; i < rows; i++) {
+                aggregator.aggregate(createProjectedAggregation("policy-" + (i % 20), "host-" + (i % 10_000)));
+            }
+
+            long elapsed = System.nanoTime() - started;
+            System.gc();
+            long retained = memory.getHeapMemoryUsage().getUsed() - before;
+            LOGGER.info(String.format("%d aggregations: %d unique hosts, %d KB retained, %d ms",
+                    rows, aggregator.getUniqueHostCount(), retained / 1024, elapsed / 1_000_000));
+            Assertions.assertEquals(Math.min(rows, 10_000), aggregator.getUniqueHostCount());
+
+            long nanosPerAggregation = elapsed / rows;
+            if (firstRetained < 0L) {
+                firstRetained = retained;
+                firstNanosPerAggregation = nanosPerAggregation;
+            } else {
+                // All runs have the same unique hosts, so the retained heap must not grow with the aggregations.
+                Assertions.assertTrue(retained <= 2L * firstRetained + MAX_HEAP_NOISE_BYTES,
+                        "Retained heap grew from " + firstRetained / 1024 + " KB to " + retained / 1024 + " KB");
+                // The first run includes the JIT warm-up, the next ones must not be slower per aggregation.
+                Assertions.assertTrue(nanosPerAggregation <= 2L * firstNanosPerAggregation,
+                        "Aggregation time grew from " + firstNanosPerAggregation + " ns to " + nanosPerAggregation + " ns per aggregation");
+            }
+        }
+    }
+
+    private static EmailAggregation createProjectedAggregation(String policyId, String insightsId) {
+        EmailAggregation aggregation = new EmailAggregation();
+        aggregation.setAccountId("tenant");
+        aggregation.setBundleName("rhel");
+        aggregation.setApplicationName("policies");
+        aggregation.setPayload(new JsonObject()
+                .put("context", new JsonObject()
+                        .put("display_name", "machine " + insightsId)
+                        .put("insights_id", insightsId)
+                        .put("tags", new JsonArray()))
+                .put("events", new JsonArray().add(new JsonObject()
+                        .put("payload", new JsonObject()
+                                .put("policy_id", policyId)
+                                .put("policy_name", "name " + policyId)
+                                .put("policy_description", "description")
+                                .put("policy_condition", "facts.arch = 'x86_64'")))));
+        return aggregation;
+    }
+
     @Test
     void emailWithDifferentTenantThrowsError() {
         PoliciesEmailPayloadAggregator aggregator = new PoliciesEmailPayloadAggregator();
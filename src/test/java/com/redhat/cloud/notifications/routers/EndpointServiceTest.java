@@ -21,13 +21,20 @@ import io.restassured.RestAssured;
 import io.restassured.http.ContentType;
 import io.restassured.http.Header;
 import io.restassured.response.Response;
+import io.restassured.specification.RequestSpecification;
 import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -620,6 +627,145 @@ public class EndpointServiceTest extends DbIsolatedTest {
         */
     }
 
+    @Test
+    void testEndpointHistoryFilters() {
+        String tenant = "history-filters";
+        String userName = "user";
+        String identityHeaderValue = TestHelpers.encodeIdentityInfo(tenant, userName);
+        Header identityHeader = TestHelpers.createIdentityHeader(identityHeaderValue);
+
+        mockServerConfig.addMockRbacAccess(identityHeaderValue, MockServerClientConfig.RbacAccess.FULL_ACCESS);
+
+        UUID endpointId = helpers.createWebhookEndpoint(tenant);
+        helpers.createNotificationHistory(tenant, endpointId, true);
+        UUID unavailable = helpers.createNotificationHistory(tenant, endpointId, false, 503, null);
+        UUID notFound = helpers.createNotificationHistory(tenant, endpointId, false, 404, null);
+        UUID timeout = helpers.createNotificationHistory(tenant, endpointId, false, null, "timeout");
+
+        assertEquals(List.of(unavailable.toString()), getHistoryIds(identityHeader, endpointId, "status_code", "5xx"));
+        assertEquals(List.of(notFound.toString()), getHistoryIds(identityHeader, endpointId, "status_code", "404"));
+        assertEquals(List.of(), getHistoryIds(identityHeader, endpointId, "status_code", "500"));
+        assertEquals(List.of(timeout.toString()), getHistoryIds(identityHeader, endpointId, "error_type", "timeout"));
+
+        given()
+                .header(identityHeader)
+                .queryParam("status_code", "5x")
+                .when().get("/endpoints/" + endpointId + "/history")
+                .then()
+                .statusCode(400);
+    }
+
+    private List<String> getHistoryIds(Header identityHeader, UUID endpointId, String filterName, String filterValue) {
+        String responseBody = given()
+                .header(identityHeader)
+                .queryParam(filterName, filterValue)
+                .when().get("/endpoints/" + endpointId + "/history")
+                .then()
+                .statusCode(200)
+                .extract().body().asString();
+        JsonArray history = new JsonArray(responseBody);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < history.size(); i++) {
+            ids.add(history.getJsonObject(i).getString("id"));
+        }
+        return ids;
+    }
+
+    @Test
+    void testKeysetPagination() {
+        String tenant = "testKeysetPagination";
+        String userName = "user";
+        String identityHeaderValue = TestHelpers.encodeIdentityInfo(tenant, userName);
+        Header identityHeader = TestHelpers.createIdentityHeader(identityHeaderValue);
+
+        mockServerConfig.addMockRbacAccess(identityHeaderValue, MockServerClientConfig.RbacAccess.FULL_ACCESS);
+
+        int[] stats = helpers.createTestEndpoints(tenant, 25);
+
+        Response response = given()
+                .header(identityHeader)
+                .queryParam("sort_by", "name:desc")
+                .when()
+                .get("/endpoints")
+                .then()
+                .statusCode(200)
+                .extract().response();
+        List<Endpoint> allEndpoints = Json.decodeValue(response.getBody().asString(), EndpointPage.class).getData();
+        assertEquals(stats[0], allEndpoints.size());
+
+        List<Endpoint> pagedEndpoints = new ArrayList<>();
+        String cursor = null;
+        do {
+            RequestSpecification request = given()
+                    .header(identityHeader)
+                    .queryParam("sort_by", "name:desc")
+                    .queryParam("limit", 10);
+            if (cursor != null) {
+                request = request.queryParam("cursor", cursor);
+            }
+            response = request.when()
+                    .get("/endpoints")
+                    .then()
+                    .statusCode(200)
+                    .extract().response();
+            EndpointPage endpointPage = Json.decodeValue(response.getBody().asString(), EndpointPage.class);
+            // The total count does not depend on the position of the page.
+            assertEquals(stats[0], endpointPage.getMeta().getCount());
+            List<Endpoint> page = endpointPage.getData();
+            assertTrue(page.size() <= 10);
+            pagedEndpoints.addAll(page);
+            cursor = page.size() < 10 ? null : page.get(page.size() - 1).getId().toString();
+        } while (cursor != null);
+
+        assertEquals(allEndpoints.size(), pagedEndpoints.size());
+        for (int i = 0; i < allEndpoints.size(); i++) {
+            assertEquals(allEndpoints.get(i).getId(), pagedEndpoints.get(i).getId());
+        }
+
+        // Sort keys that are not whitelisted, unknown sort orders and malformed cursors are rejected.
+        given()
+                .header(identityHeader)
+                .queryParam("sort_by", "description")
+                .when()
+                .get("/endpoints")
+                .then()
+                .statusCode(400);
+        given()
+                .header(identityHeader)
+                .queryParam("sort_by", "name:sideways")
+                .when()
+                .get("/endpoints")
+                .then()
+                .statusCode(400);
+        given()
+                .header(identityHeader)
+                .queryParam("cursor", "not-an-id")
+                .when()
+                .get("/endpoints")
+                .then()
+                .statusCode(400);
+        given()
+                .header(identityHeader)
+                .queryParam("sort_by", "name:desc")
+                .queryParam("cursor", UUID.randomUUID().toString())
+                .when()
+                .get("/endpoints")
+                .then()
+                .statusCode(400);
+
+        // The cursor of another account is unknown
+        String otherIdentityHeaderValue = TestHelpers.encodeIdentityInfo("testKeysetPaginationOther", userName);
+        mockServerConfig.addMockRbacAccess(otherIdentityHeaderValue, MockServerClientConfig.RbacAccess.FULL_ACCESS);
+        given()
+                .header(TestHelpers.createIdentityHeader(otherIdentityHeaderValue))
+                .queryParam("sort_by", "name:desc")
+                .queryParam("cursor", allEndpoints.get(0).getId().toString())
+                .when()
+                .get("/endpoints")
+                .then()
+                .statusCode(400);
+    }
+
     @Test
     void testWebhookAttributes() {
         String tenant = "testWebhookAttributes";
@@ -865,6 +1011,231 @@ public class EndpointServiceTest extends DbIsolatedTest {
         assertNull(this.helpers.getSubscription(tenant, username, ResourceHelpers.TEST_BUNDLE_NAME, ResourceHelpers.TEST_APP_NAME, EmailSubscriptionType.DAILY));
     }
 
+    @Test
+    void testBulkOperations() {
+        String tenant = "bulk";
+        String userName = "user";
+        String identityHeaderValue = TestHelpers.encodeIdentityInfo(tenant, userName);
+        Header identityHeader = TestHelpers.createIdentityHeader(identityHeaderValue);
+
+        mockServerConfig.addMockRbacAccess(identityHeaderValue, MockServerClientConfig.RbacAccess.FULL_ACCESS);
+
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            WebhookAttributes webAttr = new WebhookAttributes();
+            webAttr.setMethod(HttpType.POST);
+            webAttr.setDisableSSLVerification(false);
+            webAttr.setUrl("https://bulk-" + i + ".example.com");
+
+            Endpoint ep = new Endpoint();
+            ep.setType(EndpointType.WEBHOOK);
+            ep.setName("bulk " + i);
+            ep.setDescription("bulk endpoint");
+            ep.setEnabled(true);
+            ep.setProperties(webAttr);
+            endpoints.add(ep);
+        }
+
+        // A batch with an invalid endpoint is rejected as a whole.
+        Endpoint invalid = new Endpoint();
+        invalid.setType(EndpointType.WEBHOOK);
+        invalid.setName("no properties");
+        invalid.setDescription("bulk endpoint");
+        List<Endpoint> invalidBatch = new ArrayList<>(endpoints);
+        invalidBatch.add(invalid);
+        given()
+                .header(identityHeader)
+                .contentType(ContentType.JSON)
+                .body(Json.encode(invalidBatch))
+                .when()
+                .post("/endpoints/bulk")
+                .then()
+                .statusCode(400);
+        assertEquals(0, getEndpointsCount(identityHeader));
+
+        // The names have to be unique within the batch, the error names the duplicate entry.
+        Endpoint duplicate = new Endpoint();
+        duplicate.setType(EndpointType.WEBHOOK);
+        duplicate.setName(endpoints.get(0).getName());
+        duplicate.setDescription("bulk endpoint");
+        duplicate.setProperties(endpoints.get(0).getProperties());
+        List<Endpoint> duplicateBatch = new ArrayList<>(endpoints);
+        duplicateBatch.add(duplicate);
+        String error = given()
+                .header(identityHeader)
+                .contentType(ContentType.JSON)
+                .body(Json.encode(duplicateBatch))
+                .when()
+                .post("/endpoints/bulk")
+                .then()
+                .statusCode(400)
+                .extract().asString();
+        assertTrue(error.contains("index " + endpoints.size()), error);
+        assertEquals(0, getEndpointsCount(identityHeader));
+
+        Response response = given()
+                .header(identityHeader)
+                .contentType(ContentType.JSON)
+                .body(Json.encode(endpoints))
+                .when()
+                .post("/endpoints/bulk")
+                .then()
+                .statusCode(200)
+                .extract().response();
+        JsonArray created = new JsonArray(response.getBody().asString());
+        assertEquals(3, created.size());
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < created.size(); i++) {
+            assertEquals("bulk " + i, created.getJsonObject(i).getString("name"));
+            ids.add(created.getJsonObject(i).getString("id"));
+        }
+        assertEquals(3, getEndpointsCount(identityHeader));
+        assertEquals("https://bulk-1.example.com", fetchSingle(ids.get(1), identityHeader).getJsonObject("properties").getString("url"));
+
+        // Nothing is updated if one of the endpoints is unknown.
+        endpoints.get(0).setName("renamed");
+        given()
+                .header(identityHeader)
+                .contentType(ContentType.JSON)
+                .body(Json.encode(Map.of(ids.get(0), endpoints.get(0), UUID.randomUUID().toString(), endpoints.get(1))))
+                .when()
+                .put("/endpoints/bulk")
+                .then()
+                .statusCode(404);
+        assertEquals("bulk 0", fetchSingle(ids.get(0), identityHeader).getString("name"));
+
+        ((WebhookAttributes) endpoints.get(1).getProperties()).setUrl("https://updated.example.com");
+        given()
+                .header(identityHeader)
+                .contentType(ContentType.JSON)
+                .body(Json.encode(Map.of(ids.get(0), endpoints.get(0), ids.get(1), endpoints.get(1))))
+                .when()
+                .put("/endpoints/bulk")
+                .then()
+                .statusCode(200);
+        assertEquals("renamed", fetchSingle(ids.get(0), identityHeader).getString("name"));
+        assertEquals("https://updated.example.com", fetchSingle(ids.get(1), identityHeader).getJsonObject("properties").getString("url"));
+
+        // The export contains one JSON document per line.
+        String export = given()
+                .header(identityHeader)
+                .when()
+                .get("/endpoints/export")
+                .then()
+                .statusCode(200)
+                .extract().asString();
+        Set<String> exportedIds = new HashSet<>();
+        for (String line : export.split("\n")) {
+            exportedIds.add(new JsonObject(line).getJsonObject("endpoint").getString("id"));
+        }
+        assertEquals(new HashSet<>(ids), exportedIds);
+
+        // Nothing is deleted if one of the endpoints is unknown.
+        given()
+                .header(identityHeader)
+                .contentType(ContentType.JSON)
+                .body(Json.encode(List.of(ids.get(0), UUID.randomUUID().toString())))
+                .when()
+                .delete("/endpoints/bulk")
+                .then()
+                .statusCode(404);
+        assertEquals(3, getEndpointsCount(identityHeader));
+
+        given()
+                .header(identityHeader)
+                .contentType(ContentType.JSON)
+                .body(Json.encode(ids))
+                .when()
+                .delete("/endpoints/bulk")
+                .then()
+                .statusCode(204);
+        assertEquals(0, getEndpointsCount(identityHeader));
+    }
+
+    private int getEndpointsCount(Header identityHeader) {
+        Response response = given()
+                .header(identityHeader)
+                .when()
+                .get("/endpoints")
+                .then()
+                .statusCode(200)
+                .extract().response();
+        return Json.decodeValue(response.getBody().asString(), EndpointPage.class).getMeta().getCount().intValue();
+    }
+
+    @Test
+    void testEndpointHistoryPagination() {
+        String tenant = "history-pagination";
+        String userName = "user";
+        String identityHeaderValue = TestHelpers.encodeIdentityInfo(tenant, userName);
+        Header identityHeader = TestHelpers.createIdentityHeader(identityHeaderValue);
+
+        mockServerConfig.addMockRbacAccess(identityHeaderValue, MockServerClientConfig.RbacAccess.FULL_ACCESS);
+
+        UUID endpointId = helpers.createWebhookEndpoint(tenant);
+        Set<String> expectedIds = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            expectedIds.add(helpers.createNotificationHistory(tenant, endpointId, true).toString());
+        }
+
+        List<JsonObject> entries = new ArrayList<>();
+        String nextPage = "/endpoints/" + endpointId + "/history?limit=2";
+        int pages = 0;
+        while (nextPage != null) {
+            Response response = given()
+                    .header(identityHeader)
+                    .when().get(nextPage)
+                    .then()
+                    .statusCode(200)
+                    .extract().response();
+
+            JsonArray page = new JsonArray(response.getBody().asString());
+            assertTrue(page.size() <= 2);
+            for (int i = 0; i < page.size(); i++) {
+                entries.add(page.getJsonObject(i));
+            }
+            pages++;
+
+            String link = response.getHeader("Link");
+            if (link == null) {
+                nextPage = null;
+            } else {
+                assertTrue(link.contains("rel=\"next\""));
+                String uri = link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+                nextPage = uri.substring(uri.indexOf("/endpoints/"));
+            }
+        }
+
+        assertEquals(3, pages);
+        assertEquals(5, entries.size());
+        Set<String> actualIds = new HashSet<>();
+        for (int i = 0; i < entries.size(); i++) {
+            actualIds.add(entries.get(i).getString("id"));
+            if (i > 0) {
+                // The entries are sorted from the most recent to the oldest one.
+                assertTrue(entries.get(i - 1).getString("created").compareTo(entries.get(i).getString("created")) >= 0);
+            }
+        }
+        assertEquals(expectedIds, actualIds);
+
+        // Invalid page sizes and cursors are rejected.
+        given()
+                .header(identityHeader)
+                .when().get("/endpoints/" + endpointId + "/history?limit=0")
+                .then()
+                .statusCode(400);
+        given()
+                .header(identityHeader)
+                .when().get("/endpoints/" + endpointId + "/history?limit=" + (EndpointService.MAX_HISTORY_LIMIT + 1))
+                .then()
+                .statusCode(400);
+        given()
+                .header(identityHeader)
+                .when().get("/endpoints/" + endpointId + "/history?cursor=not-a-cursor")
+                .then()
+                .statusCode(400);
+    }
+
     //    @Test
     void testConnectionCount() {
         String tenant = "count";